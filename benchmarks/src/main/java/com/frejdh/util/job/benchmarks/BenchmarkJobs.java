@@ -0,0 +1,19 @@
+package com.frejdh.util.job.benchmarks;
+
+import com.frejdh.util.job.model.callables.JobAction;
+import com.frejdh.util.job.model.callables.JobOnStatusChange;
+
+/**
+ * Shared helpers for the benchmarks.
+ */
+final class BenchmarkJobs {
+
+	static final JobAction NO_OP_ACTION = jobRef -> { };
+
+	static final JobOnStatusChange NO_OP_STATUS_CHANGE = jobRef -> { };
+
+	static final String RUNTIME_DAO = "com.frejdh.util.job.persistence.impl.memory.RuntimeJobQueueDao";
+
+	private BenchmarkJobs() { }
+
+}
@@ -0,0 +1,71 @@
+package com.frejdh.util.job.benchmarks;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.model.JobStatus;
+import com.frejdh.util.job.persistence.config.RetentionPolicy;
+import com.frejdh.util.job.persistence.impl.memory.RuntimeJobQueueDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation per job, i.e. the footprint of a job and of storing it in the in-memory DAO.
+ * Run with the GC profiler and compare {@code gc.alloc.rate.norm} (bytes per operation):
+ * {@code java -jar benchmarks/target/benchmarks.jar JobAllocationBenchmark -prof gc}
+ * <p>
+ * The DAO evicts all but the last {@link #RETAINED_JOBS} jobs, so the heap doesn't grow during the run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g"})
+@State(Scope.Benchmark)
+public class JobAllocationBenchmark {
+
+	public static final int RETAINED_JOBS = 10_000;
+
+	private RuntimeJobQueueDao jobQueueDao;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		jobQueueDao = new RuntimeJobQueueDao(RetentionPolicy.builder()
+				.withMaxFinishedJobs(RETAINED_JOBS)
+				.build());
+	}
+
+	@Benchmark
+	public Job createJob() {
+		return Job.builder()
+				.withAction(BenchmarkJobs.NO_OP_ACTION)
+				.build();
+	}
+
+	@Benchmark
+	public Job createJobWithStatusListener() {
+		Job job = Job.builder()
+				.withAction(BenchmarkJobs.NO_OP_ACTION)
+				.build();
+		job.appendOnJobStatusChange(BenchmarkJobs.NO_OP_STATUS_CHANGE);
+		return job;
+	}
+
+	@Benchmark
+	public Job createAndStoreJob() {
+		return jobQueueDao.upsertJob(Job.builder()
+				.withAction(BenchmarkJobs.NO_OP_ACTION)
+				.withStatus(JobStatus.FINISHED)
+				.build());
+	}
+
+}
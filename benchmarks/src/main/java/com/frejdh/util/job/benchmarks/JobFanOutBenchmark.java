@@ -0,0 +1,76 @@
+package com.frejdh.util.job.benchmarks;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.JobQueue;
+import com.frejdh.util.job.JobQueueBuilder;
+import com.frejdh.util.job.model.JobExecutorMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for one job to fan out into {@link #FOLLOW_UP_JOBS} no-op jobs (added from inside its action)
+ * until all of them are finalized, per executor mode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class JobFanOutBenchmark {
+
+	public static final int FOLLOW_UP_JOBS = 100;
+
+	@Param({"THREAD_POOL", "WORK_STEALING"})
+	public JobExecutorMode executorMode;
+
+	private JobQueue queue;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		JobQueueBuilder builder = new JobQueueBuilder()
+				.withMaxAmountOfThreads(Runtime.getRuntime().availableProcessors());
+		if (executorMode == JobExecutorMode.WORK_STEALING) {
+			builder.withWorkStealing();
+		}
+		queue = builder.buildAndStart();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		queue.stopAndAwait(30, TimeUnit.SECONDS);
+	}
+
+	@Benchmark
+	public Job fanOutAndAwaitCompletion() throws InterruptedException {
+		CountDownLatch finalized = new CountDownLatch(FOLLOW_UP_JOBS);
+		Job job = Job.builder()
+				.withAction(jobRef -> {
+					for (int i = 0; i < FOLLOW_UP_JOBS; i++) {
+						queue.add(Job.builder()
+								.withAction(BenchmarkJobs.NO_OP_ACTION)
+								.onFinalize(followUpJobRef -> finalized.countDown())
+								.build());
+					}
+				})
+				.build();
+		queue.add(job);
+		finalized.await();
+		return job;
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.frejdh.util.job.benchmarks;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.JobQueue;
+import com.frejdh.util.job.JobQueueBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end latency (add until finalized) of no-op jobs, without resource keys,
+ * with a unique resource key per job (uncontended) and with one resource key shared by all producers (contended).
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@Threads(4)
+@State(Scope.Benchmark)
+public class JobLatencyBenchmark {
+
+	private static final String CONTENDED_RESOURCE_KEY = "contended";
+
+	@Param({"none", "uncontended", "contended"})
+	public String resourceKeys;
+
+	private final AtomicLong resourceKeyCounter = new AtomicLong();
+	private JobQueue queue;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		queue = new JobQueueBuilder()
+				.withMaxAmountOfThreads(Runtime.getRuntime().availableProcessors())
+				.buildAndStart();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		queue.stopAndAwait(30, TimeUnit.SECONDS);
+	}
+
+	@Benchmark
+	public Job addAndAwaitCompletion() throws InterruptedException {
+		CountDownLatch finalized = new CountDownLatch(1);
+		Job job = Job.builder()
+				.withAction(BenchmarkJobs.NO_OP_ACTION)
+				.withResourceKey(nextResourceKey())
+				.onFinalize(jobRef -> finalized.countDown())
+				.build();
+		queue.add(job);
+		finalized.await();
+		return job;
+	}
+
+	private String nextResourceKey() {
+		switch (resourceKeys) {
+			case "uncontended":
+				return "resource-" + resourceKeyCounter.getAndIncrement();
+			case "contended":
+				return CONTENDED_RESOURCE_KEY;
+			default:
+				return null;
+		}
+	}
+
+}
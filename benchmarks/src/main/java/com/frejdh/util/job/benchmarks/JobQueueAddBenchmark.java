@@ -0,0 +1,95 @@
+package com.frejdh.util.job.benchmarks;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.JobQueue;
+import com.frejdh.util.job.JobQueueBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link JobQueue#add(Job)} with no-op jobs, for 1..N producer threads,
+ * compared to {@link JobQueue#addAll(Collection)} in batches of {@link #BATCH_SIZE}.
+ * The queue is recreated each iteration, so the DAO history grows within an iteration only.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class JobQueueAddBenchmark {
+
+	public static final int BATCH_SIZE = 1000;
+
+	private JobQueue queue;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		queue = new JobQueueBuilder()
+				.withMaxAmountOfThreads(Runtime.getRuntime().availableProcessors())
+				.buildAndStart();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		queue.stopAndAwait(30, TimeUnit.SECONDS);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Job add_1Producer() {
+		return addNoOpJob();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Job add_4Producers() {
+		return addNoOpJob();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Job add_maxProducers() {
+		return addNoOpJob();
+	}
+
+	@Benchmark
+	@Threads(1)
+	@OperationsPerInvocation(BATCH_SIZE)
+	public List<Job> addAll_1Producer() {
+		List<Job> jobs = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			jobs.add(Job.builder()
+					.withAction(BenchmarkJobs.NO_OP_ACTION)
+					.build());
+		}
+		queue.addAll(jobs);
+		return jobs;
+	}
+
+	private Job addNoOpJob() {
+		Job job = Job.builder()
+				.withAction(BenchmarkJobs.NO_OP_ACTION)
+				.build();
+		queue.add(job);
+		return job;
+	}
+
+}
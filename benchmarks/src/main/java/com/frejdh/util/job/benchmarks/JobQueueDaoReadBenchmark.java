@@ -0,0 +1,78 @@
+package com.frejdh.util.job.benchmarks;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.model.JobStatus;
+import com.frejdh.util.job.persistence.AbstractJobQueueDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DAO reads with 1k/100k/1M stored jobs, of which 1% are pending and the rest finished.
+ * Other DAO implementations can be compared by passing their class name, e.g. {@code -p dao=my.CustomDao}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class JobQueueDaoReadBenchmark {
+
+	@Param({"1000", "100000", "1000000"})
+	public int storedJobs;
+
+	@Param({BenchmarkJobs.RUNTIME_DAO})
+	public String dao;
+
+	private AbstractJobQueueDao jobQueueDao;
+
+	@Setup(Level.Trial)
+	public void setUp() throws ReflectiveOperationException {
+		jobQueueDao = (AbstractJobQueueDao) Class.forName(dao).getDeclaredConstructor().newInstance();
+		for (int i = 0; i < storedJobs; i++) {
+			jobQueueDao.upsertJob(Job.builder()
+					.withAction(BenchmarkJobs.NO_OP_ACTION)
+					.withStatus(i % 100 == 0 ? JobStatus.INITIALIZED : JobStatus.FINISHED)
+					.build());
+		}
+	}
+
+	@Benchmark
+	public Map<Long, Job> getPendingJobs() {
+		return jobQueueDao.getPendingJobs();
+	}
+
+	@Benchmark
+	public int getPendingJobsAndIterate() {
+		int count = 0;
+		for (Job ignored : jobQueueDao.getPendingJobs().values()) {
+			count++;
+		}
+		return count;
+	}
+
+	@Benchmark
+	public Job getJobById() {
+		return jobQueueDao.getJobById(ThreadLocalRandom.current().nextLong(storedJobs));
+	}
+
+	@Benchmark
+	public Job getLastAddedJob() {
+		return jobQueueDao.getLastAddedJob();
+	}
+
+}
@@ -14,19 +14,30 @@ import lombok.NonNull;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
 
 @SuppressWarnings("FieldMayBeFinal")
 public class Job {
 
 	protected static final int UNASSIGNED_VALUE = -999999;
 
-	protected Long addedTimestamp;
+	protected long addedTimestamp;
 
 	@NotNull
 	protected JobFunction jobFunction;
 
 	protected String resourceKey;
 
+	/**
+	 * All resource keys of the job, incl. {@link #resourceKey}. Sorted, which is the order they're acquired in.
+	 */
+	protected List<String> resourceKeys;
+
 	protected JobOptions jobOptions;
 
 	protected JobOnIdSet onJobIdSetCallback;
@@ -43,12 +54,23 @@ public class Job {
 
 	protected String description;
 
-	@Builder(setterPrefix = "with")
 	public Job(@NotNull JobFunction jobFunction, long jobId, String resourceKey, JobOptions jobOptions, String description) {
+		this(jobFunction, jobId, resourceKey, null, jobOptions, description);
+	}
+
+	/**
+	 * @param resourceKeys Further resource keys of the job, which are all acquired at once. If the resource key is
+	 *                     null, the first of these (in sorted order) is used as the resource key.
+	 */
+	@Builder(setterPrefix = "with")
+	public Job(@NotNull JobFunction jobFunction, long jobId, String resourceKey, Collection<String> resourceKeys,
+			   JobOptions jobOptions, String description) {
 		this.jobId = jobId;
 		this.jobFunction = jobFunction;
-		this.resourceKey = StringUtils.isNotBlank(resourceKey) ? resourceKey : null;
-		this.jobOptions = jobOptions != null ? jobOptions : JobOptions.builder().build();
+		this.resourceKeys = toResourceKeys(resourceKey, resourceKeys);
+		this.resourceKey = StringUtils.isNotBlank(resourceKey) ? resourceKey
+				: (!this.resourceKeys.isEmpty() ? this.resourceKeys.get(0) : null);
+		this.jobOptions = jobOptions != null ? jobOptions : JobOptions.DEFAULT;
 		this.description = description;
 		setRequiredJobFunctionData();
 	}
@@ -61,6 +83,32 @@ public class Job {
 		return resourceKey;
 	}
 
+	/**
+	 * @return All resource keys of the job, in sorted order. Empty if none.
+	 */
+	public List<String> getResourceKeys() {
+		return resourceKeys;
+	}
+
+	private static List<String> toResourceKeys(String resourceKey, Collection<String> resourceKeys) {
+		if (resourceKeys == null || resourceKeys.isEmpty()) {
+			return StringUtils.isNotBlank(resourceKey) ? Collections.singletonList(resourceKey) : Collections.emptyList();
+		}
+
+		TreeSet<String> sortedResourceKeys = new TreeSet<>();
+		if (StringUtils.isNotBlank(resourceKey)) {
+			sortedResourceKeys.add(resourceKey);
+		}
+		for (String key : resourceKeys) {
+			if (StringUtils.isNotBlank(key)) {
+				sortedResourceKeys.add(key);
+			}
+		}
+		return sortedResourceKeys.size() == 1
+				? Collections.singletonList(sortedResourceKeys.first())
+				: Collections.unmodifiableList(new ArrayList<>(sortedResourceKeys));
+	}
+
 
 	public long getJobId() {
 		return jobId;
@@ -130,12 +178,28 @@ public class Job {
 		return jobFunction.getStopTime();
 	}
 
+	/**
+	 * Get job start time as epoch number, without boxing
+	 * @return The timestamp, or zero if not started
+	 */
+	public long getStartTimestamp() {
+		return jobFunction.getStartTimestamp();
+	}
+
+	/**
+	 * Get job stop time as epoch number, without boxing
+	 * @return The timestamp, or zero if not finished
+	 */
+	public long getStopTimestamp() {
+		return jobFunction.getStopTimestamp();
+	}
+
 	public boolean isStarted() {
-		return getStartTime() != null;
+		return getStartTimestamp() != 0;
 	}
 
 	public boolean isFinished() {
-		return getStopTime() != null;
+		return getStopTimestamp() != 0;
 	}
 
 	public boolean isRunning() {
@@ -150,8 +214,18 @@ public class Job {
 		return jobFunction.getStatus();
 	}
 
-	void setStatus(JobStatus status) {
-		jobFunction.setStatus(status);
+	/**
+	 * See {@link JobFunction#transitionTo(JobStatus)}.
+	 */
+	boolean transitionStatus(JobStatus status) {
+		return jobFunction.transitionTo(status);
+	}
+
+	/**
+	 * See {@link JobFunction#compareAndSetStatus(JobStatus, JobStatus)}.
+	 */
+	boolean compareAndSetStatus(JobStatus expectedStatus, JobStatus status) {
+		return jobFunction.compareAndSetStatus(expectedStatus, status);
 	}
 
 	/**
@@ -178,6 +252,10 @@ public class Job {
 		return addedTimestamp;
 	}
 
+	void setAddedTimestamp(long addedTimestamp) {
+		this.addedTimestamp = addedTimestamp;
+	}
+
 	public void appendOnJobCallback(@NonNull JobOnCallback onCallback) {
 		jobFunction.addOnCallback(onCallback);
 	}
@@ -202,6 +280,24 @@ public class Job {
 		return jobFunction.hasStartedAlready();
 	}
 
+	/**
+	 * Time out the job, see {@link JobFunction#timeOut()}.
+	 */
+	boolean timeOut() {
+		return jobFunction.timeOut();
+	}
+
+	/**
+	 * Cancel the job, see {@link JobFunction#cancel()}.
+	 */
+	JobStatus cancel() {
+		return jobFunction.cancel();
+	}
+
+	public boolean isTimedOut() {
+		return jobFunction.isTimedOut();
+	}
+
 	void setOnJobIdSetCallback(JobOnIdSet onJobIdSetCallback) {
 		this.onJobIdSetCallback = onJobIdSetCallback;
 	}
@@ -223,7 +319,7 @@ public class Job {
 		}
 
 		public JobBuilder withStatus(JobStatus status) {
-			jobFunction.setStatus(status);
+			jobFunction.setStatusWithoutCallback(status);
 			return this;
 		}
 
@@ -261,6 +357,19 @@ public class Job {
 			return this;
 		}
 
+		/**
+		 * OPTIONAL. Resource keys of a job that uses several resources, e.g. a source and a target account.
+		 * The job is started once it has acquired all of them, and never holds some of them while waiting for the rest.
+		 */
+		public JobBuilder withResourceKeys(Collection<String> resourceKeys) {
+			this.resourceKeys = resourceKeys;
+			return this;
+		}
+
+		public JobBuilder withResourceKeys(String... resourceKeys) {
+			return withResourceKeys(Arrays.asList(resourceKeys));
+		}
+
 	}
 
 	public void start() {
@@ -273,6 +382,7 @@ public class Job {
 				"addedTimestamp=" + addedTimestamp +
 				", jobFunction=" + jobFunction +
 				", resourceKey='" + resourceKey + '\'' +
+				(resourceKeys.size() > 1 ? ", resourceKeys=" + resourceKeys : "") +
 				", jobOptions=" + jobOptions +
 				", jobId=" + jobId +
 				", description='" + description + '\'' +
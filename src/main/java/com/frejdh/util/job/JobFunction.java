@@ -1,6 +1,8 @@
 package com.frejdh.util.job;
 
+import com.frejdh.util.job.exceptions.InvalidJobStateException;
 import com.frejdh.util.job.exceptions.JobAlreadyStartedException;
+import com.frejdh.util.job.exceptions.JobTimeoutException;
 import com.frejdh.util.job.model.JobStatus;
 import com.frejdh.util.job.model.callables.JobAction;
 import com.frejdh.util.job.model.callables.JobOnCallback;
@@ -12,25 +14,44 @@ import lombok.NonNull;
 import lombok.Singular;
 import org.jetbrains.annotations.NotNull;
 import java.time.Instant;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Model class for the job operation and it's properties.
+ * <p>
+ * The callbacks are kept in copy-on-write arrays, as they're iterated on every status change but rarely added
+ * (normally before the job is queued). Running callbacks thereby never see a half-added callback.
+ * Jobs without callbacks of a kind share the same empty array, and the timestamps are primitives (zero when unset),
+ * which keeps the footprint of a queued job small.
+ * <p>
+ * The status is changed by atomic compare-and-set, and only along the legal transitions of {@link JobStatus}.
+ * Racing transitions, e.g. a cancel and a timeout of a running job, are thereby won by exactly one thread,
+ * and a finished status is never overwritten. The deprecated {@link #setStatus(JobStatus)} skips the validation,
+ * but it also rejects changes out of a finished status.
  */
 public class JobFunction {
 
+	private static final JobOnCallback[] NO_CALLBACKS = new JobOnCallback[0];
+	private static final JobOnError[] NO_ERRORS = new JobOnError[0];
+	private static final JobOnFinalize[] NO_FINALIZES = new JobOnFinalize[0];
+	private static final JobOnStatusChange[] NO_STATUS_CHANGES = new JobOnStatusChange[0];
+	private static final AtomicReferenceFieldUpdater<JobFunction, JobStatus> STATUS_UPDATER =
+			AtomicReferenceFieldUpdater.newUpdater(JobFunction.class, JobStatus.class, "status");
+
 	private Job job;
 
 	@NonNull private JobAction action;
-	private List<JobOnCallback> onJobCallbacks;
-	private List<JobOnError> onJobErrors;
-	private List<JobOnFinalize> onJobFinalizes;
-	private List<JobOnStatusChange> onStatusChanges;
-	private JobStatus status = JobStatus.CREATED;
-	private Long startTime;
-	private Long stopTime;
-	private Throwable throwable;
+	private volatile JobOnCallback[] onJobCallbacks;
+	private volatile JobOnError[] onJobErrors;
+	private volatile JobOnFinalize[] onJobFinalizes;
+	private volatile JobOnStatusChange[] onStatusChanges;
+	private volatile JobStatus status = JobStatus.CREATED;
+	private volatile long startTime;
+	private volatile long stopTime;
+	private volatile Throwable throwable;
 
 	/**
 	 * Lombok builder alternative (only uses fields in constructor)
@@ -42,10 +63,25 @@ public class JobFunction {
 						  @Singular List<JobOnFinalize> onJobFinalizes,
 						  @Singular List<JobOnStatusChange> onStatusChanges) {
 		this.action = action;
-		this.onJobCallbacks = new LinkedList<>(onJobCallbacks);
-		this.onJobErrors = new LinkedList<>(onJobErrors);
-		this.onJobFinalizes = new LinkedList<>(onJobFinalizes);
-		this.onStatusChanges = new LinkedList<>(onStatusChanges);
+		this.onJobCallbacks = onJobCallbacks.isEmpty() ? NO_CALLBACKS : onJobCallbacks.toArray(NO_CALLBACKS);
+		this.onJobErrors = onJobErrors.isEmpty() ? NO_ERRORS : onJobErrors.toArray(NO_ERRORS);
+		this.onJobFinalizes = onJobFinalizes.isEmpty() ? NO_FINALIZES : onJobFinalizes.toArray(NO_FINALIZES);
+		this.onStatusChanges = onStatusChanges.isEmpty() ? NO_STATUS_CHANGES : onStatusChanges.toArray(NO_STATUS_CHANGES);
+	}
+
+	/**
+	 * @return A copy of the array with the element added last, or first if prepended.
+	 */
+	private static <T> T[] withElement(T[] array, T element, boolean prepend) {
+		T[] newArray = Arrays.copyOf(array, array.length + 1);
+		if (prepend) {
+			System.arraycopy(array, 0, newArray, 1, array.length);
+			newArray[0] = element;
+		}
+		else {
+			newArray[array.length] = element;
+		}
+		return newArray;
 	}
 
 	public JobFunction setJob(Job job) {
@@ -53,13 +89,76 @@ public class JobFunction {
 		return this;
 	}
 
+	/**
+	 * Change the status, and execute the status change callbacks. Not validated against the legal transitions,
+	 * except that a finished status is never changed.
+	 * @throws InvalidJobStateException If the job has finished already.
+	 * @deprecated Use {@link #transitionTo(JobStatus)} or {@link #compareAndSetStatus(JobStatus, JobStatus)} instead.
+	 */
+	@Deprecated
 	public void setStatus(JobStatus newStatus) {
-		this.status = newStatus;
-		if (onStatusChanges != null) {
-			onStatusChanges.forEach(onStatusChange -> onStatusChange.onStatusChange(job));
+		JobStatus currentStatus;
+		do {
+			currentStatus = status;
+			if (currentStatus.isFinished() && currentStatus != newStatus) {
+				throw new InvalidJobStateException("Cannot change the finished status '" + currentStatus + "' to '" + newStatus + "'");
+			}
+		} while (!STATUS_UPDATER.compareAndSet(this, currentStatus, newStatus));
+		notifyStatusChange();
+	}
+
+	/**
+	 * Atomically change the status, if the job may change from its current status to the new one.
+	 * The status change callbacks are executed by the thread that changed the status.
+	 * @param newStatus Status to change to.
+	 * @return True if changed by this call.
+	 */
+	public boolean transitionTo(JobStatus newStatus) {
+		if (getAndTransitionTo(newStatus) == null) {
+			return false;
+		}
+		notifyStatusChange();
+		return true;
+	}
+
+	/**
+	 * Atomically change the status, if it's the expected one and the transition is legal.
+	 * @param expectedStatus The current status.
+	 * @param newStatus Status to change to.
+	 * @return True if changed by this call.
+	 */
+	public boolean compareAndSetStatus(JobStatus expectedStatus, JobStatus newStatus) {
+		if (!expectedStatus.canTransitionTo(newStatus) || !STATUS_UPDATER.compareAndSet(this, expectedStatus, newStatus)) {
+			return false;
 		}
+		notifyStatusChange();
+		return true;
+	}
+
+	/**
+	 * Change the status without executing the callbacks.
+	 * @return The previous status, or null if the job may not change from its current status to the new one.
+	 */
+	private JobStatus getAndTransitionTo(JobStatus newStatus) {
+		JobStatus currentStatus;
+		do {
+			currentStatus = status;
+			if (!currentStatus.canTransitionTo(newStatus)) {
+				return null;
+			}
+		} while (!STATUS_UPDATER.compareAndSet(this, currentStatus, newStatus));
+		return currentStatus;
 	}
 
+	private void notifyStatusChange() {
+		for (JobOnStatusChange onStatusChange : onStatusChanges) {
+			onStatusChange.onStatusChange(job);
+		}
+	}
+
+	/**
+	 * Set the initial status, without validation or callbacks. Only used when building the job.
+	 */
 	void setStatusWithoutCallback(JobStatus newStatus) {
 		this.status = newStatus;
 	}
@@ -68,33 +167,34 @@ public class JobFunction {
 		this.action = jobAction;
 	}
 
+	/**
+	 * @return Unmodifiable view of the callbacks.
+	 */
 	public List<JobOnCallback> getOnJobCallbacks() {
-		return onJobCallbacks;
+		return Collections.unmodifiableList(Arrays.asList(onJobCallbacks));
 	}
 
 	public void addOnCallback(@NotNull JobOnCallback jobCallback) {
-		this.onJobCallbacks.add(jobCallback);
+		this.onJobCallbacks = withElement(onJobCallbacks, jobCallback, false);
 	}
 
 	public void addOnJobError(@NotNull JobOnError jobError, boolean prepend) {
-		if (prepend) {
-			this.onJobErrors.add(0, jobError);
-		}
-		else {
-			this.onJobErrors.add(jobError);
-		}
+		this.onJobErrors = withElement(onJobErrors, jobError, prepend);
 	}
 
 	public void addOnJobFinalize(@NotNull JobOnFinalize jobFinalize) {
-		this.onJobFinalizes.add(jobFinalize);
+		this.onJobFinalizes = withElement(onJobFinalizes, jobFinalize, false);
 	}
 
 	public void addOnStatusChange(@NotNull JobOnStatusChange onStatusChange) {
-		this.onStatusChanges.add(onStatusChange);
+		this.onStatusChanges = withElement(onStatusChanges, onStatusChange, false);
 	}
 
+	/**
+	 * @return Unmodifiable view of the error callbacks.
+	 */
 	public List<JobOnError> getOnJobErrors() {
-		return this.onJobErrors;
+		return Collections.unmodifiableList(Arrays.asList(onJobErrors));
 	}
 
 	public Job getJob() {
@@ -106,66 +206,145 @@ public class JobFunction {
 	}
 
 	public Long getStartTime() {
-		return startTime;
+		return startTime != 0 ? startTime : null;
 	}
 
 	public Long getStopTime() {
+		return stopTime != 0 ? stopTime : null;
+	}
+
+	/**
+	 * @return The start time, or zero if not started.
+	 */
+	public long getStartTimestamp() {
+		return startTime;
+	}
+
+	/**
+	 * @return The stop time, or zero if not finished.
+	 */
+	public long getStopTimestamp() {
 		return stopTime;
 	}
 
 
 
 	/**
-	 * Start the job function (and callback)
+	 * Start the job function (and callback). A canceled job is never started, and this call then does nothing.
+	 * @throws JobAlreadyStartedException If the job has been started already.
+	 * @throws InvalidJobStateException If the job can't be started from its current status, e.g. if scheduled.
 	 */
-	public void start() throws JobAlreadyStartedException {
-		throwIfStartedAlready();
-		synchronized (this) {
-			throwIfStartedAlready();
-			this.startTime = Instant.now().toEpochMilli();
-			try {
-				setStatus(JobStatus.RUNNING_ACTION);
-				action.action(job);
+	public void start() throws JobAlreadyStartedException, InvalidJobStateException {
+		if (getAndTransitionTo(JobStatus.RUNNING_ACTION) == null) {
+			throwIfNotStartable();
+			return;
+		}
 
-				if (onJobCallbacks != null) {
-					setStatus(JobStatus.RUNNING_CALLBACK);
-					onJobCallbacks.forEach(callback -> callback.callback(job));
-				}
+		this.startTime = Instant.now().toEpochMilli();
+		try {
+			notifyStatusChange();
+			action.action(job);
+			throwIfTimedOut();
 
-				setStatus(JobStatus.FINISHED);
-			} catch (Throwable throwable) {
-				this.throwable = throwable;
-				setStatus(JobStatus.FAILED);
-				try {
-					if (onJobErrors != null) {
-						onJobErrors.forEach(onError -> onError.onError(job, throwable));
-					}
-				} catch (Exception e) {
-					e.printStackTrace();
+			JobOnCallback[] callbacks = onJobCallbacks;
+			if (callbacks.length > 0 && transitionTo(JobStatus.RUNNING_CALLBACK)) {
+				for (JobOnCallback callback : callbacks) {
+					callback.callback(job);
 				}
+			}
 
-			} finally {
-				stopTime = Instant.now().toEpochMilli();
-				if (onJobFinalizes != null) {
-					try {
-						onJobFinalizes.forEach(onFinalize -> onFinalize.onComplete(job));
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
+			if (!transitionTo(JobStatus.FINISHED)) {
+				throwIfTimedOut(); // Or canceled, which needs no further handling
+			}
+		} catch (Throwable throwable) {
+			handleThrowable(throwable);
+		} finally {
+			stopTime = Instant.now().toEpochMilli();
+			try {
+				for (JobOnFinalize onFinalize : onJobFinalizes) {
+					onFinalize.onComplete(job);
 				}
+			} catch (Exception e) {
+				e.printStackTrace();
 			}
 		}
 	}
 
+	/**
+	 * The job fails, unless it was timed out or canceled meanwhile. A job timed out by the timer thread
+	 * is notified here, so that the callbacks of a started job are always executed by its worker thread.
+	 */
+	private void handleThrowable(Throwable throwable) {
+		if (getAndTransitionTo(JobStatus.FAILED) != null) {
+			this.throwable = throwable;
+		}
+		else if (status == JobStatus.TIMED_OUT) {
+			this.throwable = throwable instanceof JobTimeoutException ? throwable : newTimeoutException(throwable);
+		}
+		else { // Canceled, e.g. interrupted by JobQueue#stop(Job)
+			this.throwable = throwable;
+			return;
+		}
+
+		try {
+			notifyStatusChange();
+			for (JobOnError onError : onJobErrors) {
+				onError.onError(job, this.throwable);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Time out the job, if it's running. The job then ends with the status {@link JobStatus#TIMED_OUT}, either when
+	 * the action is interrupted, or when it returns.
+	 * @return True if timed out by this call, false if the job wasn't running (e.g. finished or canceled).
+	 */
+	boolean timeOut() {
+		return getAndTransitionTo(JobStatus.TIMED_OUT) != null;
+	}
+
+	/**
+	 * Cancel the job, unless it has finished already.
+	 * @return The status the job had when it was canceled, or null if it wasn't canceled by this call.
+	 */
+	JobStatus cancel() {
+		JobStatus previousStatus = getAndTransitionTo(JobStatus.CANCELED);
+		if (previousStatus != null) {
+			notifyStatusChange();
+		}
+		return previousStatus;
+	}
+
+	public boolean isTimedOut() {
+		return status == JobStatus.TIMED_OUT;
+	}
+
+	private void throwIfTimedOut() throws JobTimeoutException {
+		if (isTimedOut()) {
+			throw newTimeoutException(null);
+		}
+	}
+
+	private JobTimeoutException newTimeoutException(Throwable cause) {
+		long timeout = job != null ? job.getJobOptions().getTimeout() : 0;
+		return new JobTimeoutException("Job timed out after " + timeout + " ms", cause);
+	}
+
 	public boolean hasStartedAlready() {
-		return (startTime != null);
+		return (startTime != 0);
 	}
 
-	private void throwIfStartedAlready() throws JobAlreadyStartedException {
-		boolean isStartedAlready = hasStartedAlready();
-		if (isStartedAlready) {
+	private void throwIfNotStartable() throws JobAlreadyStartedException, InvalidJobStateException {
+		JobStatus currentStatus = status;
+		if (currentStatus == JobStatus.CANCELED) {
+			return;
+		}
+		else if (currentStatus.isRunning() || currentStatus.isFinished()) {
 			throw new JobAlreadyStartedException("Job already started at timestamp: " + startTime + ". Currently (" + Instant.now().toEpochMilli() + ")");
 		}
+		throw new InvalidJobStateException("Cannot start a job with the status '" + currentStatus + "'");
 	}
 
 	public boolean hasThrowable() {
@@ -1,71 +1,324 @@
 package com.frejdh.util.job;
 
+import com.frejdh.util.job.exceptions.JobAlreadyStartedException;
+import com.frejdh.util.job.exceptions.JobRejectedException;
+import com.frejdh.util.job.metrics.JobQueueMetrics;
+import com.frejdh.util.job.model.AdmissionPolicy;
+import com.frejdh.util.job.model.AdmissionStatus;
+import com.frejdh.util.job.model.JobExecutorMode;
 import com.frejdh.util.job.model.JobStatus;
 import com.frejdh.util.job.model.QueueOptions;
+import com.frejdh.util.job.model.RecoveryPolicy;
+import com.frejdh.util.job.model.callables.JobOnRecovery;
 import com.frejdh.util.job.persistence.JobQueueService;
+import com.frejdh.util.job.persistence.JobRecord;
+import com.frejdh.util.job.persistence.WriteBehindStatusPersister;
+import com.frejdh.util.job.persistence.cluster.JobLeaseStore;
+import com.frejdh.util.job.scheduling.JobClaimer;
+import com.frejdh.util.job.scheduling.JobTimer;
+import com.frejdh.util.job.scheduling.RateLimiter;
+import com.frejdh.util.job.scheduling.ReadyJobQueue;
+import com.frejdh.util.job.scheduling.ResourceLockManager;
+import com.frejdh.util.job.scheduling.ResourceLockProvider;
 import com.frejdh.util.job.state.LocalJobWorkerThreadState;
 import com.frejdh.util.job.util.JobQueueLogger;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class JobQueue {
 
 	private static final Logger LOGGER = JobQueueLogger.getLogger();
-	protected ThreadPoolExecutor pool;
+	protected ExecutorService pool;
 	protected static ThreadLocal<LocalJobWorkerThreadState> threadState = new ThreadLocal<>();
 	protected volatile QueueOptions options;
 	protected final JobQueueService daoService;
 	protected final Map<Long, Future<?>> currentJobFuturesByJobId = new HashMap<>();
+	protected final ReadyJobQueue readyJobs;
+	protected final ResourceLockManager resourceLocks;
+
+	/**
+	 * Rate limits of the jobs, null if unlimited. The jobs that have reserved their permits are kept until they're
+	 * started (or finished otherwise), so that a job that's put back isn't given another permit.
+	 */
+	protected final RateLimiter rateLimiter;
+	private final Set<Job> jobsWithRatePermits = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Holds the delayed jobs until they're due, without occupying any worker thread, and enforces the job timeouts.
+	 */
+	protected final JobTimer timer = new JobTimer();
+	protected final Map<Long, JobTimer.Timeout> scheduledJobTimeoutsByJobId = new ConcurrentHashMap<>();
+
+	/**
+	 * Writes the status changes of the jobs asynchronously. Null if they're written synchronously.
+	 */
+	protected final WriteBehindStatusPersister statusPersister;
+
+	/**
+	 * Limits the amount of executing workers when the executor itself doesn't. Null if unlimited.
+	 */
+	protected final Semaphore workerPermits;
+
+	/**
+	 * Bounds the amount of pending jobs, see {@link QueueOptions#getMaxPendingJobs()}. Null if unbounded.
+	 */
+	protected final Semaphore admissionPermits;
+
+	/**
+	 * The pending jobs holding an admission permit. The permit is released when the job is removed from here,
+	 * which happens exactly once, when it first leaves the pending statuses.
+	 */
+	private final Set<Job> admittedJobs = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Renews the leases of the jobs and claims jobs of other nodes, see {@link QueueOptions#getJobLeaseStore()}.
+	 * Null if not clustered.
+	 */
+	protected final JobClaimer claimer;
 
 	JobQueue(JobQueueService daoService, QueueOptions options, List<Job> jobs) {
 		this.daoService = daoService;
-		this.pool = (ThreadPoolExecutor) createThreadPool(options);
+		this.pool = createThreadPool(options);
+		this.workerPermits = createWorkerPermits(pool, options);
+		this.admissionPermits = options.getMaxPendingJobs() > 0 ? new Semaphore(options.getMaxPendingJobs()) : null;
 		this.options = options;
+		ResourceLockProvider resourceLockProvider = options.getResourceLockProvider();
+		this.resourceLocks = new ResourceLockManager(
+				ResourceLockManager.DEFAULT_AMOUNT_OF_STRIPES,
+				options.getResourcePermits(),
+				job -> job.compareAndSetStatus(JobStatus.INITIALIZED, JobStatus.WAITING_FOR_RESOURCE),
+				resourceLockProvider != null ? resourceLockProvider::release : null
+		);
+		this.rateLimiter = RateLimiter.of(options.getRateLimit(), options.getResourceRateLimits());
+		this.readyJobs = new ReadyJobQueue(options.getPriorityAgingInterval(), TimeUnit.MILLISECONDS);
+		this.statusPersister = options.getStatusFlushInterval() > 0
+				? new WriteBehindStatusPersister(daoService, timer, options.getStatusFlushInterval())
+				: null;
+		daoService.initialize(options);
+		registerMetricsGauges(options.getMetrics());
+		this.claimer = createClaimer(options);
+		recoverJobs(options);
 		if (jobs != null) {
-			jobs.forEach(this::add);
+			addJobs(jobs); // Not bounded by the admission control, as the queue may not be started yet
+		}
+	}
+
+	/**
+	 * Recovers the unfinished jobs of previous runs from a persistent DAO, see {@link QueueOptions#getOnRecovery()}.
+	 * The records are recreated in parallel, and the jobs are added in one batch (regardless of the admission control).
+	 * The jobs keep their IDs, so that their persisted records are updated rather than duplicated. The resource keys
+	 * of the interrupted jobs are free, as no job is running yet, and are locked again when the jobs are dispatched.
+	 */
+	private void recoverJobs(QueueOptions options) {
+		JobOnRecovery onRecovery = options.getOnRecovery();
+		if (onRecovery == null) {
+			return;
+		}
+
+		try (Stream<JobRecord> records = daoService.streamUnfinishedJobs()) {
+			addRecoveredJobs(records.parallel(), "Recovered %d job(s) of previous runs, of which %d were re-queued", true);
+		}
+	}
+
+	/**
+	 * Recreates the jobs of the records and adds them, or persists them as finished.
+	 * @param message Logged with the amount of jobs and re-queued jobs, if any.
+	 * @param isLogged Whether to log the message when not in debug mode.
+	 */
+	private void addRecoveredJobs(Stream<JobRecord> records, String message, boolean isLogged) {
+		JobOnRecovery onRecovery = options.getOnRecovery();
+		RecoveryPolicy recoveryPolicy = options.getRecoveryPolicy();
+		Map<Boolean, List<Job>> recoveredJobsByIsFinished = records
+				.sorted(Comparator.comparingLong(JobRecord::getJobId)) // Added in the original order
+				.map(record -> recoverJob(record, onRecovery, recoveryPolicy))
+				.collect(Collectors.partitioningBy(job -> job.getStatus().isFinished())); // Without stop time if never started
+
+		List<Job> finishedJobs = recoveredJobsByIsFinished.get(true);
+		List<Job> requeuedJobs = recoveredJobsByIsFinished.get(false);
+		if (!finishedJobs.isEmpty()) {
+			daoService.upsertJobs(finishedJobs);
+		}
+		addJobs(requeuedJobs);
+		if ((isLogged || options.isDebugMode()) && (!finishedJobs.isEmpty() || !requeuedJobs.isEmpty())) {
+			LOGGER.info(String.format(message, finishedJobs.size() + requeuedJobs.size(), requeuedJobs.size()));
+		}
+	}
+
+	/**
+	 * The claimed jobs are recreated like recovered jobs, as they were added by other (possibly dead) nodes.
+	 * A node claims up to the claim batch size minus its ready jobs, so that idle nodes take more of the jobs.
+	 */
+	private JobClaimer createClaimer(QueueOptions options) {
+		JobLeaseStore leaseStore = options.getJobLeaseStore();
+		if (leaseStore == null) {
+			return null;
+		}
+		else if (options.getOnRecovery() == null) {
+			throw new IllegalArgumentException("A clustered queue must recreate the claimed jobs, see JobQueueBuilder#withRecovery");
+		}
+
+		int claimBatchSize = Math.max(1, options.getClaimBatchSize());
+		return new JobClaimer(
+				leaseStore,
+				() -> claimBatchSize - readyJobs.size(),
+				records -> addRecoveredJobs(records.stream(), "Claimed %d job(s), of which %d were re-queued", false),
+				() -> pool.isTerminated()
+		);
+	}
+
+	/**
+	 * @return The job to add in place of the record, or a job without action with the final status of the record.
+	 */
+	private static Job recoverJob(JobRecord record, JobOnRecovery onRecovery, RecoveryPolicy recoveryPolicy) {
+		if (record.getStatus().isRunning() && recoveryPolicy == RecoveryPolicy.FAIL) {
+			return toFinishedJob(record, JobStatus.FAILED);
+		}
+
+		Job job;
+		try {
+			job = onRecovery.onRecovery(record);
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Failed to recover the job with ID [" + record.getJobId() + "]", e);
+			return toFinishedJob(record, JobStatus.FAILED);
+		}
+
+		if (job == null) {
+			return toFinishedJob(record, JobStatus.CANCELED);
+		}
+		if (!job.hasJobId() && !job.getStatus().isWaitingForId()) {
+			job.setJobId(record.getJobId());
 		}
+		return job;
+	}
+
+	private static Job toFinishedJob(JobRecord record, JobStatus status) {
+		Job job = Job.builder()
+				.withJobId(record.getJobId())
+				.withResourceKey(record.getResourceKey())
+				.withResourceKeys(record.getResourceKeys())
+				.withDescription(record.getDescription())
+				.withStatus(status)
+				.build();
+		job.setAddedTimestamp(record.getAddedTimestamp());
+		return job;
 	}
 
 	private ExecutorService createThreadPool(QueueOptions options) {
+		if (options.getExecutorMode() == JobExecutorMode.VIRTUAL_THREADS) {
+			ExecutorService virtualThreadExecutor = createVirtualThreadExecutor();
+			if (virtualThreadExecutor != null) {
+				return virtualThreadExecutor;
+			}
+			LOGGER.warning("Virtual threads require Java 21 or later, falling back to a thread pool");
+			if (options.getMaxConcurrentJobs() > 0) {
+				return Executors.newFixedThreadPool(options.getMaxConcurrentJobs());
+			}
+		}
+
+		if (options.getExecutorMode() == JobExecutorMode.WORK_STEALING) {
+			return new ForkJoinPool(
+					options.getMaxAmountOfThreads(),
+					ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+					null,
+					true
+			);
+		}
+
 		if (options.isCachedThreadPool()) {
-			return new ThreadPoolExecutor(
-					0,
+			ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+					options.getMaxAmountOfThreads(),
 					options.getMaxAmountOfThreads(),
 					30L, TimeUnit.SECONDS,
-					new SynchronousQueue<>()
+					new LinkedBlockingQueue<>()
 			);
+			threadPool.allowCoreThreadTimeOut(true); // Idle threads are stopped, as in a cached thread pool
+			return threadPool;
 		}
 		return Executors.newFixedThreadPool(options.getMaxAmountOfThreads());
 	}
 
+	/**
+	 * Looked up reflectively, as the library is compiled for Java 8.
+	 * @return A virtual thread per task executor, or null if not supported by the JVM.
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Thread pools get one permit per thread, so that jobs wait (in priority order) in the ready queue rather than
+	 * in the queue of the pool. The pools queue their tasks, since a released permit may be taken before its
+	 * thread is back in the pool.
+	 * @return The permits, or null if the executor doesn't need any.
+	 */
+	private static Semaphore createWorkerPermits(ExecutorService pool, QueueOptions options) {
+		if (pool instanceof ThreadPoolExecutor) {
+			return new Semaphore(((ThreadPoolExecutor) pool).getMaximumPoolSize());
+		}
+		return options.getMaxConcurrentJobs() > 0 ? new Semaphore(options.getMaxConcurrentJobs()) : null;
+	}
+
+	private void registerMetricsGauges(JobQueueMetrics metrics) {
+		if (metrics != null) {
+			metrics.registerGauge(JobQueueMetrics.GAUGE_READY_JOBS, readyJobs::size);
+			metrics.registerGauge(JobQueueMetrics.GAUGE_SCHEDULED_JOBS, scheduledJobTimeoutsByJobId::size);
+			metrics.registerGauge(JobQueueMetrics.GAUGE_RUNNING_JOBS, () -> daoService.getRunningJobs().size());
+		}
+	}
+
 	public static JobQueueBuilder getBuilder() {
 		return new JobQueueBuilder();
 	}
 
 	public void start() {
-		runScheduler(false);
+		runScheduler();
 		if (options.isSingleExecution()) {
 			stop();
 		}
+		else if (claimer != null) {
+			claimer.start();
+		}
 	}
 
 	/**
-	 * Stops the queue. <i>Waits</i> for job executions to be finished
+	 * Stops the queue. <i>Waits</i> for job executions to be finished.
+	 * Scheduled jobs that aren't due yet are never started.
 	 */
 	public void stop() {
+		if (claimer != null) {
+			claimer.stopClaiming();
+		}
+		cancelScheduledJobs();
 		pool.shutdown();
 	}
 
@@ -73,10 +326,18 @@ public class JobQueue {
 	 * Stops the queue now. <i>Doesn't wait</i> for job executions to be finished
 	 */
 	public void stopNow() {
+		if (claimer != null) {
+			claimer.stop();
+		}
+		cancelScheduledJobs();
 		pool.shutdownNow();
 	}
 
 	public boolean stopAndAwait(long timeout, TimeUnit timeUnit) {
+		if (claimer != null) {
+			claimer.stopClaiming();
+		}
+		cancelScheduledJobs();
 		pool.shutdown();
 		boolean completedExecutions = false;
 		try {
@@ -84,37 +345,269 @@ public class JobQueue {
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
+		if (completedExecutions && claimer != null) {
+			claimer.stop();
+		}
+		if (statusPersister != null) {
+			statusPersister.flush();
+		}
+		daoService.flush();
 		return completedExecutions;
 	}
 
-	public void add(Job job) {
+	/**
+	 * Add a job. If the max amount of pending jobs is reached, the job is handled according to the
+	 * {@link AdmissionPolicy}, see {@link JobQueueBuilder#withMaxPendingJobs(int, AdmissionPolicy)}.
+	 * @param job Job to add.
+	 * @throws JobRejectedException If rejected by the admission policy, or interrupted while blocked.
+	 */
+	public void add(Job job) throws JobRejectedException {
 		if (job != null) {
+			addAll(Collections.singletonList(job));
+		}
+	}
+
+	/**
+	 * Add a job if there's room for it, without ever blocking. With {@link AdmissionPolicy#DROP_OLDEST}, the oldest
+	 * pending job is canceled to make room for it.
+	 * @param job Job to add.
+	 * @return Whether the job was added. Always accepted if the amount of pending jobs is unbounded.
+	 */
+	public AdmissionStatus tryAdd(Job job) {
+		if (job == null) {
+			return AdmissionStatus.REJECTED;
+		}
+
+		AdmissionStatus admissionStatus = admissionPermits != null ? tryAdmit(job) : AdmissionStatus.ACCEPTED;
+		if (admissionStatus.isAccepted()) {
+			addJobs(Collections.singletonList(job));
+		}
+		return admissionStatus;
+	}
+
+	/**
+	 * Add multiple jobs at once. The jobs are given their IDs in one block, are inserted into the DAO in one batch,
+	 * and are dispatched in one scheduler pass. Prefer this over {@link #add(Job)} when adding many jobs.
+	 * <p>
+	 * If the amount of pending jobs is bounded, the jobs are admitted one by one. The jobs admitted so far are added
+	 * before the producer is blocked or a job is rejected, so a rejection only affects the remaining jobs.
+	 * @param jobs Jobs to add. Null elements are ignored.
+	 * @throws JobRejectedException If rejected by the admission policy, or interrupted while blocked.
+	 */
+	public void addAll(Collection<Job> jobs) throws JobRejectedException {
+		if (jobs == null || jobs.isEmpty()) {
+			return;
+		}
+		else if (admissionPermits == null) {
+			addJobs(jobs);
+			return;
+		}
+
+		List<Job> admittedBatch = new ArrayList<>(Math.min(jobs.size(), options.getMaxPendingJobs()));
+		for (Job job : jobs) {
+			if (job == null) {
+				continue;
+			}
+			if (!tryAdmit(job).isAccepted()) {
+				addJobs(admittedBatch);
+				admittedBatch = new ArrayList<>();
+				admit(job);
+			}
+			admittedBatch.add(job);
+		}
+		addJobs(admittedBatch);
+	}
+
+	/**
+	 * Helper method. Adds the jobs, regardless of the admission control.
+	 */
+	private void addJobs(Collection<Job> jobs) {
+		if (jobs.isEmpty()) {
+			return;
+		}
+
+		long addedTimestamp = System.currentTimeMillis();
+		JobQueueMetrics metrics = options.getMetrics();
+		List<Job> jobsToInitialize = new ArrayList<>(jobs.size());
+		for (Job job : jobs) {
+			if (job == null) {
+				continue;
+			}
+
+			job.setAddedTimestamp(addedTimestamp);
 			setGlobalOnErrorForJob(job);
-			job.appendOnJobStatusChange((jobReference) -> {
-				if (options.isDebugMode()) {
-					String jobId = (Job.UNASSIGNED_VALUE == job.getJobId() ? "UNASSIGNED" : Long.toString(job.getJobId()));
-					LOGGER.info(String.format("Job with ID: [%s] was updated to the new status [%s]", jobId, job.getStatus()));
+			if (metrics != null) {
+				job.appendOnJobStatusChange(metrics.createRecorder());
+			}
+			if (job.getStatus().isWaitingForId()) {
+				job.setOnJobIdSetCallback(jobWithId -> initializeJobsAndAddToPending(Collections.singletonList(jobWithId)));
+			}
+			else {
+				jobsToInitialize.add(job);
+			}
+		}
+		initializeJobsAndAddToPending(jobsToInitialize);
+	}
+
+	/**
+	 * Add multiple jobs at once, see {@link #addAll(Collection)}.
+	 * @param jobs Jobs to add. Null elements are ignored.
+	 */
+	public void addAll(Stream<Job> jobs) {
+		if (jobs != null) {
+			addAll(jobs.collect(Collectors.toList()));
+		}
+	}
+
+	/**
+	 * Helper method. Admits the job without blocking, see {@link #tryAdd(Job)}.
+	 */
+	private AdmissionStatus tryAdmit(Job job) {
+		if (admissionPermits.tryAcquire()) {
+			admittedJobs.add(job);
+			return AdmissionStatus.ACCEPTED;
+		}
+
+		if (options.getAdmissionPolicy() == AdmissionPolicy.DROP_OLDEST) {
+			while (dropOldestPendingJob()) {
+				if (admissionPermits.tryAcquire()) { // Otherwise taken by another producer, drop the next one
+					admittedJobs.add(job);
+					return AdmissionStatus.ACCEPTED_DROPPED_OLDEST;
 				}
-				daoService.upsertJob(job);
-			});
+			}
+		}
+		return AdmissionStatus.REJECTED;
+	}
 
-			if (job.getStatus().isWaitingForId()) {
-				job.setOnJobIdSetCallback(this::initializeJobAndAddToPending);
+	/**
+	 * Helper method. Admits the job according to the admission policy, once {@link #tryAdmit(Job)} failed.
+	 * With {@link AdmissionPolicy#DROP_OLDEST}, there was no pending job to drop (e.g. as they're all starting),
+	 * so the producer blocks until one of them has started.
+	 */
+	private void admit(Job job) throws JobRejectedException {
+		AdmissionPolicy admissionPolicy = options.getAdmissionPolicy();
+		try {
+			switch (admissionPolicy) {
+				case BLOCK:
+				case DROP_OLDEST:
+					admissionPermits.acquire();
+					break;
+				case BLOCK_WITH_TIMEOUT:
+					if (!admissionPermits.tryAcquire(options.getAdmissionTimeout(), TimeUnit.MILLISECONDS)) {
+						throw new JobRejectedException("Job rejected, the queue still had " + options.getMaxPendingJobs()
+								+ " pending jobs after " + options.getAdmissionTimeout() + " ms");
+					}
+					break;
+				default:
+					throw new JobRejectedException("Job rejected, the queue has reached its max amount of pending jobs ("
+							+ options.getMaxPendingJobs() + ")");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JobRejectedException("Interrupted while waiting for the job to be admitted", e);
+		}
+		admittedJobs.add(job);
+	}
+
+	/**
+	 * Helper method. Cancels the oldest admitted job that is still pending, which releases its admission permit.
+	 * @return True if a job was canceled.
+	 */
+	private boolean dropOldestPendingJob() {
+		for (Job job : daoService.getPendingJobs().values()) {
+			if (!admittedJobs.contains(job)) {
+				continue;
+			}
+
+			JobTimer.Timeout timeout = scheduledJobTimeoutsByJobId.remove(job.getJobId());
+			if (timeout != null) {
+				timeout.cancel();
+			}
+			if (job.cancel() != null) {
+				LOGGER.warning("Job with ID: [" + job.getJobId() + "] was dropped, as the queue has reached its max amount of pending jobs");
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void releaseAdmission(Job job) {
+		if (admittedJobs.remove(job)) {
+			admissionPermits.release();
+		}
+	}
+
+	/**
+	 * Helper method. The jobs are upserted in one batch, before the status listener (which upserts each change)
+	 * is attached.
+	 */
+	private void initializeJobsAndAddToPending(List<Job> jobs) {
+		if (jobs.isEmpty()) {
+			return;
+		}
+
+		for (Job job : jobs) {
+			job.transitionStatus(getDelayMillis(job) > 0 ? JobStatus.SCHEDULED : JobStatus.INITIALIZED);
+		}
+		daoService.upsertJobs(jobs);
+
+		for (Job job : jobs) {
+			job.appendOnJobStatusChange(this::onJobStatusChange);
+			if (admissionPermits != null && !job.getStatus().isPending()) { // E.g. canceled before the listener was added
+				releaseAdmission(job);
+			}
+			if (job.getStatus().isScheduled()) {
+				scheduleJob(job, getDelayMillis(job));
 			}
 			else {
-				initializeJobAndAddToPending(job);
+				readyJobs.offer(job);
 			}
+		}
+		runScheduler();
+	}
+
+	private void onJobStatusChange(Job job) {
+		if (admissionPermits != null && !job.getStatus().isPending()) {
+			releaseAdmission(job);
+		}
+		if (rateLimiter != null && !job.getStatus().isPending()) {
+			jobsWithRatePermits.remove(job);
+		}
+		if (options.isDebugMode()) {
+			String jobId = (Job.UNASSIGNED_VALUE == job.getJobId() ? "UNASSIGNED" : Long.toString(job.getJobId()));
+			LOGGER.info(String.format("Job with ID: [%s] was updated to the new status [%s]", jobId, job.getStatus()));
+		}
 
+		if (statusPersister != null) {
+			statusPersister.enqueue(job);
+		}
+		else {
+			daoService.upsertJob(job);
 		}
 	}
 
+	private static long getDelayMillis(Job job) {
+		return job.getJobOptions().isDelayed()
+				? job.getJobOptions().getDueTime(job.getAddedTimestamp()) - System.currentTimeMillis()
+				: 0;
+	}
+
 	/**
-	 * Helper method.
+	 * Helper method. Adds the job to the ready jobs once it's due.
 	 */
-	private void initializeJobAndAddToPending(Job job) {
-		setJobStatus(job, JobStatus.INITIALIZED);
-		daoService.upsertJob(job);
-		runScheduler(false);
+	private void scheduleJob(Job job, long delayMillis) {
+		JobTimer.Timeout timeout = timer.schedule(() -> {
+			scheduledJobTimeoutsByJobId.remove(job.getJobId());
+			if (job.compareAndSetStatus(JobStatus.SCHEDULED, JobStatus.INITIALIZED)) {
+				readyJobs.offer(job);
+				runScheduler();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+
+		scheduledJobTimeoutsByJobId.put(job.getJobId(), timeout);
+		if (timeout.isExpired()) { // Expired before it was put
+			scheduledJobTimeoutsByJobId.remove(job.getJobId(), timeout);
+		}
 	}
 
 	private void setGlobalOnErrorForJob(Job job) {
@@ -123,6 +616,16 @@ public class JobQueue {
 		}
 	}
 
+	private void cancelScheduledJobs() {
+		for (Long jobId : scheduledJobTimeoutsByJobId.keySet()) {
+			JobTimer.Timeout timeout = scheduledJobTimeoutsByJobId.remove(jobId);
+			Job job = daoService.getJobById(jobId);
+			if (timeout != null && timeout.cancel() && job != null) {
+				job.cancel();
+			}
+		}
+	}
+
 	/**
 	 * Stop a running job (forcefully)
 	 *
@@ -134,13 +637,24 @@ public class JobQueue {
 			return false;
 		}
 
+		JobTimer.Timeout timeout = scheduledJobTimeoutsByJobId.remove(job.getJobId());
+		if (timeout != null && timeout.cancel()) {
+			return job.cancel() != null;
+		}
+
 		final Future<?> future = daoService.getRunningJobFutureByJobId(job.getJobId());
 		if (future == null) {
 			return false;
 		}
 
-		future.cancel(true);
-		cancelRunningJob(job);
+		JobStatus previousStatus = job.cancel();
+		if (previousStatus == null) { // Finished, or canceled by another thread
+			return false;
+		}
+		if (previousStatus.isRunning()) {
+			future.cancel(true);
+		}
+		// Otherwise the worker skips the canceled job, and releases its resource
 		return true;
 	}
 
@@ -155,33 +669,163 @@ public class JobQueue {
 		return stop(job);
 	}
 
-	void runScheduler(boolean isRunningOnWorkerThread) {
-		List<Job> jobsToCheck = new ArrayList<>(daoService.getPendingJobs().values());
-		for (Job job : jobsToCheck) {
+	/**
+	 * Dispatch the ready jobs to the thread pool.
+	 */
+	void runScheduler() {
+		runScheduler(this::submitJob);
+	}
+
+	/**
+	 * Dispatch the ready jobs. Only polls the ready queue, so the cost doesn't depend on the amount of jobs in the DAO.
+	 * Jobs whose resource is taken wait in the queue of that resource, and are handed the resource once released.
+	 *
+	 * @param jobExecutor Executes the jobs that can be started. Returns false if the job couldn't be executed right now.
+	 */
+	private void runScheduler(Predicate<Job> jobExecutor) {
+		ReadyJobQueue.ReadyJob readyJob;
+		while ((readyJob = readyJobs.poll()) != null) {
+			Job job = readyJob.getJob();
 			if (!jobIsReadyToBeStarted(job)) {
+				if (job.getStatus().isFinished()) { // E.g. dropped while holding its resource, which is passed on
+					jobsWithRatePermits.remove(job);
+					releaseResource(job, readyJobs::offer);
+				}
+				continue;
+			}
+			else if (!resourceLocks.tryAcquire(job) || !tryAcquireRatePermit(job) || !tryAcquireSharedResource(job)) {
 				continue;
 			}
 
-			synchronized (daoService) {
-				if (daoService.isResourceFreeForJob(job.getResourceKey())) {
-					try {
-						if (!isRunningOnWorkerThread) {
-							Future<?> future = pool.submit(() -> executeJob(job));
-							daoService.setRunningJobFutureByJobId(job.getJobId(), future);
-						} else {
-							executeJob(job);
-						}
-					} catch (RejectedExecutionException e) {
-						LOGGER.warning("Job queue thread pool stopped, or full [is running: " + !pool.isShutdown() +
-								", current size: " + pool.getPoolSize() + ", max size: " + pool.getMaximumPoolSize() + "]");
-						break;
+			if (!jobExecutor.test(job)) {
+				readyJobs.putBack(readyJob); // Keeps the resource, the lock is reentrant
+				if (!hasAvailableWorkerPermits()) { // Re-checked, in case a worker finished meanwhile
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Helper method. Submits the job to the thread pool.
+	 * @return False if the pool is full or stopped, or if the max amount of concurrent jobs are executing.
+	 */
+	private boolean submitJob(Job job) {
+		if (workerPermits != null && !workerPermits.tryAcquire()) {
+			return false;
+		}
+
+		try {
+			Future<?> future = isWorkerOfForkJoinPool()
+					? ForkJoinTask.adapt(() -> executeJob(job)).fork() // Local queue of the current worker
+					: pool.submit(() -> executeJob(job));
+			daoService.setRunningJobFutureByJobId(job.getJobId(), future);
+			return true;
+		} catch (RejectedExecutionException e) {
+			releaseWorkerPermit();
+			if (pool instanceof ThreadPoolExecutor) {
+				ThreadPoolExecutor threadPool = (ThreadPoolExecutor) pool;
+				LOGGER.warning("Job queue thread pool stopped, or full [is running: " + !pool.isShutdown() +
+						", current size: " + threadPool.getPoolSize() + ", max size: " + threadPool.getMaximumPoolSize() + "]");
+			}
+			else {
+				LOGGER.warning("Job queue executor stopped [is running: " + !pool.isShutdown() + "]");
+			}
+			return false;
+		}
+	}
+
+	private boolean isWorkerOfForkJoinPool() {
+		return pool instanceof ForkJoinPool && ForkJoinTask.getPool() == pool && !pool.isShutdown();
+	}
+
+	private boolean hasAvailableWorkerPermits() {
+		return workerPermits != null && workerPermits.availablePermits() > 0 && !pool.isShutdown();
+	}
+
+	private void releaseWorkerPermit() {
+		if (workerPermits != null) {
+			workerPermits.release();
+		}
+	}
+
+	/**
+	 * Helper method. Releases the resource permits of the job, and executes the next waiting jobs that were handed
+	 * the permits. Waiting jobs that are no longer ready (e.g. canceled) pass their permits on.
+	 */
+	private void releaseResource(Job releasingJob, Consumer<Job> jobExecutor) {
+		Deque<Job> jobsToRelease = null;
+		Job jobToRelease = releasingJob;
+		while (jobToRelease != null) {
+			for (Job nextJob : resourceLocks.release(jobToRelease)) {
+				if (!jobIsReadyToBeStarted(nextJob)) {
+					if (jobsToRelease == null) {
+						jobsToRelease = new ArrayDeque<>();
 					}
+					jobsToRelease.add(nextJob);
 				}
-				else {
-					setJobStatus(job, JobStatus.WAITING_FOR_RESOURCE);
+				else if (tryAcquireRatePermit(nextJob) && tryAcquireSharedResource(nextJob)) {
+					jobExecutor.accept(nextJob);
 				}
 			}
+			jobToRelease = jobsToRelease != null ? jobsToRelease.poll() : null;
+		}
+	}
+
+	/**
+	 * Helper method. Acquires the resources of the job from the {@link ResourceLockProvider}, once owned locally.
+	 * If a resource is held by another JVM, the job keeps the local resources (and the shared ones acquired so far)
+	 * and is retried after the retry delay. The resources are acquired in the same (sorted) order by every node, so
+	 * the nodes can't deadlock.
+	 * @return True if the job can be started.
+	 */
+	private boolean tryAcquireSharedResource(Job job) {
+		ResourceLockProvider resourceLockProvider = options.getResourceLockProvider();
+		if (resourceLockProvider == null || job.getResourceKeys().stream().allMatch(resourceLockProvider::tryAcquire)) {
+			return true;
+		}
+
+		job.compareAndSetStatus(JobStatus.INITIALIZED, JobStatus.WAITING_FOR_RESOURCE);
+		retryLater(job, resourceLockProvider.getRetryDelay(), TimeUnit.MILLISECONDS);
+		return false;
+	}
+
+	/**
+	 * Helper method. Reserves the rate permits of the job, once it owns its resource. If a permit isn't available
+	 * yet, the job stays pending (keeping its resource, which the next jobs of the resource couldn't use before the
+	 * permit is due anyway) and is retried exactly when its permit is due.
+	 * @return True if the job can be started.
+	 */
+	private boolean tryAcquireRatePermit(Job job) {
+		if (rateLimiter == null || jobsWithRatePermits.contains(job)) {
+			return true;
+		}
+
+		jobsWithRatePermits.add(job);
+		long delayNanos = rateLimiter.reserve(job);
+		if (delayNanos <= 0) {
+			return true;
 		}
+		retryLater(job, delayNanos, TimeUnit.NANOSECONDS);
+		return false;
+	}
+
+	/**
+	 * Helper method. Adds the job back to the ready jobs after the delay, without occupying any worker thread.
+	 * The job still owns its local resource meanwhile, as the lock is reentrant. If the job is no longer ready by
+	 * then (e.g. canceled), its resource is passed on.
+	 */
+	private void retryLater(Job job, long delay, TimeUnit unit) {
+		timer.schedule(() -> {
+			if (jobIsReadyToBeStarted(job)) {
+				readyJobs.offer(job);
+			}
+			else {
+				jobsWithRatePermits.remove(job);
+				releaseResource(job, readyJobs::offer);
+			}
+			runScheduler();
+		}, delay, unit);
 	}
 
 	private boolean jobIsReadyToBeStarted(Job job) {
@@ -190,43 +834,120 @@ public class JobQueue {
 
 	/**
 	 * Executes the job. Only ever executed by worker threads.
+	 * Afterwards, the worker executes at most one more job itself: the job that is handed the resource of the job,
+	 * or else a ready job that couldn't be submitted (e.g. if the pool is full). The other jobs stay in the ready
+	 * queue, so that they're executed in priority order by whichever worker is free first.
 	 */
 	private void executeJob(Job job) {
-		long jobTimeout = job.getJobOptions().getTimeout();
-		if (jobTimeout != 0) {
-			try {
-				daoService.getRunningJobFutureByJobId(job.getJobId()).get(jobTimeout, TimeUnit.MILLISECONDS);
-			} catch (InterruptedException | ExecutionException | TimeoutException ignored) {
+		Deque<Job> jobsToExecute = new ArrayDeque<>(1);
+		jobsToExecute.add(job);
+
+		try {
+			Job currentJob;
+			while ((currentJob = jobsToExecute.poll()) != null) {
+				try {
+					startJob(currentJob);
+				} catch (JobAlreadyStartedException e) {
+					LOGGER.warning(e.getMessage());
+				} finally {
+					if (currentJob.getStatus() == JobStatus.CANCELED) {
+						Thread.interrupted(); // Clear the interrupt of the cancel, if the job didn't
+					}
+					daoService.removeRunningJobFutureByJobId(currentJob.getJobId());
+					releaseResource(currentJob, nextJob -> {
+						if (!tryExecuteNext(nextJob, jobsToExecute)) {
+							readyJobs.offer(nextJob);
+						}
+					});
+				}
+				runScheduler(jobToExecute -> submitJob(jobToExecute) || tryExecuteNext(jobToExecute, jobsToExecute));
 			}
+		} finally {
+			releaseWorkerPermit();
+		}
+
+		if (workerPermits != null) {
+			runScheduler();
 		}
-		job.start();
-		daoService.removeRunningJobFutureByJobId(job.getJobId());
-		runScheduler(true);
 	}
 
-	private void setJobStatus(Job job, JobStatus status) {
-		job.setStatus(status);
+	/**
+	 * Helper method. Lets the current worker execute the job next, unless it already has a next job.
+	 * @return True if the job is executed by the current worker.
+	 */
+	private static boolean tryExecuteNext(Job job, Deque<Job> jobsToExecute) {
+		if (!jobsToExecute.isEmpty()) {
+			return false;
+		}
+		jobsToExecute.add(job);
+		return true;
 	}
 
-	private void setCurrentJobFutureForThreadState(Future<?> future) {
-		threadState.set(LocalJobWorkerThreadState.builder().withJobExecutionFuture(future).build());
-//		daoService.updateJob(job);
-		runScheduler(true);
+	/**
+	 * Helper method. Starts the job on the current thread. If the job has a timeout, the timer interrupts the
+	 * thread once the timeout has passed, so the worker never waits on the timeout itself.
+	 */
+	private void startJob(Job job) {
+		long jobTimeout = job.getJobOptions().getTimeout();
+		if (jobTimeout <= 0) {
+			job.start();
+			return;
+		}
+
+		JobExecution execution = new JobExecution(Thread.currentThread());
+		JobTimer.Timeout timeout = timer.schedule(() -> timeOutJob(job, execution), jobTimeout, TimeUnit.MILLISECONDS);
+		try {
+			job.start();
+		} finally {
+			timeout.cancel();
+			synchronized (execution) {
+				execution.finished = true;
+			}
+			if (timeout.isExpired()) {
+				Thread.interrupted(); // Clear the interrupt, if the job didn't
+			}
+		}
 	}
 
 	/**
-	 * Helper method. Removes the current job.
-	 *
-	 * @param job Job to remove
+	 * The lock of the execution only guards the interrupt, so that it never hits the next job of the worker.
+	 * Whether the job times out, or finishes or is canceled first, is decided by its status transition.
 	 */
-	private synchronized void cancelRunningJob(Job job) {
-		job.setStatus(JobStatus.CANCELED);
+	private void timeOutJob(Job job, JobExecution execution) {
+		synchronized (execution) {
+			if (!execution.finished && job.timeOut()) {
+				LOGGER.warning("Job with ID: [" + job.getJobId() + "] timed out after " + job.getJobOptions().getTimeout() + " ms");
+				execution.workerThread.interrupt();
+			}
+		}
+	}
+
+	private static class JobExecution {
+		private final Thread workerThread;
+		private boolean finished;
+
+		private JobExecution(Thread workerThread) {
+			this.workerThread = workerThread;
+		}
+	}
+
+	private void setCurrentJobFutureForThreadState(Future<?> future) {
+		threadState.set(LocalJobWorkerThreadState.builder().withJobExecutionFuture(future).build());
+//		daoService.updateJob(job);
+		runScheduler();
 	}
 
 	public Job getJobById(Long id) {
 		return daoService.getJobById(id);
 	}
 
+	/**
+	 * @return The metrics of the queue, or null if not enabled, see {@link JobQueueBuilder#withMetrics}.
+	 */
+	public JobQueueMetrics getMetrics() {
+		return options.getMetrics();
+	}
+
 	public List<Job> getAllJobs() {
 		return daoService.getAllJobs();
 	}
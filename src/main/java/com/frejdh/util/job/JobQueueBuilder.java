@@ -1,12 +1,23 @@
 package com.frejdh.util.job;
 
+import com.frejdh.util.job.metrics.JobQueueMetricsRegistry;
+import com.frejdh.util.job.model.AdmissionPolicy;
+import com.frejdh.util.job.model.JobExecutorMode;
 import com.frejdh.util.job.model.QueueOptions;
+import com.frejdh.util.job.model.RateLimit;
+import com.frejdh.util.job.model.RecoveryPolicy;
 import com.frejdh.util.job.model.callables.JobOnError;
+import com.frejdh.util.job.model.callables.JobOnRecovery;
 import com.frejdh.util.job.persistence.AbstractJobQueueDao;
 import com.frejdh.util.job.persistence.JobQueueService;
+import com.frejdh.util.job.persistence.cluster.JobLeaseStore;
+import com.frejdh.util.job.persistence.config.RetentionPolicy;
+import com.frejdh.util.job.persistence.id.JobIdAllocator;
+import com.frejdh.util.job.scheduling.ResourceLockProvider;
 import lombok.SneakyThrows;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class JobQueueBuilder {
 
@@ -60,6 +71,203 @@ public class JobQueueBuilder {
 		return this;
 	}
 
+	/**
+	 * Set the file used by persistent DAO implementations, e.g. the H2 database file.
+	 * @param persistenceFile Path of the file (without file extension).
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withPersistenceFile(String persistenceFile) {
+		queueOptionsBuilder.withPersistenceFile(persistenceFile);
+		return this;
+	}
+
+	/**
+	 * Execute each job on a virtual thread instead of a thread pool. Requires Java 21 or later,
+	 * the queue falls back to the thread pool (with a warning) on older versions.
+	 * Recommended for jobs that mostly block, e.g. on I/O.
+	 * @param maxConcurrentJobs Max amount of jobs executing at the same time. Zero or less means unlimited.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withVirtualThreads(int maxConcurrentJobs) {
+		queueOptionsBuilder.withExecutorMode(JobExecutorMode.VIRTUAL_THREADS);
+		queueOptionsBuilder.withMaxConcurrentJobs(maxConcurrentJobs);
+		return this;
+	}
+
+	/**
+	 * Execute the jobs on a work-stealing {@link java.util.concurrent.ForkJoinPool}, with
+	 * {@link #withMaxAmountOfThreads(int)} as parallelism. Recommended for jobs that add more jobs,
+	 * see {@link JobExecutorMode#WORK_STEALING}.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withWorkStealing() {
+		queueOptionsBuilder.withExecutorMode(JobExecutorMode.WORK_STEALING);
+		return this;
+	}
+
+	/**
+	 * Bound the amount of pending jobs, i.e. jobs that have been added but not started yet. Unbounded per default.
+	 * @param maxPendingJobs Max amount of pending jobs.
+	 * @param admissionPolicy What happens to jobs added when the max amount is reached.
+	 *                        Use {@link #withMaxPendingJobs(int, long, TimeUnit)} for {@link AdmissionPolicy#BLOCK_WITH_TIMEOUT}.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withMaxPendingJobs(int maxPendingJobs, AdmissionPolicy admissionPolicy) {
+		queueOptionsBuilder.withMaxPendingJobs(maxPendingJobs);
+		queueOptionsBuilder.withAdmissionPolicy(admissionPolicy != null ? admissionPolicy : AdmissionPolicy.BLOCK);
+		return this;
+	}
+
+	/**
+	 * Bound the amount of pending jobs, and block the producers for at most the timeout when the max amount is reached.
+	 * See {@link AdmissionPolicy#BLOCK_WITH_TIMEOUT}.
+	 * @param maxPendingJobs Max amount of pending jobs.
+	 * @param timeout Max time a producer is blocked, before the job is rejected.
+	 * @param unit Unit of the timeout.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withMaxPendingJobs(int maxPendingJobs, long timeout, TimeUnit unit) {
+		queueOptionsBuilder.withMaxPendingJobs(maxPendingJobs);
+		queueOptionsBuilder.withAdmissionPolicy(AdmissionPolicy.BLOCK_WITH_TIMEOUT);
+		queueOptionsBuilder.withAdmissionTimeout(unit.toMillis(timeout));
+		return this;
+	}
+
+	/**
+	 * Let waiting jobs gradually gain priority, so that low priority jobs aren't starved by higher priority jobs.
+	 * Disabled per default.
+	 * @param interval Time it takes for a ready job to be ordered as if it had one priority step higher.
+	 * @param unit Unit of the interval.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withPriorityAging(long interval, TimeUnit unit) {
+		queueOptionsBuilder.withPriorityAgingInterval(unit.toMillis(interval));
+		return this;
+	}
+
+	/**
+	 * Write the status changes of the jobs to the DAO asynchronously, in batches. Changes of the same job within
+	 * the interval are coalesced, so that only the latest status is written. The worker threads then never wait on
+	 * the DAO, but the DAO lags behind the actual status of the jobs by up to the interval.
+	 * Disabled per default, i.e. each change is written synchronously.
+	 * @param flushInterval How long the changes are collected before they're written.
+	 * @param unit Unit of the interval.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withAsyncStatusPersistence(long flushInterval, TimeUnit unit) {
+		queueOptionsBuilder.withStatusFlushInterval(unit.toMillis(flushInterval));
+		return this;
+	}
+
+	/**
+	 * Evict finished jobs from the DAO, e.g. to bound the memory used by long-running queues.
+	 * Finished jobs are kept forever per default.
+	 * @param retentionPolicy Policy with the limits, and an optional eviction listener.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withRetentionPolicy(RetentionPolicy retentionPolicy) {
+		queueOptionsBuilder.withRetentionPolicy(retentionPolicy);
+		return this;
+	}
+
+	/**
+	 * Allocate the job IDs with another allocator than the sequential default, e.g. to share the jobs between JVMs.
+	 * See {@link com.frejdh.util.job.persistence.id.BlockLeasingJobIdAllocator} and
+	 * {@link com.frejdh.util.job.persistence.id.NodePartitionedJobIdAllocator}.
+	 * @param jobIdAllocator Allocator of the IDs of the jobs added without one.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withJobIdAllocator(JobIdAllocator jobIdAllocator) {
+		queueOptionsBuilder.withJobIdAllocator(jobIdAllocator);
+		return this;
+	}
+
+	/**
+	 * Recover the unfinished jobs of previous runs from a persistent DAO when the queue is created, e.g. the jobs
+	 * that were pending or running when the process died. Disabled per default.
+	 * @param onRecovery Recreates the job of a persisted record, i.e. gives it back its action.
+	 * @param recoveryPolicy What happens to the jobs that were interrupted while running.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withRecovery(JobOnRecovery onRecovery, RecoveryPolicy recoveryPolicy) {
+		queueOptionsBuilder.withOnRecovery(onRecovery);
+		queueOptionsBuilder.withRecoveryPolicy(recoveryPolicy != null ? recoveryPolicy : RecoveryPolicy.REQUEUE);
+		return this;
+	}
+
+	/**
+	 * Shares the jobs with the queues of other nodes. The unfinished jobs are leased to this node while it's alive,
+	 * and the jobs of nodes whose leases have expired are claimed and recreated by {@link #withRecovery}, which is
+	 * therefore required.
+	 * @param jobLeaseStore Store shared by the nodes, for example a {@link com.frejdh.util.job.persistence.impl.h2.H2ClusteredJobQueueDao}.
+	 * @param claimBatchSize Max amount of claimed jobs waiting in the queue.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withClustering(JobLeaseStore jobLeaseStore, int claimBatchSize) {
+		queueOptionsBuilder.withJobLeaseStore(jobLeaseStore);
+		queueOptionsBuilder.withClaimBatchSize(claimBatchSize);
+		return this;
+	}
+
+	/**
+	 * Let multiple jobs with the resource key run at the same time, e.g. for a database that takes a few connections.
+	 * Each job takes the amount of permits of its {@link com.frejdh.util.job.model.JobOptions#getResourceWeight()}.
+	 * Resource keys are exclusive (one permit) per default.
+	 * @param resourceKey Resource key of the jobs.
+	 * @param permits Max total weight of the jobs running with the resource key.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withResourcePermits(String resourceKey, int permits) {
+		queueOptionsBuilder.withResourcePermit(resourceKey, permits);
+		return this;
+	}
+
+	/**
+	 * Makes the resource keys exclusive across JVMs. A job whose resource is held by another JVM waits for it,
+	 * and is retried after the retry delay of the provider.
+	 * @param resourceLockProvider Provider shared with the other JVMs, for example a
+	 *                             {@link com.frejdh.util.job.persistence.cluster.LeasedResourceLockProvider}.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withResourceLockProvider(ResourceLockProvider resourceLockProvider) {
+		queueOptionsBuilder.withResourceLockProvider(resourceLockProvider);
+		return this;
+	}
+
+	/**
+	 * Limit the rate at which the jobs of the queue are started. A throttled job stays pending, without occupying
+	 * any worker thread, and is started once its permit is due. Unlimited per default.
+	 * @param rateLimit Max rate of the jobs, e.g. {@code RateLimit.of(100, 1, TimeUnit.SECONDS)}.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withRateLimit(RateLimit rateLimit) {
+		queueOptionsBuilder.withRateLimit(rateLimit);
+		return this;
+	}
+
+	/**
+	 * Limit the rate at which the jobs of a resource key are started, in addition to the rate limit of the queue.
+	 * @param resourceKey Resource key of the jobs.
+	 * @param rateLimit Max rate of the jobs of the resource key.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withRateLimit(String resourceKey, RateLimit rateLimit) {
+		queueOptionsBuilder.withResourceRateLimit(resourceKey, rateLimit);
+		return this;
+	}
+
+	/**
+	 * Record the metrics of the queue (e.g. queue depth, and the wait and run times of the jobs) in the registry.
+	 * Disabled per default.
+	 * @param registry Registry to record the metrics in.
+	 * @param queueName Name of the queue in the registry. Queues with the same name share their metrics.
+	 * @return This builder reference.
+	 */
+	public JobQueueBuilder withMetrics(JobQueueMetricsRegistry registry, String queueName) {
+		queueOptionsBuilder.withMetrics(registry != null ? registry.getOrCreate(queueName) : null);
+		return this;
+	}
+
 	public JobQueueBuilder withCustomDaoService(AbstractJobQueueDao jobQueueDao) {
 		jobQueueService = (jobQueueDao != null) ? this.jobQueueService = new JobQueueService(jobQueueDao) : null;
 		return this;
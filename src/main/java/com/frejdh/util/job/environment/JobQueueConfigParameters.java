@@ -4,5 +4,10 @@ public class JobQueueConfigParameters {
 	public static final String ARG_DEBUG_LOGGING = "job-queue.debug.enabled";
 	public static final String ARG_PERSISTENCE_MODE = "job-queue.persistence.mode";
 	public static final String ARG_IMPLEMENTATION_CLASS = "job-queue.persistence.custom.implementation-class";
+	public static final String ARG_PERSISTENCE_FILE = "job-queue.persistence.file";
+	public static final String ARG_H2_URL = "job-queue.persistence.h2.url";
+	public static final String ARG_H2_FLUSH_INTERVAL = "job-queue.persistence.h2.flush-interval-ms";
+	public static final String ARG_JOURNAL_SYNC_INTERVAL = "job-queue.persistence.journal.sync-interval-ms";
+	public static final String ARG_JOURNAL_COMPACTION_THRESHOLD = "job-queue.persistence.journal.compaction-threshold-bytes";
 
 }
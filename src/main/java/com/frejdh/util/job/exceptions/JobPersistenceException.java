@@ -0,0 +1,12 @@
+package com.frejdh.util.job.exceptions;
+
+public class JobPersistenceException extends RuntimeException {
+
+	public JobPersistenceException(String message) {
+		super(message);
+	}
+
+	public JobPersistenceException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
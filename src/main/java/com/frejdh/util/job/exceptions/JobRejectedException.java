@@ -0,0 +1,12 @@
+package com.frejdh.util.job.exceptions;
+
+public class JobRejectedException extends RuntimeException {
+
+	public JobRejectedException(String message) {
+		super(message);
+	}
+
+	public JobRejectedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,12 @@
+package com.frejdh.util.job.exceptions;
+
+public class JobTimeoutException extends RuntimeException {
+
+	public JobTimeoutException(String message) {
+		super(message);
+	}
+
+	public JobTimeoutException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
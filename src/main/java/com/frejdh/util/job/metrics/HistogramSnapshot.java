@@ -0,0 +1,72 @@
+package com.frejdh.util.job.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time copy of a {@link LatencyHistogram}. All values are in nanoseconds.
+ */
+public class HistogramSnapshot {
+
+	private final long[] buckets;
+	private final long count;
+	private final long sum;
+	private final long max;
+
+	HistogramSnapshot(long[] buckets, long count, long sum, long max) {
+		this.buckets = buckets;
+		this.count = count;
+		this.sum = sum;
+		this.max = max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count > 0 ? (double) sum / count : 0;
+	}
+
+	/**
+	 * @param percentile Percentile between 0 and 100, e.g. 99.9.
+	 * @return Upper bound of the value at the percentile, or zero if nothing has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long totalCount = 0;
+		for (long bucketCount : buckets) {
+			totalCount += bucketCount;
+		}
+		if (totalCount == 0) {
+			return 0;
+		}
+
+		long targetCount = Math.max(1, (long) Math.ceil(totalCount * Math.min(100, Math.max(0, percentile)) / 100));
+		long cumulativeCount = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			cumulativeCount += buckets[i];
+			if (cumulativeCount >= targetCount) {
+				return Math.min(LatencyHistogram.getBucketUpperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	public long getPercentile(double percentile, TimeUnit unit) {
+		return unit.convert(getPercentile(percentile), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return "HistogramSnapshot{" +
+				"count=" + count +
+				", mean=" + (long) getMean() +
+				", p50=" + getPercentile(50) +
+				", p99=" + getPercentile(99) +
+				", max=" + max +
+				'}';
+	}
+}
@@ -0,0 +1,200 @@
+package com.frejdh.util.job.metrics;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.model.JobStatus;
+import com.frejdh.util.job.model.callables.JobOnStatusChange;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of one job queue: job counts per status, gauges such as the queue depth, and histograms of the
+ * wait, run and callback times of the jobs, in total and per resource key.
+ * Recording is lock-free and doesn't allocate, except for the first job of a resource key.
+ */
+public class JobQueueMetrics {
+
+	public static final int DEFAULT_MAX_RESOURCE_KEYS = 128;
+
+	/**
+	 * Groups the timings of the resource keys exceeding the max amount of tracked resource keys.
+	 */
+	public static final String OTHER_RESOURCE_KEYS = "<other>";
+
+	public static final String GAUGE_READY_JOBS = "readyJobs";
+	public static final String GAUGE_SCHEDULED_JOBS = "scheduledJobs";
+	public static final String GAUGE_RUNNING_JOBS = "runningJobs";
+
+	private static final JobStatus[] STATUSES = JobStatus.values();
+
+	private final String queueName;
+	private final int maxResourceKeys;
+	private final LongAdder[] statusCounts = new LongAdder[STATUSES.length];
+	private final JobTimings allJobs = new JobTimings();
+	private final JobTimings otherResourceKeys = new JobTimings();
+	private final Map<String, JobTimings> timingsByResourceKey = new ConcurrentHashMap<>();
+	private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+	public JobQueueMetrics(@NotNull String queueName) {
+		this(queueName, DEFAULT_MAX_RESOURCE_KEYS);
+	}
+
+	/**
+	 * @param queueName Name of the queue.
+	 * @param maxResourceKeys Max amount of resource keys with their own timings, the rest are grouped under
+	 *                        {@link #OTHER_RESOURCE_KEYS}. Bounds the memory used by the metrics.
+	 */
+	public JobQueueMetrics(@NotNull String queueName, int maxResourceKeys) {
+		this.queueName = queueName;
+		this.maxResourceKeys = Math.max(0, maxResourceKeys);
+		for (int i = 0; i < statusCounts.length; i++) {
+			statusCounts[i] = new LongAdder();
+		}
+	}
+
+	public String getQueueName() {
+		return queueName;
+	}
+
+	/**
+	 * Register a gauge, read when a snapshot is taken. Replaces any gauge with the same name.
+	 * @param name Name of the gauge, e.g. {@link #GAUGE_READY_JOBS}.
+	 * @param gauge Supplies the current value.
+	 */
+	public void registerGauge(@NotNull String name, @NotNull LongSupplier gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Creates the status change listener that records the metrics of a job. Should be created when the job is added,
+	 * which is when the wait time starts.
+	 * @return The listener.
+	 */
+	public JobOnStatusChange createRecorder() {
+		return new JobMetricsRecorder(this, System.nanoTime());
+	}
+
+	public void recordStatus(@NotNull JobStatus status) {
+		statusCounts[status.ordinal()].increment();
+	}
+
+	public void recordWaitTime(String resourceKey, long nanos) {
+		allJobs.waitTime.record(nanos);
+		JobTimings timings = getTimings(resourceKey);
+		if (timings != null) {
+			timings.waitTime.record(nanos);
+		}
+	}
+
+	public void recordRunTime(String resourceKey, long nanos) {
+		allJobs.runTime.record(nanos);
+		JobTimings timings = getTimings(resourceKey);
+		if (timings != null) {
+			timings.runTime.record(nanos);
+		}
+	}
+
+	public void recordCallbackTime(String resourceKey, long nanos) {
+		allJobs.callbackTime.record(nanos);
+		JobTimings timings = getTimings(resourceKey);
+		if (timings != null) {
+			timings.callbackTime.record(nanos);
+		}
+	}
+
+	private JobTimings getTimings(String resourceKey) {
+		if (resourceKey == null) {
+			return null;
+		}
+
+		JobTimings timings = timingsByResourceKey.get(resourceKey);
+		if (timings != null) {
+			return timings;
+		}
+		else if (timingsByResourceKey.size() >= maxResourceKeys) {
+			return otherResourceKeys;
+		}
+		return timingsByResourceKey.computeIfAbsent(resourceKey, key -> new JobTimings());
+	}
+
+	public JobQueueMetricsSnapshot getSnapshot() {
+		Map<JobStatus, Long> statusCountSnapshot = new EnumMap<>(JobStatus.class);
+		for (JobStatus status : STATUSES) {
+			statusCountSnapshot.put(status, statusCounts[status.ordinal()].sum());
+		}
+
+		Map<String, Long> gaugeSnapshot = new TreeMap<>();
+		gauges.forEach((name, gauge) -> gaugeSnapshot.put(name, gauge.getAsLong()));
+
+		Map<String, JobTimingsSnapshot> timingsByResourceKeySnapshot = new LinkedHashMap<>();
+		new TreeMap<>(timingsByResourceKey).forEach((key, timings) -> timingsByResourceKeySnapshot.put(key, timings.getSnapshot()));
+		JobTimingsSnapshot otherSnapshot = otherResourceKeys.getSnapshot();
+		if (otherSnapshot.getWaitTime().getCount() > 0) {
+			timingsByResourceKeySnapshot.put(OTHER_RESOURCE_KEYS, otherSnapshot);
+		}
+
+		return new JobQueueMetricsSnapshot(
+				queueName,
+				System.currentTimeMillis(),
+				statusCountSnapshot,
+				gaugeSnapshot,
+				allJobs.getSnapshot(),
+				timingsByResourceKeySnapshot
+		);
+	}
+
+	/**
+	 * Records the metrics of one job. The timestamps are only accessed by the thread executing the job.
+	 */
+	private static class JobMetricsRecorder implements JobOnStatusChange {
+		private final JobQueueMetrics metrics;
+		private final long addedNanoTime;
+		private long actionStartNanoTime;
+		private long callbackStartNanoTime;
+
+		private JobMetricsRecorder(JobQueueMetrics metrics, long addedNanoTime) {
+			this.metrics = metrics;
+			this.addedNanoTime = addedNanoTime;
+		}
+
+		@Override
+		public void onStatusChange(Job job) {
+			JobStatus status = job.getStatus();
+			metrics.recordStatus(status);
+
+			long now;
+			switch (status) {
+				case RUNNING_ACTION:
+					now = System.nanoTime();
+					actionStartNanoTime = now;
+					metrics.recordWaitTime(job.getResourceKey(), now - addedNanoTime);
+					break;
+				case RUNNING_CALLBACK:
+					now = System.nanoTime();
+					callbackStartNanoTime = now;
+					metrics.recordRunTime(job.getResourceKey(), now - actionStartNanoTime);
+					break;
+				case FINISHED:
+				case FAILED:
+				case TIMED_OUT:
+					now = System.nanoTime();
+					if (callbackStartNanoTime != 0) {
+						metrics.recordCallbackTime(job.getResourceKey(), now - callbackStartNanoTime);
+					}
+					else if (actionStartNanoTime != 0) {
+						metrics.recordRunTime(job.getResourceKey(), now - actionStartNanoTime);
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.frejdh.util.job.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the metrics of one or more job queues, by queue name. Attach it to a queue with
+ * {@link com.frejdh.util.job.JobQueueBuilder#withMetrics(JobQueueMetricsRegistry, String)}.
+ */
+public class JobQueueMetricsRegistry {
+
+	private final Map<String, JobQueueMetrics> metricsByQueueName = new ConcurrentHashMap<>();
+	private final int maxResourceKeys;
+
+	public JobQueueMetricsRegistry() {
+		this(JobQueueMetrics.DEFAULT_MAX_RESOURCE_KEYS);
+	}
+
+	/**
+	 * @param maxResourceKeys Max amount of resource keys with their own timings per queue,
+	 *                        see {@link JobQueueMetrics#JobQueueMetrics(String, int)}.
+	 */
+	public JobQueueMetricsRegistry(int maxResourceKeys) {
+		this.maxResourceKeys = maxResourceKeys;
+	}
+
+	public JobQueueMetrics getOrCreate(@NotNull String queueName) {
+		return metricsByQueueName.computeIfAbsent(queueName, name -> new JobQueueMetrics(name, maxResourceKeys));
+	}
+
+	/**
+	 * @param queueName Name of the queue.
+	 * @return The metrics of the queue, or null if none.
+	 */
+	public JobQueueMetrics getQueueMetrics(String queueName) {
+		return queueName != null ? metricsByQueueName.get(queueName) : null;
+	}
+
+	public JobQueueMetricsSnapshot getSnapshot(String queueName) {
+		JobQueueMetrics metrics = getQueueMetrics(queueName);
+		return metrics != null ? metrics.getSnapshot() : null;
+	}
+
+	/**
+	 * @return Snapshots of all queues, sorted by queue name.
+	 */
+	public Map<String, JobQueueMetricsSnapshot> getSnapshots() {
+		Map<String, JobQueueMetricsSnapshot> snapshots = new TreeMap<>();
+		metricsByQueueName.forEach((queueName, metrics) -> snapshots.put(queueName, metrics.getSnapshot()));
+		return snapshots;
+	}
+
+	public JobQueueMetrics remove(String queueName) {
+		return queueName != null ? metricsByQueueName.remove(queueName) : null;
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.frejdh.util.job.metrics;
+
+import com.frejdh.util.job.model.JobStatus;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * Point in time copy of the {@link JobQueueMetrics} of a queue.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class JobQueueMetricsSnapshot {
+
+	private final String queueName;
+
+	/**
+	 * Epoch milliseconds when the snapshot was taken.
+	 */
+	private final long timestamp;
+
+	/**
+	 * Amount of times a job has changed to each status.
+	 */
+	private final Map<JobStatus, Long> statusCounts;
+
+	/**
+	 * Current values of the gauges, e.g. {@link JobQueueMetrics#GAUGE_READY_JOBS}.
+	 */
+	private final Map<String, Long> gauges;
+
+	private final JobTimingsSnapshot allJobs;
+
+	/**
+	 * Timings of the jobs with a resource key, per resource key.
+	 */
+	private final Map<String, JobTimingsSnapshot> timingsByResourceKey;
+
+	public long getStatusCount(JobStatus status) {
+		return statusCounts.getOrDefault(status, 0L);
+	}
+
+	public long getGauge(String name) {
+		return gauges.getOrDefault(name, 0L);
+	}
+
+	@Override
+	public String toString() {
+		return "JobQueueMetricsSnapshot{" +
+				"queueName='" + queueName + '\'' +
+				", timestamp=" + timestamp +
+				", statusCounts=" + statusCounts +
+				", gauges=" + gauges +
+				", allJobs=" + allJobs +
+				", timingsByResourceKey=" + timingsByResourceKey +
+				'}';
+	}
+}
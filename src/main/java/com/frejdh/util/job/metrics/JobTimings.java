@@ -0,0 +1,16 @@
+package com.frejdh.util.job.metrics;
+
+/**
+ * The duration histograms of a group of jobs, e.g. all jobs of a resource key.
+ */
+class JobTimings {
+
+	final LatencyHistogram waitTime = new LatencyHistogram();
+	final LatencyHistogram runTime = new LatencyHistogram();
+	final LatencyHistogram callbackTime = new LatencyHistogram();
+
+	JobTimingsSnapshot getSnapshot() {
+		return new JobTimingsSnapshot(waitTime.getSnapshot(), runTime.getSnapshot(), callbackTime.getSnapshot());
+	}
+
+}
@@ -0,0 +1,37 @@
+package com.frejdh.util.job.metrics;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Duration histograms of a group of jobs, in nanoseconds.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class JobTimingsSnapshot {
+
+	/**
+	 * Time from when the job was added until its action was started.
+	 */
+	private final HistogramSnapshot waitTime;
+
+	/**
+	 * Time spent executing the action of the job.
+	 */
+	private final HistogramSnapshot runTime;
+
+	/**
+	 * Time spent executing the callbacks of the job.
+	 */
+	private final HistogramSnapshot callbackTime;
+
+	@Override
+	public String toString() {
+		return "JobTimingsSnapshot{" +
+				"waitTime=" + waitTime +
+				", runTime=" + runTime +
+				", callbackTime=" + callbackTime +
+				'}';
+	}
+}
@@ -0,0 +1,28 @@
+package com.frejdh.util.job.model;
+
+/**
+ * Determines what happens to a job that is added when the queue already holds
+ * {@link QueueOptions#getMaxPendingJobs()} pending jobs.
+ */
+public enum AdmissionPolicy {
+	/**
+	 * Block the producer until a pending job has started (or been canceled).
+	 */
+	BLOCK,
+
+	/**
+	 * Block the producer for at most {@link QueueOptions#getAdmissionTimeout()} milliseconds, then reject the job
+	 * with a {@link com.frejdh.util.job.exceptions.JobRejectedException}.
+	 */
+	BLOCK_WITH_TIMEOUT,
+
+	/**
+	 * Reject the job right away with a {@link com.frejdh.util.job.exceptions.JobRejectedException}.
+	 */
+	REJECT,
+
+	/**
+	 * Cancel the oldest pending job (by the order of the DAO) to make room for the new one.
+	 */
+	DROP_OLDEST
+}
@@ -0,0 +1,25 @@
+package com.frejdh.util.job.model;
+
+/**
+ * Outcome of {@link com.frejdh.util.job.JobQueue#tryAdd(com.frejdh.util.job.Job)}.
+ */
+public enum AdmissionStatus {
+	/**
+	 * The job was added.
+	 */
+	ACCEPTED,
+
+	/**
+	 * The job was added, after canceling the oldest pending job. See {@link AdmissionPolicy#DROP_OLDEST}.
+	 */
+	ACCEPTED_DROPPED_OLDEST,
+
+	/**
+	 * The job wasn't added, as the queue is full.
+	 */
+	REJECTED;
+
+	public boolean isAccepted() {
+		return this != REJECTED;
+	}
+}
@@ -0,0 +1,29 @@
+package com.frejdh.util.job.model;
+
+/**
+ * Determines which kind of threads execute the jobs.
+ */
+public enum JobExecutorMode {
+	/**
+	 * Platform threads in a thread pool, limited by {@link QueueOptions#getMaxAmountOfThreads()}.
+	 * See {@link QueueOptions#isCachedThreadPool()}.
+	 */
+	THREAD_POOL,
+
+	/**
+	 * One virtual thread per job execution. Requires Java 21 or later, falls back to {@link #THREAD_POOL} otherwise
+	 * (with {@link QueueOptions#getMaxConcurrentJobs()} as a fixed pool size, if set).
+	 * The amount of concurrent jobs is limited by {@link QueueOptions#getMaxConcurrentJobs()} (if set) and
+	 * by the resource keys of the jobs, rather than by a pool size.
+	 */
+	VIRTUAL_THREADS,
+
+	/**
+	 * A {@link java.util.concurrent.ForkJoinPool} in async (FIFO) mode, with {@link QueueOptions#getMaxAmountOfThreads()}
+	 * as parallelism. Jobs added from inside a running job are pushed to the local queue of that worker thread,
+	 * and idle workers steal from the others. Reduces the handoff cost for jobs that fan out into more jobs.
+	 * Note that jobs dispatched to the pool are executed in the order of the worker queues rather than by priority,
+	 * and that stopping a running job doesn't interrupt it.
+	 */
+	WORK_STEALING
+}
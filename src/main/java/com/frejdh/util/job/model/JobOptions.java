@@ -2,16 +2,67 @@ package com.frejdh.util.job.model;
 
 import lombok.Builder;
 import lombok.Getter;
+
+import java.time.Instant;
 import java.util.concurrent.TimeUnit;
 
 @Builder(toBuilder = true, setterPrefix = "with")
 @Getter
 public class JobOptions {
 
+	public static final int DEFAULT_PRIORITY = 0;
+	public static final int DEFAULT_RESOURCE_WEIGHT = 1;
+
+	/**
+	 * Options with all default values. Shared by the jobs created without options, as the options are immutable.
+	 */
+	public static final JobOptions DEFAULT = JobOptions.builder().build();
+
 	private final long timeout;
 
+	/**
+	 * Jobs with a higher priority are started before jobs with a lower priority. Jobs with the same priority
+	 * are started in the order they were added.
+	 * Default value is: {@link #DEFAULT_PRIORITY}
+	 */
+	private final int priority;
+
+	/**
+	 * Milliseconds to wait after the job has been added before it's started. The job occupies no worker thread meanwhile.
+	 */
+	private final long delay;
+
+	/**
+	 * Epoch milliseconds before which the job isn't started. Zero means no start time.
+	 * If combined with {@link #delay}, the latest of the two applies.
+	 */
+	private final long startAt;
+
+	/**
+	 * Amount of permits of its resource key the job takes, see {@link QueueOptions#getResourcePermits()}.
+	 * Capped at the permits of the resource key.
+	 * Default value is: {@link #DEFAULT_RESOURCE_WEIGHT}
+	 */
+	private final int resourceWeight;
+
+	public boolean isDelayed() {
+		return delay > 0 || startAt > 0;
+	}
+
+	/**
+	 * @param addedTimestamp Epoch milliseconds when the job was added.
+	 * @return Epoch milliseconds when the job may be started.
+	 */
+	public long getDueTime(long addedTimestamp) {
+		return Math.max(startAt, addedTimestamp + delay);
+	}
+
 	public static class JobOptionsBuilder {
 		private long timeout = 0L;
+		private int priority = DEFAULT_PRIORITY;
+		private long delay = 0L;
+		private long startAt = 0L;
+		private int resourceWeight = DEFAULT_RESOURCE_WEIGHT;
 
 		public JobOptionsBuilder setTimeout(long timeout, TimeUnit unit) {
 			if (unit != null) {
@@ -24,12 +75,28 @@ public class JobOptions {
 			this.timeout = timeoutMillis;
 			return this;
 		}
+
+		public JobOptionsBuilder setDelay(long delay, TimeUnit unit) {
+			if (unit != null) {
+				this.delay = unit.toMillis(delay);
+			}
+			return this;
+		}
+
+		public JobOptionsBuilder setStartAt(Instant startAt) {
+			this.startAt = startAt != null ? startAt.toEpochMilli() : 0L;
+			return this;
+		}
 	}
 
 	@Override
 	public String toString() {
 		return "JobOptions{" +
 				"timeout=" + timeout +
+				", priority=" + priority +
+				", delay=" + delay +
+				", startAt=" + startAt +
+				", resourceWeight=" + resourceWeight +
 				'}';
 	}
 }
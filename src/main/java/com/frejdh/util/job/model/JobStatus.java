@@ -1,18 +1,53 @@
 package com.frejdh.util.job.model;
 
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Status of a job. The legal transitions are given by {@link #canTransitionTo(JobStatus)}, and the
+ * finished statuses are final.
+ */
 public enum JobStatus {
 	CREATED,	// Default value
 	WAITING_FOR_ID,
+	SCHEDULED,	// Waiting for its start time, see JobOptions#getDelay() and JobOptions#getStartAt()
 	INITIALIZED,
 	WAITING_FOR_RESOURCE,
 	RUNNING_ACTION,
 	RUNNING_CALLBACK,
 	FINISHED,
 	FAILED,
+	TIMED_OUT,	// Exceeded JobOptions#getTimeout()
 	CANCELED;
 
+	private static final Map<JobStatus, Set<JobStatus>> TRANSITIONS = new EnumMap<>(JobStatus.class);
+
+	static {
+		TRANSITIONS.put(CREATED, EnumSet.of(WAITING_FOR_ID, SCHEDULED, INITIALIZED, RUNNING_ACTION, CANCELED));
+		TRANSITIONS.put(WAITING_FOR_ID, EnumSet.of(SCHEDULED, INITIALIZED, CANCELED));
+		TRANSITIONS.put(SCHEDULED, EnumSet.of(INITIALIZED, CANCELED));
+		TRANSITIONS.put(INITIALIZED, EnumSet.of(WAITING_FOR_RESOURCE, RUNNING_ACTION, CANCELED));
+		TRANSITIONS.put(WAITING_FOR_RESOURCE, EnumSet.of(RUNNING_ACTION, CANCELED));
+		TRANSITIONS.put(RUNNING_ACTION, EnumSet.of(RUNNING_CALLBACK, FINISHED, FAILED, TIMED_OUT, CANCELED));
+		TRANSITIONS.put(RUNNING_CALLBACK, EnumSet.of(FINISHED, FAILED, TIMED_OUT, CANCELED));
+		for (JobStatus status : values()) {
+			TRANSITIONS.putIfAbsent(status, EnumSet.noneOf(JobStatus.class));
+		}
+	}
+
+	/**
+	 * @param newStatus Status to change to.
+	 * @return True if a job with this status may change to the new status.
+	 */
+	public boolean canTransitionTo(JobStatus newStatus) {
+		return newStatus != null && TRANSITIONS.get(this).contains(newStatus);
+	}
+
 	public boolean isPending() {
 		return this.equals(WAITING_FOR_ID)
+			|| this.equals(SCHEDULED)
 			|| isPendingAndReady();
 	}
 
@@ -21,6 +56,10 @@ public enum JobStatus {
 			|| this.equals(WAITING_FOR_RESOURCE);
 	}
 
+	public boolean isScheduled() {
+		return this.equals(SCHEDULED);
+	}
+
 	public boolean isWaitingForId() {
 		return this.equals(WAITING_FOR_ID);
 	}
@@ -33,6 +72,7 @@ public enum JobStatus {
 	public boolean isFinished() {
 		return this.equals(FINISHED)
 			|| this.equals(FAILED)
+			|| this.equals(TIMED_OUT)
 			|| this.equals(CANCELED);
 	}
 
@@ -1,12 +1,20 @@
 package com.frejdh.util.job.model;
 
 import com.frejdh.util.job.Job;
+import com.frejdh.util.job.metrics.JobQueueMetrics;
 import com.frejdh.util.job.model.callables.JobOnError;
+import com.frejdh.util.job.model.callables.JobOnRecovery;
+import com.frejdh.util.job.persistence.cluster.JobLeaseStore;
+import com.frejdh.util.job.persistence.config.RetentionPolicy;
+import com.frejdh.util.job.persistence.id.JobIdAllocator;
+import com.frejdh.util.job.scheduling.ResourceLockProvider;
 import lombok.Builder;
 import lombok.Getter;
+import lombok.Singular;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 @SuppressWarnings("FieldMayBeFinal")
 @Builder(toBuilder = true, setterPrefix = "with")
@@ -24,6 +32,9 @@ public class QueueOptions {
 	@Builder.Default
 	private int maxAmountOfThreads = DEFAULT_MAX_AMOUNT_OF_THREADS;
 
+	/**
+	 * File used by persistent DAO implementations. Optional, see the implementation in question for its default.
+	 */
 	private String persistenceFile;
 
 	@Builder.Default
@@ -45,6 +56,122 @@ public class QueueOptions {
 	@Builder.Default
 	private boolean cachedThreadPool = DEFAULT_USE_CACHED_THREAD_POOL;
 
+	/**
+	 * Which kind of threads execute the jobs.
+	 * Default value is: {@link JobExecutorMode#THREAD_POOL}
+	 */
+	@Builder.Default
+	private JobExecutorMode executorMode = JobExecutorMode.THREAD_POOL;
+
+	/**
+	 * Max amount of jobs executing at the same time, when not limited by a thread pool.
+	 * Used by {@link JobExecutorMode#VIRTUAL_THREADS} and {@link JobExecutorMode#WORK_STEALING}.
+	 * Zero or less means unlimited.
+	 */
+	@Builder.Default
+	private int maxConcurrentJobs = 0;
+
+	/**
+	 * Max amount of pending jobs, i.e. jobs that have been added but not started yet. Further jobs are handled according
+	 * to the {@link #admissionPolicy}, which gives the producers backpressure. Zero or less means unbounded.
+	 * Predefined jobs aren't counted.
+	 */
+	@Builder.Default
+	private int maxPendingJobs = 0;
+
+	/**
+	 * What happens to jobs added when {@link #maxPendingJobs} is reached.
+	 * Default value is: {@link AdmissionPolicy#BLOCK}
+	 */
+	@Builder.Default
+	private AdmissionPolicy admissionPolicy = AdmissionPolicy.BLOCK;
+
+	/**
+	 * Max time in milliseconds a producer is blocked, with {@link AdmissionPolicy#BLOCK_WITH_TIMEOUT}.
+	 */
+	@Builder.Default
+	private long admissionTimeout = 0L;
+
+	/**
+	 * Time in milliseconds it takes for a ready job to be ordered as if it had one priority step higher.
+	 * Prevents starvation of low priority jobs. Zero or less disables aging, i.e. strict priority order.
+	 */
+	@Builder.Default
+	private long priorityAgingInterval = 0L;
+
+	/**
+	 * Time in milliseconds the status changes of the jobs are collected before they're written to the DAO, in one
+	 * batch and by a background thread. Zero or less writes each change synchronously, by the thread changing it.
+	 */
+	@Builder.Default
+	private long statusFlushInterval = 0L;
+
+	/**
+	 * Policy for evicting finished jobs from the DAO. Null to use the policy of the DAO, which keeps them forever
+	 * unless configured otherwise.
+	 */
+	private RetentionPolicy retentionPolicy;
+
+	/**
+	 * Metrics recorded by the queue. Null to not record any.
+	 */
+	private JobQueueMetrics metrics;
+
+	/**
+	 * Allocates the IDs of the jobs added without one. Null to use the allocator of the DAO, which allocates
+	 * sequential IDs unless configured otherwise.
+	 */
+	private JobIdAllocator jobIdAllocator;
+
+	/**
+	 * Recreates the unfinished jobs of previous runs, read from a persistent DAO when the queue is created.
+	 * Null to not recover any jobs.
+	 */
+	private JobOnRecovery onRecovery;
+
+	/**
+	 * What happens to the recovered jobs that were interrupted while running.
+	 * Default value is: {@link RecoveryPolicy#REQUEUE}
+	 */
+	@Builder.Default
+	private RecoveryPolicy recoveryPolicy = RecoveryPolicy.REQUEUE;
+
+	/**
+	 * Shared store of the jobs of several nodes, from which the queue claims the jobs of other nodes whose leases
+	 * have expired. Null to only run the jobs added to this queue.
+	 */
+	private JobLeaseStore jobLeaseStore;
+
+	/**
+	 * Max amount of claimed jobs waiting in the queue. Values less than 1 are treated as 1.
+	 * Default value is: 10
+	 */
+	@Builder.Default
+	private int claimBatchSize = 10;
+
+	/**
+	 * Makes the resource keys exclusive across JVMs. Null to only make them exclusive within this queue.
+	 */
+	private ResourceLockProvider resourceLockProvider;
+
+	/**
+	 * Amount of permits of the resource keys, i.e. the max total weight of the jobs running with the same resource
+	 * key, see {@link JobOptions#getResourceWeight()}. Resource keys without any permits are exclusive.
+	 */
+	@Singular
+	private Map<String, Integer> resourcePermits;
+
+	/**
+	 * Max rate at which the jobs of the queue are started. Null if unlimited.
+	 */
+	private RateLimit rateLimit;
+
+	/**
+	 * Max rates at which the jobs of the resource keys are started. Resource keys without any rate limit are unlimited.
+	 */
+	@Singular
+	private Map<String, RateLimit> resourceRateLimits;
+
 	public static QueueOptions getDefault() {
 		return QueueOptions.builder().build();
 	}
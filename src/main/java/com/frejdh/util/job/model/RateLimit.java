@@ -0,0 +1,56 @@
+package com.frejdh.util.job.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Max rate at which jobs are started, e.g. to not exceed the rate limit of a downstream service.
+ * The jobs are spaced evenly over the period, except for a burst of jobs allowed after being idle.
+ */
+@Builder(toBuilder = true, setterPrefix = "with")
+@Getter
+public class RateLimit {
+
+	/**
+	 * Amount of jobs started per period.
+	 */
+	private final int permits;
+
+	/**
+	 * Period in milliseconds.
+	 */
+	private final long period;
+
+	/**
+	 * Max amount of jobs started at once after being idle. Zero or less means the amount of permits.
+	 */
+	private final int burst;
+
+	/**
+	 * @param permits Amount of jobs started per period.
+	 * @param period Period of the permits.
+	 * @param unit Unit of the period.
+	 * @return A rate limit with a burst of the amount of permits.
+	 */
+	public static RateLimit of(int permits, long period, TimeUnit unit) {
+		return RateLimit.builder()
+				.withPermits(permits)
+				.withPeriod(unit.toMillis(period))
+				.build();
+	}
+
+	public int getBurst() {
+		return burst > 0 ? burst : permits;
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimit{" +
+				"permits=" + permits +
+				", period=" + period +
+				", burst=" + getBurst() +
+				'}';
+	}
+}
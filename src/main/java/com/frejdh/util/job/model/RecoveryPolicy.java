@@ -0,0 +1,17 @@
+package com.frejdh.util.job.model;
+
+/**
+ * Determines what happens to the jobs of a previous run that were interrupted while running, i.e. when the process
+ * died. Jobs that never started are always re-queued. See {@link QueueOptions#getOnRecovery()}.
+ */
+public enum RecoveryPolicy {
+	/**
+	 * Add the interrupted jobs again, i.e. execute them from the start. Requires the actions to be idempotent.
+	 */
+	REQUEUE,
+
+	/**
+	 * Mark the interrupted jobs as {@link JobStatus#FAILED}.
+	 */
+	FAIL
+}
@@ -0,0 +1,8 @@
+package com.frejdh.util.job.model.callables;
+
+import com.frejdh.util.job.Job;
+
+@FunctionalInterface
+public interface JobOnEviction {
+	void onEviction(Job job);
+}
@@ -0,0 +1,17 @@
+package com.frejdh.util.job.model.callables;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.persistence.JobRecord;
+
+/**
+ * Recreates the job of a persisted record, as the action of a job isn't persisted. Called in parallel for
+ * the recovered records, so it must be thread-safe.
+ */
+@FunctionalInterface
+public interface JobOnRecovery {
+	/**
+	 * @param record The persisted state of the job.
+	 * @return A new job to add in place of the record, or null to cancel it. Gets the ID of the record if it has none.
+	 */
+	Job onRecovery(JobRecord record);
+}
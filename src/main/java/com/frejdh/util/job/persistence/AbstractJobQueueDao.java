@@ -1,19 +1,66 @@
 package com.frejdh.util.job.persistence;
 
 import com.frejdh.util.job.Job;
+import com.frejdh.util.job.model.QueueOptions;
+import com.frejdh.util.job.persistence.id.JobIdAllocator;
+import com.frejdh.util.job.persistence.id.SequentialJobIdAllocator;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 public abstract class AbstractJobQueueDao {
 
 	public AbstractJobQueueDao() { }
 
+	/**
+	 * Next ID of the default {@link SequentialJobIdAllocator}.
+	 * @deprecated Unused if another allocator is set, use {@link #jobIdAllocator} instead.
+	 */
+	@Deprecated
 	protected AtomicLong lastJobId = new AtomicLong(0);
 
+	protected volatile JobIdAllocator jobIdAllocator = new SequentialJobIdAllocator(lastJobId);
+
+	public JobIdAllocator getJobIdAllocator() {
+		return jobIdAllocator;
+	}
+
+	/**
+	 * Set before any job is added, e.g. with {@link com.frejdh.util.job.JobQueueBuilder#withJobIdAllocator}.
+	 * @param jobIdAllocator Allocator of the IDs of the jobs added without one.
+	 */
+	public void setJobIdAllocator(@NotNull JobIdAllocator jobIdAllocator) {
+		this.jobIdAllocator = jobIdAllocator;
+	}
+
+	/**
+	 * Executed once by the queue using this DAO, before any job is added.
+	 * Override to e.g. use {@link QueueOptions#getPersistenceFile()}.
+	 * @param options Options of the queue.
+	 */
+	public void initialize(@NotNull QueueOptions options) { }
+
+	/**
+	 * Write buffered changes to the storage. Executed when the queue is stopped and awaited.
+	 * Override if the writes are buffered or done asynchronously.
+	 */
+	public void flush() { }
+
+	/**
+	 * The unfinished jobs of previous runs, i.e. the jobs that were pending or running when the process died.
+	 * Read by the queue once, after {@link #initialize(QueueOptions)} and before any job is added, to recover them.
+	 * Override in persistent DAOs. The ID state must already cover these jobs, so that new IDs don't collide.
+	 * @return The persisted records of the jobs. May be consumed in parallel.
+	 */
+	public Stream<JobRecord> streamUnfinishedJobs() {
+		return Stream.empty();
+	}
+
 	/**
 	 * Adds/updates a job to the persistence layer. Job ID will be created at this stage if not flagged to be created later.
 	 * @param job Job to add
@@ -21,6 +68,53 @@ public abstract class AbstractJobQueueDao {
 	 */
 	abstract public Job upsertJob(@NotNull Job job);
 
+	/**
+	 * Adds/updates multiple jobs. The missing job IDs are allocated in one block.
+	 * Override if the implementation can insert the jobs more efficiently in a batch.
+	 * @param jobs Jobs to add
+	 * @return The added jobs
+	 */
+	public List<Job> upsertJobs(@NotNull Collection<Job> jobs) {
+		allocateJobIds(jobs);
+		List<Job> upsertedJobs = new ArrayList<>(jobs.size());
+		for (Job job : jobs) {
+			Job upsertedJob = upsertJob(job);
+			if (upsertedJob != null) {
+				upsertedJobs.add(upsertedJob);
+			}
+		}
+		return upsertedJobs;
+	}
+
+	/**
+	 * Sets the IDs of the jobs that are missing one, allocated at once by the {@link #jobIdAllocator}.
+	 * @param jobs Jobs to allocate IDs for.
+	 */
+	protected void allocateJobIds(@NotNull Collection<Job> jobs) {
+		int jobsWithoutId = 0;
+		for (Job job : jobs) {
+			if (needsJobId(job)) {
+				jobsWithoutId++;
+			}
+		}
+		if (jobsWithoutId == 0) {
+			return;
+		}
+
+		long[] jobIds = new long[jobsWithoutId];
+		jobIdAllocator.nextJobIds(jobIds);
+		int index = 0;
+		for (Job job : jobs) {
+			if (needsJobId(job) && index < jobIds.length) {
+				job.setJobId(jobIds[index++]);
+			}
+		}
+	}
+
+	private static boolean needsJobId(Job job) {
+		return !job.hasJobId() && !job.getStatus().isWaitingForId();
+	}
+
 	abstract protected Job removeJob(@NotNull Job job);
 
 	abstract public Job getJobById(Long jobId);
@@ -65,7 +159,7 @@ public abstract class AbstractJobQueueDao {
 		}
 
 		return getRunningJobs().values().stream()
-				.noneMatch(job -> Optional.ofNullable(job.getResourceKey()).orElse("").equals(resource));
+				.noneMatch(job -> job.getResourceKeys().contains(resource));
 	}
 
 }
@@ -3,15 +3,18 @@ package com.frejdh.util.job.persistence;
 import com.frejdh.util.environment.Config;
 import com.frejdh.util.job.Job;
 import com.frejdh.util.job.environment.JobQueueConfigParameters;
+import com.frejdh.util.job.model.QueueOptions;
 import com.frejdh.util.job.persistence.config.DaoPersistence;
 import com.frejdh.util.job.persistence.config.DaoPersistenceMode;
 import lombok.SneakyThrows;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 /**
  * Default config DAO-service.
@@ -21,7 +24,7 @@ public class JobQueueService {
 
 	private final AbstractJobQueueDao impl;
 	private static final DaoPersistence DEFAULT_CONFIGURATION = new DaoPersistence(DaoPersistenceMode.RUNTIME);
-	protected final Map<Long, Future<?>> runningJobFuturesByJobId = new HashMap<>();
+	protected final Map<Long, Future<?>> runningJobFuturesByJobId = new ConcurrentHashMap<>();
 
 	@SneakyThrows
 	public JobQueueService() {
@@ -63,6 +66,39 @@ public class JobQueueService {
 		return classToUse;
 	}
 
+	/**
+	 * @return The DAO implementation, e.g. to close it or read the jobs it recovered.
+	 */
+	public AbstractJobQueueDao getImplementation() {
+		return impl;
+	}
+
+	/**
+	 * Initialize the DAO implementation with the options of the queue using it.
+	 * @param options Options of the queue.
+	 */
+	public void initialize(@NotNull QueueOptions options) {
+		if (options.getJobIdAllocator() != null) {
+			impl.setJobIdAllocator(options.getJobIdAllocator()); // Before the DAO reserves the IDs in use
+		}
+		impl.initialize(options);
+	}
+
+	/**
+	 * Write the buffered changes (if any) of the DAO implementation to its storage.
+	 */
+	public void flush() {
+		impl.flush();
+	}
+
+	/**
+	 * Get the unfinished jobs of previous runs from a persistent DAO implementation.
+	 * @return The persisted records of the jobs, empty if the DAO isn't persistent.
+	 */
+	public Stream<JobRecord> streamUnfinishedJobs() {
+		return impl.streamUnfinishedJobs();
+	}
+
 	/**
 	 * Add job to pending state. Adds jobId if missing and when the job doesn't have a "WAITING_FOR_ID" status.
 	 * @param job to add.
@@ -72,6 +108,15 @@ public class JobQueueService {
 		return impl.upsertJob(job);
 	}
 
+	/**
+	 * Add/update multiple jobs in one batch, see {@link AbstractJobQueueDao#upsertJobs(Collection)}.
+	 * @param jobs Jobs to add.
+	 * @return The added jobs.
+	 */
+	public List<Job> upsertJobs(@NotNull Collection<Job> jobs) {
+		return impl.upsertJobs(jobs);
+	}
+
 	public boolean isResourceFreeForJob(String resource) {
 		return impl.isResourceFree(resource);
 	}
@@ -0,0 +1,115 @@
+package com.frejdh.util.job.persistence;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.model.JobStatus;
+import lombok.Builder;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Persisted state of a job, i.e. everything about it except its action and callbacks.
+ * Used by persistent DAOs to hand back the jobs of a previous run.
+ */
+@Builder(toBuilder = true, setterPrefix = "with")
+@Getter
+public class JobRecord {
+
+	/**
+	 * Separates the resource keys when they're stored as one text, see {@link #getJoinedResourceKeys()}.
+	 * The resource keys of a job with several of them must therefore not contain it.
+	 */
+	public static final String RESOURCE_KEY_SEPARATOR = "\n";
+
+	private final long jobId;
+	private final JobStatus status;
+	private final String resourceKey;
+
+	/**
+	 * All resource keys of the job, in sorted order, see {@link Job#getResourceKeys()}.
+	 */
+	private final List<String> resourceKeys;
+	private final String description;
+	private final long timeout;
+	private final int priority;
+
+	/**
+	 * Epoch milliseconds, zero if unset. Same for the other timestamps.
+	 */
+	private final long addedTimestamp;
+	private final long startTimestamp;
+	private final long stopTimestamp;
+
+	/**
+	 * String representation of the throwable of the job, or null if none.
+	 */
+	private final String error;
+
+	public static JobRecord of(@NotNull Job job) {
+		return JobRecord.builder()
+				.withJobId(job.getJobId())
+				.withStatus(job.getStatus())
+				.withResourceKey(job.getResourceKey())
+				.withResourceKeys(job.getResourceKeys())
+				.withDescription(job.getDescription())
+				.withTimeout(job.getJobOptions().getTimeout())
+				.withPriority(job.getJobOptions().getPriority())
+				.withAddedTimestamp(job.getAddedTimestamp())
+				.withStartTimestamp(job.getStartTimestamp())
+				.withStopTimestamp(job.getStopTimestamp())
+				.withError(job.hasThrowable() ? job.getThrowable().toString() : null)
+				.build();
+	}
+
+	/**
+	 * @return All resource keys of the job, or the resource key alone if the record has none (e.g. from an earlier version).
+	 */
+	public List<String> getResourceKeys() {
+		if (resourceKeys != null && !resourceKeys.isEmpty()) {
+			return resourceKeys;
+		}
+		return resourceKey != null ? Collections.singletonList(resourceKey) : Collections.emptyList();
+	}
+
+	/**
+	 * @return The resource keys separated by {@link #RESOURCE_KEY_SEPARATOR}, or null if the job has at most one,
+	 * as that one is stored as the resource key.
+	 */
+	public String getJoinedResourceKeys() {
+		return joinResourceKeys(getResourceKeys());
+	}
+
+	/**
+	 * @see #getJoinedResourceKeys()
+	 */
+	public static String joinResourceKeys(@NotNull List<String> resourceKeys) {
+		return resourceKeys.size() > 1 ? String.join(RESOURCE_KEY_SEPARATOR, resourceKeys) : null;
+	}
+
+	public static class JobRecordBuilder {
+
+		/**
+		 * @param joinedResourceKeys Resource keys as stored by {@link #getJoinedResourceKeys()}. Null if at most one.
+		 */
+		public JobRecordBuilder withJoinedResourceKeys(String joinedResourceKeys) {
+			return withResourceKeys(joinedResourceKeys != null
+					? Arrays.asList(joinedResourceKeys.split(RESOURCE_KEY_SEPARATOR))
+					: null);
+		}
+
+	}
+
+	@Override
+	public String toString() {
+		return "JobRecord{" +
+				"jobId=" + jobId +
+				", status=" + status +
+				", resourceKey='" + resourceKey + '\'' +
+				", resourceKeys=" + getResourceKeys() +
+				", addedTimestamp=" + addedTimestamp +
+				'}';
+	}
+}
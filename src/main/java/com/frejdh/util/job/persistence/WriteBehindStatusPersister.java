@@ -0,0 +1,112 @@
+package com.frejdh.util.job.persistence;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.scheduling.JobTimer;
+import com.frejdh.util.job.util.JobQueueLogger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persists the status changes of jobs asynchronously. Changes of the same job are coalesced until the next flush,
+ * i.e. only the latest status is written, and the flushes upsert the changed jobs in one batch.
+ * Enqueueing a change never blocks, so the worker threads never wait on the DAO.
+ * <p>
+ * A flush is scheduled on the {@link JobTimer} when the first change arrives, and is executed by a separate
+ * flusher thread (which exits when idle).
+ */
+public class WriteBehindStatusPersister {
+
+	private static final Logger LOGGER = JobQueueLogger.getLogger();
+
+	private final JobQueueService daoService;
+	private final JobTimer timer;
+	private final long flushIntervalMillis;
+	private final Map<Long, Job> pendingJobs = new ConcurrentHashMap<>();
+	private final AtomicBoolean isFlushScheduled = new AtomicBoolean(false);
+	private final Object flushLock = new Object();
+	private final ThreadPoolExecutor flusher;
+
+	/**
+	 * @param daoService DAO service to write the changes to.
+	 * @param timer Timer used to delay the flushes.
+	 * @param flushIntervalMillis How long changes are collected before they're written.
+	 */
+	public WriteBehindStatusPersister(@NotNull JobQueueService daoService, @NotNull JobTimer timer, long flushIntervalMillis) {
+		this.daoService = daoService;
+		this.timer = timer;
+		this.flushIntervalMillis = Math.max(0, flushIntervalMillis);
+		this.flusher = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "job-queue-status-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.flusher.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Enqueue the current status of the job to be written.
+	 * @param job Job that changed.
+	 */
+	public void enqueue(@NotNull Job job) {
+		pendingJobs.put(job.getJobId(), job);
+		if (isFlushScheduled.compareAndSet(false, true)) {
+			timer.schedule(() -> flusher.execute(this::flushQuietly), flushIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * @return Amount of jobs with changes that haven't been written yet.
+	 */
+	public int getPendingJobs() {
+		return pendingJobs.size();
+	}
+
+	/**
+	 * Write all pending changes. Blocks until written.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			isFlushScheduled.set(false); // Changes from now on schedule another flush
+			if (pendingJobs.isEmpty()) {
+				return;
+			}
+
+			List<Job> jobsToWrite = new ArrayList<>(pendingJobs.size());
+			for (Long jobId : pendingJobs.keySet()) {
+				Job job = pendingJobs.remove(jobId);
+				if (job != null) {
+					jobsToWrite.add(job);
+				}
+			}
+
+			try {
+				daoService.upsertJobs(jobsToWrite);
+			} catch (RuntimeException e) {
+				jobsToWrite.forEach(job -> pendingJobs.putIfAbsent(job.getJobId(), job));
+				throw e;
+			}
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Failed to write job status changes, retrying", e);
+			if (!pendingJobs.isEmpty() && isFlushScheduled.compareAndSet(false, true)) {
+				timer.schedule(() -> flusher.execute(this::flushQuietly), Math.max(1000, flushIntervalMillis), TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+package com.frejdh.util.job.persistence.cluster;
+
+import com.frejdh.util.job.persistence.JobRecord;
+
+import java.util.List;
+
+/**
+ * Persistent storage shared by multiple JVMs (nodes), where each unfinished job is leased to the node executing it.
+ * A node renews the leases of its jobs while it's alive, and the jobs of a dead node are claimed by the other nodes
+ * once their leases expire. See {@link com.frejdh.util.job.JobQueueBuilder#withClustering}.
+ */
+public interface JobLeaseStore {
+
+	/**
+	 * @return ID of this node, unique among the nodes sharing the storage.
+	 */
+	String getNodeId();
+
+	/**
+	 * @return How long a lease lasts without being renewed, in milliseconds.
+	 */
+	long getLeaseDuration();
+
+	/**
+	 * Claims unfinished jobs that aren't leased, or whose lease has expired. A job is claimed by one node only.
+	 * @param maxJobs Max amount of jobs to claim.
+	 * @return The claimed jobs, now leased to this node.
+	 */
+	List<JobRecord> claimJobs(int maxJobs);
+
+	/**
+	 * Renews the leases of the unfinished jobs of this node. Called at least a few times per lease duration.
+	 * @return Amount of renewed leases.
+	 */
+	int renewLeases();
+
+}
@@ -0,0 +1,202 @@
+package com.frejdh.util.job.persistence.cluster;
+
+import com.frejdh.util.job.scheduling.ResourceLockProvider;
+import com.frejdh.util.job.util.JobQueueLogger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resource locks backed by time-bounded leases of a {@link ResourceLeaseStore}. The leases held by this node are
+ * cached, so acquiring a resource costs a round-trip to the store only the first time. A released resource keeps its
+ * lease for the idle retention, in case it's acquired again, after which the lease is released for the other nodes.
+ * <p>
+ * A heartbeat renews the cached leases {@link #HEARTBEATS_PER_LEASE} times per lease duration. A cached lease is
+ * trusted until the lease duration has passed since it was acquired or last renewed, measured from before the call
+ * to the store, so it expires locally before it does in the store. A node that is paused for longer than the lease
+ * may still lose a resource while using it, which the fencing tokens guard against.
+ */
+public class LeasedResourceLockProvider implements ResourceLockProvider, AutoCloseable {
+
+	private static final Logger LOGGER = JobQueueLogger.getLogger();
+	public static final int HEARTBEATS_PER_LEASE = 3;
+
+	private final ResourceLeaseStore leaseStore;
+	private final long leaseDurationNanos;
+	private final long heartbeatIntervalMillis;
+	private final long idleRetentionNanos;
+	private final Map<String, Lease> leasesByResourceKey = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * Released resources keep their leases for one heartbeat interval.
+	 * @param leaseStore Store shared by the nodes, for example a {@link com.frejdh.util.job.persistence.impl.h2.H2ClusteredJobQueueDao}.
+	 */
+	public LeasedResourceLockProvider(@NotNull ResourceLeaseStore leaseStore) {
+		this(leaseStore, Math.max(1, leaseStore.getLeaseDuration() / HEARTBEATS_PER_LEASE), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param leaseStore Store shared by the nodes, for example a {@link com.frejdh.util.job.persistence.impl.h2.H2ClusteredJobQueueDao}.
+	 * @param idleRetention How long a released resource keeps its lease. Other nodes wait for it meanwhile.
+	 * @param unit Unit of the idle retention.
+	 */
+	public LeasedResourceLockProvider(@NotNull ResourceLeaseStore leaseStore, long idleRetention, @NotNull TimeUnit unit) {
+		if (leaseStore.getLeaseDuration() <= 0) {
+			throw new IllegalArgumentException("The lease duration must be positive, was: " + leaseStore.getLeaseDuration());
+		}
+		this.leaseStore = leaseStore;
+		this.leaseDurationNanos = TimeUnit.MILLISECONDS.toNanos(leaseStore.getLeaseDuration());
+		this.heartbeatIntervalMillis = Math.max(1, leaseStore.getLeaseDuration() / HEARTBEATS_PER_LEASE);
+		this.idleRetentionNanos = unit.toNanos(Math.max(0, idleRetention));
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "job-queue-resource-leases-" + leaseStore.getNodeId());
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::heartbeat, heartbeatIntervalMillis, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public boolean tryAcquire(@NotNull String resourceKey) {
+		long now = System.nanoTime();
+		Lease cachedLease = leasesByResourceKey.computeIfPresent(resourceKey,
+				(key, lease) -> lease.isValid(now) ? lease.acquired() : null);
+		if (cachedLease != null) {
+			return true;
+		}
+
+		long fencingToken;
+		try {
+			fencingToken = leaseStore.acquireResourceLease(resourceKey);
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Failed to acquire the lease of resource [" + resourceKey + "]", e);
+			return false;
+		}
+		if (fencingToken == ResourceLeaseStore.NO_LEASE) {
+			return false;
+		}
+		Lease lease = new Lease(fencingToken, now + leaseDurationNanos, true, now);
+		leasesByResourceKey.merge(resourceKey, lease, (currentLease, acquiredLease) ->
+				currentLease.fencingToken > acquiredLease.fencingToken ? currentLease.acquired() : acquiredLease); // Latest of concurrent owners
+		return true;
+	}
+
+	@Override
+	public void release(@NotNull String resourceKey) {
+		leasesByResourceKey.computeIfPresent(resourceKey, (key, lease) -> lease.released(System.nanoTime()));
+	}
+
+	@Override
+	public long getFencingToken(@NotNull String resourceKey) {
+		Lease lease = leasesByResourceKey.get(resourceKey);
+		return lease != null && lease.isValid(System.nanoTime()) ? lease.fencingToken : NO_FENCING_TOKEN;
+	}
+
+	@Override
+	public long getRetryDelay() {
+		return heartbeatIntervalMillis;
+	}
+
+	/**
+	 * Releases the leases that have been idle for the idle retention, and renews the others in one batch.
+	 * Executed by the heartbeat thread.
+	 */
+	void heartbeat() {
+		try {
+			long now = System.nanoTime();
+			Map<String, Long> fencingTokensToRenew = new HashMap<>();
+			for (Map.Entry<String, Lease> entry : leasesByResourceKey.entrySet()) {
+				Lease lease = entry.getValue();
+				if (!lease.isInUse && now - lease.idleSince >= idleRetentionNanos) {
+					if (leasesByResourceKey.remove(entry.getKey(), lease)) { // Unless acquired again meanwhile
+						leaseStore.releaseResourceLease(entry.getKey(), lease.fencingToken);
+					}
+				}
+				else {
+					fencingTokensToRenew.put(entry.getKey(), lease.fencingToken);
+				}
+			}
+			if (fencingTokensToRenew.isEmpty()) {
+				return;
+			}
+
+			Set<String> lostResourceKeys = leaseStore.renewResourceLeases(fencingTokensToRenew);
+			for (Map.Entry<String, Long> entry : fencingTokensToRenew.entrySet()) {
+				boolean isLost = lostResourceKeys.contains(entry.getKey());
+				leasesByResourceKey.computeIfPresent(entry.getKey(), (key, lease) -> {
+					if (lease.fencingToken != entry.getValue()) {
+						return lease; // Acquired again meanwhile
+					}
+					return isLost ? null : lease.renewed(now + leaseDurationNanos);
+				});
+				if (isLost) {
+					LOGGER.warning("Lost the lease of resource [" + entry.getKey() + "] with fencing token " + entry.getValue());
+				}
+			}
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Resource lease heartbeat of node [" + leaseStore.getNodeId() + "] failed", e);
+		}
+	}
+
+	/**
+	 * Stops the heartbeat and releases the leases held by this node.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		for (String resourceKey : leasesByResourceKey.keySet()) {
+			Lease lease = leasesByResourceKey.remove(resourceKey);
+			if (lease == null) {
+				continue;
+			}
+			try {
+				leaseStore.releaseResourceLease(resourceKey, lease.fencingToken);
+			} catch (RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Failed to release the lease of resource [" + resourceKey + "]", e);
+			}
+		}
+	}
+
+	/**
+	 * A lease held by this node. Immutable, so that it's replaced atomically in the map.
+	 */
+	private static class Lease {
+		private final long fencingToken;
+		private final long expiresAt;
+		private final boolean isInUse;
+		private final long idleSince;
+
+		private Lease(long fencingToken, long expiresAt, boolean isInUse, long idleSince) {
+			this.fencingToken = fencingToken;
+			this.expiresAt = expiresAt;
+			this.isInUse = isInUse;
+			this.idleSince = idleSince;
+		}
+
+		private boolean isValid(long now) {
+			return expiresAt - now > 0;
+		}
+
+		private Lease acquired() {
+			return new Lease(fencingToken, expiresAt, true, idleSince);
+		}
+
+		private Lease released(long now) {
+			return new Lease(fencingToken, expiresAt, false, now);
+		}
+
+		private Lease renewed(long expiresAt) {
+			return new Lease(fencingToken, expiresAt, isInUse, idleSince);
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.frejdh.util.job.persistence.cluster;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent storage of the resource leases shared by multiple JVMs (nodes). A resource is leased to one node at a
+ * time, with a fencing token that increases every time the lease is acquired. See {@link LeasedResourceLockProvider}.
+ */
+public interface ResourceLeaseStore {
+
+	/**
+	 * Returned by {@link #acquireResourceLease(String)} if the resource is leased to another node.
+	 */
+	long NO_LEASE = -1;
+
+	/**
+	 * @return ID of this node, unique among the nodes sharing the storage.
+	 */
+	String getNodeId();
+
+	/**
+	 * @return How long a lease lasts without being renewed, in milliseconds.
+	 */
+	long getLeaseDuration();
+
+	/**
+	 * Leases the resource to this node, if it isn't leased to another node or the lease has expired.
+	 * @param resourceKey Resource to lease.
+	 * @return The new fencing token of the resource, or {@link #NO_LEASE} if it's leased to another node.
+	 */
+	long acquireResourceLease(@NotNull String resourceKey);
+
+	/**
+	 * Renews the leases that are still held with the given fencing tokens.
+	 * @param fencingTokensByResourceKey The leases to renew.
+	 * @return The resource keys whose leases were lost, i.e. acquired by another node after they expired.
+	 */
+	Set<String> renewResourceLeases(@NotNull Map<String, Long> fencingTokensByResourceKey);
+
+	/**
+	 * Releases the lease, if it's still held with the given fencing token.
+	 */
+	void releaseResourceLease(@NotNull String resourceKey, long fencingToken);
+
+}
@@ -2,6 +2,7 @@ package com.frejdh.util.job.persistence.config;
 
 import com.frejdh.util.job.persistence.AbstractJobQueueDao;
 import com.frejdh.util.job.persistence.impl.h2.H2JobQueueDao;
+import com.frejdh.util.job.persistence.impl.journal.JournalJobQueueDao;
 import com.frejdh.util.job.persistence.impl.memory.RuntimeJobQueueDao;
 import java.util.Arrays;
 import java.util.List;
@@ -10,6 +11,7 @@ import java.util.Locale;
 
 public enum DaoPersistenceMode {
 	H2(H2JobQueueDao.class, "h2"),
+	JOURNAL(JournalJobQueueDao.class, "journal"),
 	RUNTIME(RuntimeJobQueueDao.class, "runtime", "in-memory", "memory", "internal"),
 	CUSTOM(null, "custom");
 	private final Class<? extends AbstractJobQueueDao> implementationClass;
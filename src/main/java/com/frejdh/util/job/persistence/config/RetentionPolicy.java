@@ -0,0 +1,62 @@
+package com.frejdh.util.job.persistence.config;
+
+import com.frejdh.util.job.model.callables.JobOnEviction;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long finished jobs (finished, failed, timed out or canceled) are kept by the in-memory DAO.
+ * All limits are disabled per default, i.e. finished jobs are kept forever.
+ * The oldest jobs (by the order they were added) are evicted first.
+ */
+@Builder(toBuilder = true, setterPrefix = "with")
+@Getter
+public class RetentionPolicy {
+
+	public static final RetentionPolicy UNLIMITED = RetentionPolicy.builder().build();
+
+	/**
+	 * Max amount of finished jobs to keep. Zero or less means unlimited.
+	 */
+	private final int maxFinishedJobs;
+
+	/**
+	 * Max time in milliseconds to keep a job after it finished. Zero or less means unlimited.
+	 */
+	private final long maxAge;
+
+	/**
+	 * Max amount of finished jobs to keep per resource key. Zero or less means unlimited.
+	 */
+	private final int maxFinishedJobsPerResourceKey;
+
+	/**
+	 * Executed for every evicted job, e.g. to archive it elsewhere. Executed by the thread that triggered the
+	 * eviction, so it should be fast.
+	 */
+	private final JobOnEviction onEviction;
+
+	public boolean isEnabled() {
+		return maxFinishedJobs > 0 || maxAge > 0 || maxFinishedJobsPerResourceKey > 0;
+	}
+
+	public static class RetentionPolicyBuilder {
+		public RetentionPolicyBuilder setMaxAge(long maxAge, TimeUnit unit) {
+			if (unit != null) {
+				this.maxAge = unit.toMillis(maxAge);
+			}
+			return this;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RetentionPolicy{" +
+				"maxFinishedJobs=" + maxFinishedJobs +
+				", maxAge=" + maxAge +
+				", maxFinishedJobsPerResourceKey=" + maxFinishedJobsPerResourceKey +
+				'}';
+	}
+}
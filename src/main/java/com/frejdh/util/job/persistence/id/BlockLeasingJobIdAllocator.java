@@ -0,0 +1,85 @@
+package com.frejdh.util.job.persistence.id;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates IDs from blocks leased from a {@link JobIdBlockStore}, so that the store is only accessed once per block
+ * rather than once per job. The IDs are unique across the JVMs sharing the store, but are only ordered within a JVM.
+ * IDs left in the block when the JVM stops are never used.
+ * <p>
+ * The allocation is a single atomic increment, and only the thread exhausting a block leases the next one.
+ */
+public class BlockLeasingJobIdAllocator implements JobIdAllocator {
+
+	public static final int DEFAULT_BLOCK_SIZE = 10_000;
+
+	private final JobIdBlockStore store;
+	private final int blockSize;
+	private volatile Block block = new Block(0, 0);
+
+	public BlockLeasingJobIdAllocator(@NotNull JobIdBlockStore store) {
+		this(store, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param store Store to lease the blocks from.
+	 * @param blockSize Amount of IDs leased at a time.
+	 */
+	public BlockLeasingJobIdAllocator(@NotNull JobIdBlockStore store, int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("The block size must be positive, was: " + blockSize);
+		}
+		this.store = store;
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	public long nextJobId() {
+		while (true) {
+			Block currentBlock = block;
+			long jobId = currentBlock.nextJobId.getAndIncrement();
+			if (jobId < currentBlock.end) {
+				return jobId;
+			}
+			leaseBlock(currentBlock);
+		}
+	}
+
+	/**
+	 * Leases the next block, unless another thread already replaced the exhausted one.
+	 */
+	private synchronized void leaseBlock(Block exhaustedBlock) {
+		if (block == exhaustedBlock) {
+			long firstJobId = store.leaseBlock(blockSize);
+			block = new Block(firstJobId, firstJobId + blockSize);
+		}
+	}
+
+	/**
+	 * Discards the current block if it holds the ID. The store is expected to lease blocks after the IDs in use.
+	 */
+	@Override
+	public synchronized void reserveUpTo(long jobId) {
+		Block currentBlock = block;
+		if (jobId >= currentBlock.nextJobId.get() && jobId < currentBlock.end) {
+			block = new Block(0, 0);
+		}
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	private static class Block {
+		private final AtomicLong nextJobId;
+		private final long end;
+
+		private Block(long firstJobId, long end) {
+			this.nextJobId = new AtomicLong(firstJobId);
+			this.end = end;
+		}
+	}
+
+}
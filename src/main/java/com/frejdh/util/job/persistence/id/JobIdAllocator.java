@@ -0,0 +1,31 @@
+package com.frejdh.util.job.persistence.id;
+
+/**
+ * Allocates the IDs of the jobs added without one. Jobs built with an ID, or waiting for one to be set with
+ * {@link com.frejdh.util.job.Job#setJobId(long)}, never get an allocated ID. Must be thread-safe.
+ */
+public interface JobIdAllocator {
+
+	/**
+	 * @return A new unique, non-negative job ID.
+	 */
+	long nextJobId();
+
+	/**
+	 * Allocates IDs for multiple jobs at once. Override if it can be done cheaper than one by one.
+	 * @param jobIds Array to fill with new IDs.
+	 */
+	default void nextJobIds(long[] jobIds) {
+		for (int i = 0; i < jobIds.length; i++) {
+			jobIds[i] = nextJobId();
+		}
+	}
+
+	/**
+	 * Makes sure that the IDs allocated from now on are greater than the given ID, e.g. an ID of a previous run
+	 * recovered by a persistent DAO.
+	 * @param jobId ID already in use.
+	 */
+	void reserveUpTo(long jobId);
+
+}
@@ -0,0 +1,16 @@
+package com.frejdh.util.job.persistence.id;
+
+/**
+ * Backing store of a {@link BlockLeasingJobIdAllocator}, e.g. a database shared by multiple JVMs.
+ */
+@FunctionalInterface
+public interface JobIdBlockStore {
+
+	/**
+	 * Leases a block of IDs, which is never leased again, also not to other JVMs using the same store.
+	 * @param blockSize Amount of IDs in the block.
+	 * @return The first ID of the block, i.e. the block is the IDs from this one until this one plus the block size.
+	 */
+	long leaseBlock(int blockSize);
+
+}
@@ -0,0 +1,97 @@
+package com.frejdh.util.job.persistence.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates Snowflake-style IDs, composed of a timestamp, a node ID and a sequence number. Each JVM (node) is given
+ * a unique node ID, and then allocates IDs without any coordination with the other nodes.
+ * <p>
+ * The layout is 41 bits of milliseconds since {@link #EPOCH} (lasting about 69 years), {@link #NODE_BITS} bits of
+ * node ID and {@link #SEQUENCE_BITS} bits of sequence. The IDs are ordered by time within a node. When the sequence
+ * of a millisecond is exhausted, the allocator continues in the next millisecond ahead of the clock rather than
+ * waiting for it. The same applies if the clock moves backwards, so the IDs of a node never repeat while it's running.
+ */
+public class NodePartitionedJobIdAllocator implements JobIdAllocator {
+
+	/**
+	 * 2020-01-01T00:00:00Z, in epoch milliseconds.
+	 */
+	public static final long EPOCH = 1_577_836_800_000L;
+	public static final int NODE_BITS = 10;
+	public static final int SEQUENCE_BITS = 12;
+	public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+	private final long nodeId;
+
+	/**
+	 * The last allocated timestamp and sequence, as {@code timestamp << SEQUENCE_BITS | sequence}. Incrementing it
+	 * moves to the next sequence, or to the next millisecond when the sequence overflows.
+	 */
+	private final AtomicLong lastTimestampAndSequence = new AtomicLong(-1);
+
+	/**
+	 * @param nodeId ID of this node, unique among the nodes sharing the jobs. Between 0 and {@link #MAX_NODE_ID}.
+	 */
+	public NodePartitionedJobIdAllocator(int nodeId) {
+		if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+			throw new IllegalArgumentException("The node ID must be between 0 and " + MAX_NODE_ID + ", was: " + nodeId);
+		}
+		this.nodeId = nodeId;
+	}
+
+	@Override
+	public long nextJobId() {
+		return toJobId(reserve(1));
+	}
+
+	/**
+	 * Reserves the IDs with a single update.
+	 */
+	@Override
+	public void nextJobIds(long[] jobIds) {
+		long first = reserve(jobIds.length);
+		for (int i = 0; i < jobIds.length; i++) {
+			jobIds[i] = toJobId(first + i);
+		}
+	}
+
+	/**
+	 * @return The first of the reserved timestamps and sequences.
+	 */
+	private long reserve(int amount) {
+		long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+		long last = lastTimestampAndSequence.accumulateAndGet(now, (previous, current) -> Math.max(previous + amount, current + amount - 1));
+		return last - amount + 1;
+	}
+
+	private long toJobId(long timestampAndSequence) {
+		long timestamp = timestampAndSequence >>> SEQUENCE_BITS;
+		return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | (timestampAndSequence & SEQUENCE_MASK);
+	}
+
+	@Override
+	public void reserveUpTo(long jobId) {
+		long timestampAndSequence = ((jobId >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS) | (jobId & SEQUENCE_MASK);
+		lastTimestampAndSequence.accumulateAndGet(timestampAndSequence, Math::max);
+	}
+
+	public int getNodeId() {
+		return (int) nodeId;
+	}
+
+	/**
+	 * @return The node ID of a job ID allocated by this kind of allocator.
+	 */
+	public static int getNodeId(long jobId) {
+		return (int) ((jobId >>> SEQUENCE_BITS) & MAX_NODE_ID);
+	}
+
+	/**
+	 * @return The time a job ID allocated by this kind of allocator was allocated, in epoch milliseconds.
+	 */
+	public static long getTimestamp(long jobId) {
+		return (jobId >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.frejdh.util.job.persistence.id;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates sequential IDs from a counter in memory. The default allocator, only unique within one JVM.
+ */
+public class SequentialJobIdAllocator implements JobIdAllocator {
+
+	private final AtomicLong nextJobId;
+
+	public SequentialJobIdAllocator() {
+		this(new AtomicLong(0));
+	}
+
+	/**
+	 * @param nextJobId Counter holding the next ID to allocate. Shared with the caller.
+	 */
+	public SequentialJobIdAllocator(@NotNull AtomicLong nextJobId) {
+		this.nextJobId = nextJobId;
+	}
+
+	@Override
+	public long nextJobId() {
+		return nextJobId.getAndIncrement();
+	}
+
+	/**
+	 * Allocates the IDs with a single update of the counter.
+	 */
+	@Override
+	public void nextJobIds(long[] jobIds) {
+		long firstJobId = nextJobId.getAndAdd(jobIds.length);
+		for (int i = 0; i < jobIds.length; i++) {
+			jobIds[i] = firstJobId + i;
+		}
+	}
+
+	@Override
+	public void reserveUpTo(long jobId) {
+		nextJobId.accumulateAndGet(jobId + 1, Math::max);
+	}
+
+}
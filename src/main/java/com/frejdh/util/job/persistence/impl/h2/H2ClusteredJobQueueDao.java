@@ -0,0 +1,319 @@
+package com.frejdh.util.job.persistence.impl.h2;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.exceptions.JobPersistenceException;
+import com.frejdh.util.job.model.JobStatus;
+import com.frejdh.util.job.persistence.JobRecord;
+import com.frejdh.util.job.persistence.cluster.JobLeaseStore;
+import com.frejdh.util.job.persistence.cluster.ResourceLeaseStore;
+import com.frejdh.util.job.persistence.id.BlockLeasingJobIdAllocator;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * H2 DAO shared by multiple JVMs (nodes), e.g. through an H2 server ({@code jdbc:h2:tcp://localhost/./my-queue})
+ * or an auto server ({@code jdbc:h2:file:./my-queue;AUTO_SERVER=TRUE}). The unfinished jobs of a node are written
+ * with a lease held by the node, which the node renews while alive. The other nodes claim the unfinished jobs that
+ * aren't leased, e.g. the jobs of a dead node or jobs added with {@link #submit(JobRecord)}.
+ * <p>
+ * A job is claimed with a conditional update of its row, so it's claimed by one node only. A node that is paused for
+ * longer than the lease duration (e.g. by the GC) may lose the leases of its running jobs, so the lease duration
+ * should be well above the pauses and the clock skew between the nodes.
+ * <p>
+ * The job IDs are leased in blocks from the database, see {@link BlockLeasingJobIdAllocator}. The resource keys can
+ * be leased as well, see {@link com.frejdh.util.job.persistence.cluster.LeasedResourceLockProvider}. Resource keys
+ * longer than the text columns share the lease of their truncated key.
+ */
+public class H2ClusteredJobQueueDao extends H2JobQueueDao implements JobLeaseStore, ResourceLeaseStore {
+
+	public static final long DEFAULT_LEASE_DURATION_MILLIS = 30_000;
+	private static final int MAX_NODE_ID_LENGTH = 64;
+
+	private static final String SQL_LEASE_IS_FREE = "(LEASE_EXPIRES IS NULL OR LEASE_EXPIRES < ?)";
+	private static final String SQL_SELECT_CLAIMABLE = "SELECT " + SQL_RECORD_COLUMNS + " FROM " + TABLE_NAME
+			+ " WHERE STATUS IN " + SQL_UNFINISHED_STATUSES + " AND " + SQL_LEASE_IS_FREE + " ORDER BY ID LIMIT ?";
+	private static final String SQL_CLAIM = "UPDATE " + TABLE_NAME + " SET LEASE_OWNER = ?, LEASE_EXPIRES = ?"
+			+ " WHERE ID = ? AND STATUS IN " + SQL_UNFINISHED_STATUSES + " AND " + SQL_LEASE_IS_FREE;
+	private static final String SQL_RENEW_LEASES = "UPDATE " + TABLE_NAME + " SET LEASE_EXPIRES = ?"
+			+ " WHERE LEASE_OWNER = ? AND STATUS IN " + SQL_UNFINISHED_STATUSES;
+	private static final String SQL_SUBMIT = "INSERT INTO " + TABLE_NAME
+			+ " (ID, STATUS, RESOURCE_KEY, DESCRIPTION, TIMEOUT, ADDED_TIMESTAMP, RESOURCE_KEYS) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+	protected static final String RESOURCE_LEASES_TABLE_NAME = "JOB_QUEUE_RESOURCE_LEASES";
+	private static final String SQL_CREATE_RESOURCE_LEASES_TABLE = "CREATE TABLE IF NOT EXISTS " + RESOURCE_LEASES_TABLE_NAME + " ("
+			+ "RESOURCE_KEY VARCHAR(" + MAX_TEXT_LENGTH + ") PRIMARY KEY, "
+			+ "OWNER VARCHAR(" + MAX_NODE_ID_LENGTH + "), "
+			+ "FENCING_TOKEN BIGINT NOT NULL, "
+			+ "EXPIRES BIGINT NOT NULL)";
+	private static final String SQL_SELECT_RESOURCE_LEASE = "SELECT OWNER, FENCING_TOKEN, EXPIRES FROM " + RESOURCE_LEASES_TABLE_NAME
+			+ " WHERE RESOURCE_KEY = ? FOR UPDATE";
+	private static final String SQL_INSERT_RESOURCE_LEASE = "INSERT INTO " + RESOURCE_LEASES_TABLE_NAME
+			+ " (OWNER, FENCING_TOKEN, EXPIRES, RESOURCE_KEY) VALUES (?, ?, ?, ?)";
+	private static final String SQL_UPDATE_RESOURCE_LEASE = "UPDATE " + RESOURCE_LEASES_TABLE_NAME
+			+ " SET OWNER = ?, FENCING_TOKEN = ?, EXPIRES = ? WHERE RESOURCE_KEY = ?";
+	private static final String SQL_RENEW_RESOURCE_LEASE = "UPDATE " + RESOURCE_LEASES_TABLE_NAME
+			+ " SET EXPIRES = ? WHERE RESOURCE_KEY = ? AND OWNER = ? AND FENCING_TOKEN = ?";
+	private static final String SQL_RELEASE_RESOURCE_LEASE = "UPDATE " + RESOURCE_LEASES_TABLE_NAME
+			+ " SET OWNER = NULL, EXPIRES = 0 WHERE RESOURCE_KEY = ? AND OWNER = ? AND FENCING_TOKEN = ?";
+
+	private final String nodeId;
+	private final long leaseDurationMillis;
+
+	/**
+	 * @param jdbcUrl H2 JDBC URL of the shared database. Null to resolve it from the configuration.
+	 * @param nodeId ID of this node, unique among the nodes. At most 64 characters.
+	 */
+	public H2ClusteredJobQueueDao(String jdbcUrl, @NotNull String nodeId) {
+		this(jdbcUrl, nodeId, DEFAULT_LEASE_DURATION_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param jdbcUrl H2 JDBC URL of the shared database. Null to resolve it from the configuration.
+	 * @param nodeId ID of this node, unique among the nodes. At most 64 characters.
+	 * @param leaseDuration How long a lease lasts without being renewed.
+	 * @param unit Unit of the lease duration.
+	 */
+	public H2ClusteredJobQueueDao(String jdbcUrl, @NotNull String nodeId, long leaseDuration, @NotNull TimeUnit unit) {
+		super(jdbcUrl);
+		if (nodeId.isEmpty() || nodeId.length() > MAX_NODE_ID_LENGTH) {
+			throw new IllegalArgumentException("The node ID must be 1 to " + MAX_NODE_ID_LENGTH + " characters, was: " + nodeId);
+		}
+		if (leaseDuration <= 0) {
+			throw new IllegalArgumentException("The lease duration must be positive, was: " + leaseDuration);
+		}
+		this.nodeId = nodeId;
+		this.leaseDurationMillis = unit.toMillis(leaseDuration);
+		this.jobIdAllocator = new BlockLeasingJobIdAllocator(this);
+	}
+
+	@Override
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	@Override
+	public long getLeaseDuration() {
+		return leaseDurationMillis;
+	}
+
+	@Override
+	protected String getLeaseOwner(Job job) {
+		return job.getStatus().isFinished() ? null : nodeId;
+	}
+
+	@Override
+	protected long getLeaseExpiry(Job job) {
+		return job.getStatus().isFinished() ? 0 : System.currentTimeMillis() + leaseDurationMillis;
+	}
+
+	/**
+	 * The unfinished jobs of previous runs are claimed once their leases expire, rather than recovered on startup,
+	 * as the jobs of the other nodes are unfinished as well.
+	 * @return An empty stream.
+	 */
+	@Override
+	public Stream<JobRecord> streamUnfinishedJobs() {
+		return Stream.empty();
+	}
+
+	/**
+	 * Jobs already held in memory by this node (e.g. if its heartbeat was late) are skipped, as they're executed
+	 * by this node already. Their leases are taken again by the next write or renewal.
+	 */
+	@Override
+	public List<JobRecord> claimJobs(int maxJobs) {
+		if (maxJobs <= 0) {
+			return Collections.emptyList();
+		}
+
+		long now = System.currentTimeMillis();
+		return inTransaction(connection -> {
+			List<JobRecord> candidates = new ArrayList<>();
+			try (PreparedStatement select = connection.prepareStatement(SQL_SELECT_CLAIMABLE)) {
+				select.setLong(1, now);
+				select.setInt(2, maxJobs);
+				try (ResultSet resultSet = select.executeQuery()) {
+					while (resultSet.next()) {
+						JobRecord record = toRecord(resultSet);
+						if (getJobById(record.getJobId()) == null) {
+							candidates.add(record);
+						}
+					}
+				}
+			}
+			if (candidates.isEmpty()) {
+				connection.commit();
+				return Collections.emptyList();
+			}
+
+			int[] updateCounts;
+			try (PreparedStatement claim = connection.prepareStatement(SQL_CLAIM)) {
+				for (JobRecord candidate : candidates) {
+					claim.setString(1, nodeId);
+					claim.setLong(2, now + leaseDurationMillis);
+					claim.setLong(3, candidate.getJobId());
+					claim.setLong(4, now);
+					claim.addBatch();
+				}
+				updateCounts = claim.executeBatch();
+			}
+			connection.commit();
+
+			List<JobRecord> claimedJobs = new ArrayList<>(candidates.size());
+			for (int i = 0; i < candidates.size(); i++) {
+				if (updateCounts[i] > 0) { // Otherwise claimed by another node meanwhile
+					claimedJobs.add(candidates.get(i));
+				}
+			}
+			return claimedJobs;
+		});
+	}
+
+	@Override
+	public int renewLeases() {
+		return inTransaction(connection -> {
+			try (PreparedStatement renew = connection.prepareStatement(SQL_RENEW_LEASES)) {
+				renew.setLong(1, System.currentTimeMillis() + leaseDurationMillis);
+				renew.setString(2, nodeId);
+				int renewedLeases = renew.executeUpdate();
+				connection.commit();
+				return renewedLeases;
+			}
+		});
+	}
+
+	/**
+	 * Adds a job to be claimed by any node, rather than executed by this one. Written right away.
+	 * @param record The job to add. Its ID, status and timestamps are ignored.
+	 * @return The ID of the added job.
+	 */
+	public long submit(@NotNull JobRecord record) {
+		long jobId = jobIdAllocator.nextJobId();
+		return inTransaction(connection -> {
+			try (PreparedStatement insert = connection.prepareStatement(SQL_SUBMIT)) {
+				insert.setLong(1, jobId);
+				insert.setString(2, JobStatus.INITIALIZED.name());
+				insert.setString(3, truncate(record.getResourceKey()));
+				insert.setString(4, truncate(record.getDescription()));
+				insert.setLong(5, record.getTimeout());
+				insert.setLong(6, System.currentTimeMillis());
+				insert.setString(7, truncate(record.getJoinedResourceKeys()));
+				insert.executeUpdate();
+			}
+			connection.commit();
+			return jobId;
+		});
+	}
+
+	/**
+	 * Leases the resource in a transaction, with its row locked. The row is kept when the lease is released, so the
+	 * fencing token keeps increasing. Retried once if another node created the row meanwhile.
+	 */
+	@Override
+	public long acquireResourceLease(@NotNull String resourceKey) {
+		try {
+			return inTransaction(connection -> acquireResourceLease(connection, truncate(resourceKey)));
+		} catch (JobPersistenceException e) {
+			return inTransaction(connection -> acquireResourceLease(connection, truncate(resourceKey)));
+		}
+	}
+
+	private long acquireResourceLease(Connection connection, String resourceKey) throws SQLException {
+		long now = System.currentTimeMillis();
+		long fencingToken = 1;
+		boolean hasRow = false;
+		try (PreparedStatement select = connection.prepareStatement(SQL_SELECT_RESOURCE_LEASE)) {
+			select.setString(1, resourceKey);
+			try (ResultSet resultSet = select.executeQuery()) {
+				if (resultSet.next()) {
+					String owner = resultSet.getString("OWNER");
+					if (owner != null && !owner.equals(nodeId) && resultSet.getLong("EXPIRES") >= now) {
+						connection.commit();
+						return NO_LEASE;
+					}
+					fencingToken = resultSet.getLong("FENCING_TOKEN") + 1;
+					hasRow = true;
+				}
+			}
+		}
+
+		try (PreparedStatement update = connection.prepareStatement(hasRow ? SQL_UPDATE_RESOURCE_LEASE : SQL_INSERT_RESOURCE_LEASE)) {
+			update.setString(1, nodeId);
+			update.setLong(2, fencingToken);
+			update.setLong(3, now + leaseDurationMillis);
+			update.setString(4, resourceKey);
+			update.executeUpdate();
+		}
+		connection.commit();
+		return fencingToken;
+	}
+
+	@Override
+	public Set<String> renewResourceLeases(@NotNull Map<String, Long> fencingTokensByResourceKey) {
+		if (fencingTokensByResourceKey.isEmpty()) {
+			return Collections.emptySet();
+		}
+
+		List<String> resourceKeys = new ArrayList<>(fencingTokensByResourceKey.keySet());
+		long expires = System.currentTimeMillis() + leaseDurationMillis;
+		return inTransaction(connection -> {
+			int[] updateCounts;
+			try (PreparedStatement renew = connection.prepareStatement(SQL_RENEW_RESOURCE_LEASE)) {
+				for (String resourceKey : resourceKeys) {
+					renew.setLong(1, expires);
+					renew.setString(2, truncate(resourceKey));
+					renew.setString(3, nodeId);
+					renew.setLong(4, fencingTokensByResourceKey.get(resourceKey));
+					renew.addBatch();
+				}
+				updateCounts = renew.executeBatch();
+			}
+			connection.commit();
+
+			Set<String> lostResourceKeys = new HashSet<>();
+			for (int i = 0; i < resourceKeys.size(); i++) {
+				if (updateCounts[i] == 0) {
+					lostResourceKeys.add(resourceKeys.get(i));
+				}
+			}
+			return lostResourceKeys;
+		});
+	}
+
+	@Override
+	public void releaseResourceLease(@NotNull String resourceKey, long fencingToken) {
+		inTransaction(connection -> {
+			try (PreparedStatement release = connection.prepareStatement(SQL_RELEASE_RESOURCE_LEASE)) {
+				release.setString(1, truncate(resourceKey));
+				release.setString(2, nodeId);
+				release.setLong(3, fencingToken);
+				int releasedLeases = release.executeUpdate();
+				connection.commit();
+				return releasedLeases;
+			}
+		});
+	}
+
+	@Override
+	protected void createSchema(Connection connection) throws SQLException {
+		super.createSchema(connection);
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(SQL_CREATE_RESOURCE_LEASES_TABLE);
+		}
+		connection.commit();
+	}
+
+}
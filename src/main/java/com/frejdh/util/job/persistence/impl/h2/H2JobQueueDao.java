@@ -1,56 +1,511 @@
 package com.frejdh.util.job.persistence.impl.h2;
 
+import com.frejdh.util.environment.Config;
 import com.frejdh.util.job.Job;
-import com.frejdh.util.job.persistence.AbstractJobQueueDao;
+import com.frejdh.util.job.environment.JobQueueConfigParameters;
+import com.frejdh.util.job.exceptions.JobPersistenceException;
+import com.frejdh.util.job.model.JobStatus;
+import com.frejdh.util.job.model.QueueOptions;
+import com.frejdh.util.job.persistence.JobRecord;
+import com.frejdh.util.job.persistence.id.JobIdBlockStore;
+import com.frejdh.util.job.persistence.impl.memory.RuntimeJobQueueDao;
+import com.frejdh.util.job.util.JobQueueLogger;
 import org.jetbrains.annotations.NotNull;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public class H2JobQueueDao extends AbstractJobQueueDao {
+/**
+ * Embedded H2 DAO. The live jobs are kept in memory (see {@link RuntimeJobQueueDao}) and every change is written
+ * behind to an H2 database. Changes to the same job are coalesced until the next write, and are written by a
+ * background thread in JDBC batches, with one commit per batch (group commit).
+ * <p>
+ * The database is resolved in this order: the JDBC URL given to the constructor, the property
+ * {@link JobQueueConfigParameters#ARG_H2_URL}, {@link QueueOptions#getPersistenceFile()}, the property
+ * {@link JobQueueConfigParameters#ARG_PERSISTENCE_FILE}, and lastly {@link #DEFAULT_FILE}.
+ * <p>
+ * Jobs evicted by the {@link com.frejdh.util.job.persistence.config.RetentionPolicy} are only removed from memory,
+ * and are kept in the database.
+ * <p>
+ * The database is opened by {@link #initialize(QueueOptions)}, which continues the job IDs after the persisted ones.
+ * The unfinished jobs of previous runs are looked up through the status index, see {@link #streamUnfinishedJobs()}.
+ * <p>
+ * Can be the {@link JobIdBlockStore} of a {@link com.frejdh.util.job.persistence.id.BlockLeasingJobIdAllocator},
+ * e.g. for multiple JVMs sharing an H2 server.
+ */
+public class H2JobQueueDao extends RuntimeJobQueueDao implements JobIdBlockStore, AutoCloseable {
 
-	@Override
-	public Job upsertJob(@NotNull Job job) {
-		return null;
+	private static final Logger LOGGER = JobQueueLogger.getLogger();
+	public static final String DEFAULT_FILE = "./job-queue";
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+	protected static final String TABLE_NAME = "JOB_QUEUE_JOBS";
+	protected static final String ID_BLOCKS_TABLE_NAME = "JOB_QUEUE_ID_BLOCKS";
+	private static final String ID_BLOCK_NAME = "JOB_ID";
+	protected static final int MAX_TEXT_LENGTH = 4096;
+
+	private static final String SQL_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+			+ "ID BIGINT PRIMARY KEY, "
+			+ "STATUS VARCHAR(32) NOT NULL, "
+			+ "RESOURCE_KEY VARCHAR(" + MAX_TEXT_LENGTH + "), "
+			+ "RESOURCE_KEYS VARCHAR(" + MAX_TEXT_LENGTH + "), "
+			+ "DESCRIPTION VARCHAR(" + MAX_TEXT_LENGTH + "), "
+			+ "TIMEOUT BIGINT NOT NULL, "
+			+ "ADDED_TIMESTAMP BIGINT, "
+			+ "START_TIME BIGINT, "
+			+ "STOP_TIME BIGINT, "
+			+ "ERROR VARCHAR(" + MAX_TEXT_LENGTH + "), "
+			+ "LEASE_OWNER VARCHAR(64), "
+			+ "LEASE_EXPIRES BIGINT)";
+	private static final String[] SQL_ADD_COLUMNS = { // For tables created by earlier versions
+			"ALTER TABLE " + TABLE_NAME + " ADD COLUMN IF NOT EXISTS LEASE_OWNER VARCHAR(64)",
+			"ALTER TABLE " + TABLE_NAME + " ADD COLUMN IF NOT EXISTS LEASE_EXPIRES BIGINT",
+			"ALTER TABLE " + TABLE_NAME + " ADD COLUMN IF NOT EXISTS RESOURCE_KEYS VARCHAR(" + MAX_TEXT_LENGTH + ")"
+	};
+	private static final String[] SQL_CREATE_INDEXES = {
+			"CREATE INDEX IF NOT EXISTS IDX_" + TABLE_NAME + "_STATUS ON " + TABLE_NAME + " (STATUS)",
+			"CREATE INDEX IF NOT EXISTS IDX_" + TABLE_NAME + "_RESOURCE_KEY ON " + TABLE_NAME + " (RESOURCE_KEY)",
+			"CREATE INDEX IF NOT EXISTS IDX_" + TABLE_NAME + "_ADDED_TIMESTAMP ON " + TABLE_NAME + " (ADDED_TIMESTAMP)",
+			"CREATE INDEX IF NOT EXISTS IDX_" + TABLE_NAME + "_STOP_TIME ON " + TABLE_NAME + " (STOP_TIME)",
+			"CREATE INDEX IF NOT EXISTS IDX_" + TABLE_NAME + "_LEASE_OWNER ON " + TABLE_NAME + " (LEASE_OWNER)"
+	};
+	private static final String SQL_UPSERT = "MERGE INTO " + TABLE_NAME
+			+ " (ID, STATUS, RESOURCE_KEY, DESCRIPTION, TIMEOUT, ADDED_TIMESTAMP, START_TIME, STOP_TIME, ERROR, LEASE_OWNER, LEASE_EXPIRES, RESOURCE_KEYS)"
+			+ " KEY (ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	private static final String SQL_DELETE = "DELETE FROM " + TABLE_NAME + " WHERE ID = ?";
+	private static final String SQL_SELECT_MAX_ID = "SELECT MAX(ID) FROM " + TABLE_NAME;
+	private static final String SQL_CREATE_ID_BLOCKS_TABLE = "CREATE TABLE IF NOT EXISTS " + ID_BLOCKS_TABLE_NAME + " ("
+			+ "NAME VARCHAR(64) PRIMARY KEY, "
+			+ "NEXT_ID BIGINT NOT NULL)";
+	private static final String SQL_SELECT_NEXT_ID_BLOCK = "SELECT NEXT_ID FROM " + ID_BLOCKS_TABLE_NAME + " WHERE NAME = ? FOR UPDATE";
+	private static final String SQL_INSERT_NEXT_ID_BLOCK = "INSERT INTO " + ID_BLOCKS_TABLE_NAME + " (NEXT_ID, NAME) VALUES (?, ?)";
+	private static final String SQL_UPDATE_NEXT_ID_BLOCK = "UPDATE " + ID_BLOCKS_TABLE_NAME + " SET NEXT_ID = ? WHERE NAME = ?";
+
+	/**
+	 * The statuses of persisted jobs that haven't finished, as an SQL list.
+	 */
+	protected static final String SQL_UNFINISHED_STATUSES = "(" + Arrays.stream(JobStatus.values())
+			.filter(status -> !status.isFinished() && !status.isWaitingForId())
+			.map(status -> "'" + status.name() + "'")
+			.collect(Collectors.joining(", ")) + ")";
+
+	/**
+	 * The columns read by {@link #toRecord(ResultSet)}.
+	 */
+	protected static final String SQL_RECORD_COLUMNS = "ID, STATUS, RESOURCE_KEY, RESOURCE_KEYS, DESCRIPTION, TIMEOUT, ADDED_TIMESTAMP, START_TIME, STOP_TIME, ERROR";
+	private static final String SQL_SELECT_UNFINISHED = "SELECT " + SQL_RECORD_COLUMNS
+			+ " FROM " + TABLE_NAME + " WHERE STATUS IN " + SQL_UNFINISHED_STATUSES + " ORDER BY ID";
+
+	/**
+	 * Marks a pending delete in {@link #pendingWrites}.
+	 */
+	private static final Job DELETED = Job.builder().build();
+
+	private volatile String jdbcUrl;
+	private final long flushIntervalNanos;
+	private final Map<Long, Job> pendingWrites = new ConcurrentHashMap<>();
+	private final Object writeLock = new Object();
+	private Connection connection;
+	private PreparedStatement upsertStatement;
+	private PreparedStatement deleteStatement;
+	private volatile Thread writerThread;
+	private volatile boolean closed;
+
+	public H2JobQueueDao() {
+		this(null);
 	}
 
-	@Override
-	protected Job removeJob(@NotNull Job job) {
-		return null;
+	/**
+	 * @param jdbcUrl H2 JDBC URL, e.g. {@code jdbc:h2:file:./my-queue}. Null to resolve it from the configuration.
+	 */
+	public H2JobQueueDao(String jdbcUrl) {
+		this(jdbcUrl, getFlushIntervalFromProperties(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param jdbcUrl H2 JDBC URL, e.g. {@code jdbc:h2:file:./my-queue}. Null to resolve it from the configuration.
+	 * @param flushInterval How long the writer waits for more changes before writing them, when idle.
+	 * @param unit Unit of the flush interval.
+	 */
+	public H2JobQueueDao(String jdbcUrl, long flushInterval, @NotNull TimeUnit unit) {
+		this.jdbcUrl = jdbcUrl != null ? jdbcUrl : Config.getString(JobQueueConfigParameters.ARG_H2_URL);
+		this.flushIntervalNanos = unit.toNanos(flushInterval);
+	}
+
+	private static long getFlushIntervalFromProperties() {
+		String flushInterval = Config.getString(JobQueueConfigParameters.ARG_H2_FLUSH_INTERVAL);
+		return flushInterval != null ? Long.parseLong(flushInterval.trim()) : DEFAULT_FLUSH_INTERVAL_MILLIS;
 	}
 
 	@Override
-	public Job getJobById(Long jobId) {
-		return null;
+	public void initialize(@NotNull QueueOptions options) {
+		super.initialize(options);
+		if (jdbcUrl == null && options.getPersistenceFile() != null) {
+			jdbcUrl = toJdbcUrl(options.getPersistenceFile());
+		}
+
+		synchronized (writeLock) {
+			try {
+				getConnection();
+			} catch (SQLException e) {
+				throw new JobPersistenceException("Failed to open the H2 database", e);
+			}
+		}
 	}
 
 	@Override
-	public Job getLastAddedJob() {
-		return null;
+	public Stream<JobRecord> streamUnfinishedJobs() {
+		List<JobRecord> records = new ArrayList<>();
+		synchronized (writeLock) {
+			try (Statement statement = getConnection().createStatement();
+				 ResultSet resultSet = statement.executeQuery(SQL_SELECT_UNFINISHED)) {
+				while (resultSet.next()) {
+					records.add(toRecord(resultSet));
+				}
+			} catch (SQLException e) {
+				throw new JobPersistenceException("Failed to read the unfinished jobs from H2", e);
+			}
+		}
+		return records.stream();
+	}
+
+	/**
+	 * @param resultSet Result set positioned at a row with the {@link #SQL_RECORD_COLUMNS}.
+	 */
+	protected static JobRecord toRecord(ResultSet resultSet) throws SQLException {
+		return JobRecord.builder()
+				.withJobId(resultSet.getLong("ID"))
+				.withStatus(JobStatus.valueOf(resultSet.getString("STATUS")))
+				.withResourceKey(resultSet.getString("RESOURCE_KEY"))
+				.withJoinedResourceKeys(resultSet.getString("RESOURCE_KEYS"))
+				.withDescription(resultSet.getString("DESCRIPTION"))
+				.withTimeout(resultSet.getLong("TIMEOUT"))
+				.withAddedTimestamp(resultSet.getLong("ADDED_TIMESTAMP")) // Zero if null
+				.withStartTimestamp(resultSet.getLong("START_TIME"))
+				.withStopTimestamp(resultSet.getLong("STOP_TIME"))
+				.withError(resultSet.getString("ERROR"))
+				.build();
+	}
+
+	private static String toJdbcUrl(String file) {
+		return "jdbc:h2:file:" + file;
 	}
 
 	@Override
-	public Job getLastFinishedJob() {
-		return null;
+	public Job upsertJob(@NotNull Job job) {
+		Job upsertedJob = super.upsertJob(job);
+		if (upsertedJob != null) {
+			enqueueWrite(upsertedJob.getJobId(), upsertedJob);
+		}
+		return upsertedJob;
 	}
 
 	@Override
-	public Map<Long, Job> getPendingJobs() {
-		return null;
+	protected Job removeJob(@NotNull Job job) {
+		Job removedJob = super.removeJob(job);
+		if (removedJob != null) {
+			enqueueWrite(removedJob.getJobId(), DELETED);
+		}
+		return removedJob;
+	}
+
+	/**
+	 * Coalesces the write with any pending write of the same job, and wakes up the writer.
+	 */
+	private void enqueueWrite(long jobId, Job job) {
+		if (closed) {
+			throw new JobPersistenceException("The H2 DAO is closed");
+		}
+		pendingWrites.put(jobId, job);
+		Thread writer = writerThread;
+		if (writer == null) {
+			writer = startWriterThread();
+		}
+		LockSupport.unpark(writer);
+	}
+
+	private synchronized Thread startWriterThread() {
+		if (writerThread == null) {
+			Thread thread = new Thread(this::runWriter, "job-queue-h2-writer");
+			thread.setDaemon(true);
+			thread.start();
+			writerThread = thread;
+		}
+		return writerThread;
+	}
+
+	private void runWriter() {
+		while (!closed) {
+			if (pendingWrites.isEmpty()) {
+				LockSupport.parkNanos(this, flushIntervalNanos);
+				continue;
+			}
+
+			try {
+				flush();
+			} catch (JobPersistenceException e) {
+				LOGGER.log(Level.SEVERE, "Failed to write jobs to H2, retrying", e);
+				LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+			}
+		}
 	}
 
+	/**
+	 * Write all pending changes in one batch and transaction. Blocks until written.
+	 */
 	@Override
-	public Map<Long, Job> getRunningJobs() {
+	public void flush() {
+		synchronized (writeLock) {
+			if (pendingWrites.isEmpty()) {
+				return;
+			}
+
+			Map<Long, Job> writesToRetry = new ConcurrentHashMap<>();
+			try {
+				Connection connection = getConnection();
+				int upserts = 0;
+				int deletes = 0;
+				for (Long jobId : pendingWrites.keySet()) {
+					Job job = pendingWrites.remove(jobId);
+					if (job == null) {
+						continue;
+					}
+					writesToRetry.put(jobId, job);
+
+					if (job == DELETED) {
+						deleteStatement.setLong(1, jobId);
+						deleteStatement.addBatch();
+						deletes++;
+					}
+					else {
+						setUpsertParameters(upsertStatement, job);
+						upsertStatement.addBatch();
+						upserts++;
+					}
+				}
+
+				if (upserts > 0) {
+					upsertStatement.executeBatch();
+				}
+				if (deletes > 0) {
+					deleteStatement.executeBatch();
+				}
+				connection.commit();
+			} catch (SQLException e) {
+				rollbackQuietly();
+				writesToRetry.forEach(pendingWrites::putIfAbsent);
+				throw new JobPersistenceException("Failed to write " + writesToRetry.size() + " job(s) to H2", e);
+			}
+		}
+	}
+
+	private void setUpsertParameters(PreparedStatement statement, Job job) throws SQLException {
+		statement.setLong(1, job.getJobId());
+		statement.setString(2, job.getStatus().name());
+		statement.setString(3, truncate(job.getResourceKey()));
+		statement.setString(4, truncate(job.getDescription()));
+		statement.setLong(5, job.getJobOptions().getTimeout());
+		setNullableTimestamp(statement, 6, job.getAddedTimestamp());
+		setNullableTimestamp(statement, 7, job.getStartTimestamp());
+		setNullableTimestamp(statement, 8, job.getStopTimestamp());
+		statement.setString(9, job.hasThrowable() ? truncate(job.getThrowable().toString()) : null);
+		statement.setString(10, getLeaseOwner(job));
+		setNullableTimestamp(statement, 11, getLeaseExpiry(job));
+		statement.setString(12, truncate(JobRecord.joinResourceKeys(job.getResourceKeys())));
+	}
+
+	/**
+	 * @return The node holding the lease of the job, see {@link H2ClusteredJobQueueDao}. Null if not leased.
+	 */
+	protected String getLeaseOwner(Job job) {
 		return null;
 	}
 
+	/**
+	 * @return When the lease of the job expires, in epoch milliseconds. Zero if not leased.
+	 */
+	protected long getLeaseExpiry(Job job) {
+		return 0;
+	}
+
+	/**
+	 * Timestamps of zero are unset, and stored as null.
+	 */
+	private static void setNullableTimestamp(PreparedStatement statement, int index, long value) throws SQLException {
+		if (value != 0) {
+			statement.setLong(index, value);
+		}
+		else {
+			statement.setNull(index, Types.BIGINT);
+		}
+	}
+
+	protected static String truncate(String text) {
+		return text != null && text.length() > MAX_TEXT_LENGTH ? text.substring(0, MAX_TEXT_LENGTH) : text;
+	}
+
+	/**
+	 * Must be called while holding the write lock.
+	 */
+	protected Connection getConnection() throws SQLException {
+		if (connection == null || connection.isClosed()) {
+			String url = jdbcUrl != null ? jdbcUrl : toJdbcUrl(getPersistenceFileFromProperties());
+			connection = DriverManager.getConnection(url);
+			connection.setAutoCommit(false);
+			createSchema(connection);
+			upsertStatement = connection.prepareStatement(SQL_UPSERT);
+			deleteStatement = connection.prepareStatement(SQL_DELETE);
+			continueJobIds(connection);
+		}
+		return connection;
+	}
+
+	private static String getPersistenceFileFromProperties() {
+		String file = Config.getString(JobQueueConfigParameters.ARG_PERSISTENCE_FILE);
+		return file != null ? file : DEFAULT_FILE;
+	}
+
+	/**
+	 * Continues the job IDs after the persisted ones. A lookup in the primary key index, not a table scan.
+	 */
+	private void continueJobIds(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement();
+			 ResultSet resultSet = statement.executeQuery(SQL_SELECT_MAX_ID)) {
+			if (resultSet.next()) {
+				long maxJobId = resultSet.getLong(1);
+				if (!resultSet.wasNull()) {
+					jobIdAllocator.reserveUpTo(maxJobId);
+				}
+			}
+		}
+		connection.commit();
+	}
+
+	/**
+	 * Leases the block in a transaction, with the row of the next block locked. The blocks start after the persisted
+	 * jobs, also those given IDs by another allocator. Retried once if another JVM created the row meanwhile.
+	 */
 	@Override
-	public Map<Long, Job> getFinishedJobs() {
-		return null;
+	public long leaseBlock(int blockSize) {
+		try {
+			return inTransaction(connection -> leaseBlock(connection, blockSize));
+		} catch (JobPersistenceException e) {
+			return inTransaction(connection -> leaseBlock(connection, blockSize));
+		}
+	}
+
+	@FunctionalInterface
+	protected interface Transaction<T> {
+		T execute(Connection connection) throws SQLException;
 	}
 
+	/**
+	 * Executes the transaction on the connection of the DAO, serialized with the writes. The transaction must commit,
+	 * and is rolled back if it fails.
+	 * @throws JobPersistenceException If the transaction failed.
+	 */
+	protected <T> T inTransaction(Transaction<T> transaction) {
+		synchronized (writeLock) {
+			try {
+				return transaction.execute(getConnection());
+			} catch (SQLException e) {
+				rollbackQuietly();
+				throw new JobPersistenceException("H2 transaction failed", e);
+			}
+		}
+	}
+
+	private long leaseBlock(Connection connection, int blockSize) throws SQLException {
+		long firstJobId = 0;
+		try (Statement statement = connection.createStatement();
+			 ResultSet resultSet = statement.executeQuery(SQL_SELECT_MAX_ID)) {
+			if (resultSet.next() && resultSet.getObject(1) != null) {
+				firstJobId = resultSet.getLong(1) + 1;
+			}
+		}
+
+		boolean hasRow = false;
+		try (PreparedStatement select = connection.prepareStatement(SQL_SELECT_NEXT_ID_BLOCK)) {
+			select.setString(1, ID_BLOCK_NAME);
+			try (ResultSet resultSet = select.executeQuery()) {
+				if (resultSet.next()) {
+					firstJobId = Math.max(firstJobId, resultSet.getLong(1));
+					hasRow = true;
+				}
+			}
+		}
+
+		try (PreparedStatement update = connection.prepareStatement(hasRow ? SQL_UPDATE_NEXT_ID_BLOCK : SQL_INSERT_NEXT_ID_BLOCK)) {
+			update.setLong(1, firstJobId + blockSize);
+			update.setString(2, ID_BLOCK_NAME);
+			update.executeUpdate();
+		}
+		connection.commit();
+		return firstJobId;
+	}
+
+	protected void createSchema(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(SQL_CREATE_TABLE);
+			for (String addColumn : SQL_ADD_COLUMNS) {
+				statement.execute(addColumn);
+			}
+			statement.execute(SQL_CREATE_ID_BLOCKS_TABLE);
+			for (String createIndex : SQL_CREATE_INDEXES) {
+				statement.execute(createIndex);
+			}
+		}
+		connection.commit();
+	}
+
+	private void rollbackQuietly() {
+		try {
+			if (connection != null) {
+				connection.rollback();
+			}
+		} catch (SQLException e) {
+			LOGGER.log(Level.WARNING, "Failed to rollback H2 transaction", e);
+		}
+	}
+
+	/**
+	 * Writes the pending changes and closes the database connection.
+	 */
 	@Override
-	public List<Job> getAllJobs() {
-		return null;
+	public void close() {
+		try {
+			flush();
+		} finally {
+			closed = true;
+			Thread writer = writerThread;
+			if (writer != null) {
+				LockSupport.unpark(writer);
+			}
+			synchronized (writeLock) {
+				try {
+					if (connection != null) {
+						connection.close();
+					}
+				} catch (SQLException e) {
+					LOGGER.log(Level.WARNING, "Failed to close H2 connection", e);
+				}
+			}
+		}
 	}
+
 }
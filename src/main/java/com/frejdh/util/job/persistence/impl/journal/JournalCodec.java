@@ -0,0 +1,157 @@
+package com.frejdh.util.job.persistence.impl.journal;
+
+import com.frejdh.util.job.model.JobStatus;
+import com.frejdh.util.job.persistence.JobRecord;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary format of the journal and snapshot records. Each record is framed by the length of its payload and the
+ * CRC32 of the payload. The length is written last, so a length of zero marks the end of the written records.
+ * A frame that is cut off or fails its checksum (i.e. a write torn by a crash) is treated as the end as well.
+ * Fields added by later versions are appended to the payload, and are read only if the payload has them.
+ */
+final class JournalCodec {
+
+	static final byte TYPE_UPSERT = 1;
+	static final byte TYPE_DELETE = 2;
+	static final int FRAME_HEADER_SIZE = 8;
+	static final int MAX_TEXT_LENGTH = 4096;
+
+	/**
+	 * Fits a record with all texts at their max length, as a character is at most 3 bytes in UTF-8.
+	 */
+	static final int MAX_FRAME_SIZE = 64 * 1024;
+
+	private JournalCodec() { }
+
+	interface RecordVisitor {
+		void onUpsert(JobRecord record);
+
+		void onDelete(long jobId);
+	}
+
+	static void putUpsert(ByteBuffer payload, JobRecord record) {
+		payload.put(TYPE_UPSERT);
+		payload.putLong(record.getJobId());
+		putString(payload, record.getStatus().name());
+		putString(payload, record.getResourceKey());
+		putString(payload, record.getDescription());
+		payload.putLong(record.getTimeout());
+		payload.putInt(record.getPriority());
+		payload.putLong(record.getAddedTimestamp());
+		payload.putLong(record.getStartTimestamp());
+		payload.putLong(record.getStopTimestamp());
+		putString(payload, record.getError());
+		putString(payload, record.getJoinedResourceKeys());
+	}
+
+	static void putDelete(ByteBuffer payload, long jobId) {
+		payload.put(TYPE_DELETE);
+		payload.putLong(jobId);
+	}
+
+	/**
+	 * Frames the payload (from its position to its limit) at the position of the target.
+	 * The target must have room for {@link #FRAME_HEADER_SIZE} plus the payload.
+	 */
+	static void putFrame(ByteBuffer target, ByteBuffer payload) {
+		int start = target.position();
+		int length = payload.remaining();
+		CRC32 crc = new CRC32();
+		crc.update(payload.duplicate());
+
+		target.position(start + FRAME_HEADER_SIZE);
+		target.put(payload);
+		target.putInt(start + 4, (int) crc.getValue());
+		target.putInt(start, length);
+	}
+
+	/**
+	 * Reads the records from the position of the buffer until the end of the written records.
+	 * @return The position after the last valid record.
+	 */
+	static int readFrames(ByteBuffer buffer, RecordVisitor visitor) {
+		int position = buffer.position();
+		CRC32 crc = new CRC32();
+		while (buffer.limit() - position >= FRAME_HEADER_SIZE) {
+			int length = buffer.getInt(position);
+			if (length <= 0 || length > MAX_FRAME_SIZE || length > buffer.limit() - position - FRAME_HEADER_SIZE) {
+				break;
+			}
+
+			ByteBuffer payload = buffer.duplicate();
+			payload.position(position + FRAME_HEADER_SIZE).limit(position + FRAME_HEADER_SIZE + length);
+			crc.reset();
+			crc.update(payload.duplicate());
+			if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+				break;
+			}
+
+			readRecord(payload, visitor);
+			position += FRAME_HEADER_SIZE + length;
+		}
+		return position;
+	}
+
+	private static void readRecord(ByteBuffer payload, RecordVisitor visitor) {
+		byte type = payload.get();
+		long jobId = payload.getLong();
+		if (type == TYPE_DELETE) {
+			visitor.onDelete(jobId);
+			return;
+		}
+
+		JobRecord.JobRecordBuilder record = JobRecord.builder()
+				.withJobId(jobId)
+				.withStatus(toStatus(getString(payload)))
+				.withResourceKey(getString(payload))
+				.withDescription(getString(payload))
+				.withTimeout(payload.getLong())
+				.withPriority(payload.getInt())
+				.withAddedTimestamp(payload.getLong())
+				.withStartTimestamp(payload.getLong())
+				.withStopTimestamp(payload.getLong())
+				.withError(getString(payload));
+		if (payload.hasRemaining()) {
+			record.withJoinedResourceKeys(getString(payload));
+		}
+		visitor.onUpsert(record.build());
+	}
+
+	/**
+	 * Statuses are stored by name, so the journal survives reordering of the enum. Unknown statuses (e.g. written by
+	 * a later version) are read as {@link JobStatus#FAILED}.
+	 */
+	private static JobStatus toStatus(String status) {
+		try {
+			return JobStatus.valueOf(status);
+		} catch (IllegalArgumentException | NullPointerException e) {
+			return JobStatus.FAILED;
+		}
+	}
+
+	private static void putString(ByteBuffer payload, String text) {
+		if (text == null) {
+			payload.putInt(-1);
+			return;
+		}
+		byte[] bytes = (text.length() > MAX_TEXT_LENGTH ? text.substring(0, MAX_TEXT_LENGTH) : text)
+				.getBytes(StandardCharsets.UTF_8);
+		payload.putInt(bytes.length);
+		payload.put(bytes);
+	}
+
+	private static String getString(ByteBuffer payload) {
+		int length = payload.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		payload.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,586 @@
+package com.frejdh.util.job.persistence.impl.journal;
+
+import com.frejdh.util.environment.Config;
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.environment.JobQueueConfigParameters;
+import com.frejdh.util.job.exceptions.JobPersistenceException;
+import com.frejdh.util.job.model.QueueOptions;
+import com.frejdh.util.job.persistence.JobRecord;
+import com.frejdh.util.job.persistence.config.RetentionPolicy;
+import com.frejdh.util.job.persistence.impl.memory.RuntimeJobQueueDao;
+import com.frejdh.util.job.util.JobQueueLogger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Journal DAO. The live jobs are kept in memory (see {@link RuntimeJobQueueDao}) and every change is appended to a
+ * journal file through a memory-mapped region, i.e. a write is a copy into the page cache and survives a crash of
+ * the JVM. The journal is forced to the disk by a background thread once per sync interval (batching the fsyncs),
+ * after every write if the interval is zero, or never if it's negative.
+ * <p>
+ * When the journal exceeds the compaction threshold, the background thread rolls over to a new journal and writes
+ * a snapshot of all jobs, after which the older journals are deleted. The files are named after
+ * the persistence file: {@code <file>.<generation>.journal} and {@code <file>.snapshot}.
+ * <p>
+ * The jobs of a previous run are replayed from the snapshot and the journals when the DAO is opened, and are
+ * available through {@link #getRecoveredJobs()}. New job IDs continue after the recovered ones.
+ * <p>
+ * The persistence file is resolved in this order: the file given to the constructor,
+ * {@link QueueOptions#getPersistenceFile()}, the property {@link JobQueueConfigParameters#ARG_PERSISTENCE_FILE},
+ * and lastly {@link #DEFAULT_FILE}.
+ * <p>
+ * Jobs evicted by the {@link RetentionPolicy} are only removed from memory, and are kept in the journal until the
+ * next compaction. The compaction evicts the finished jobs of previous runs by the same policy, so that the
+ * snapshot doesn't grow with every run.
+ */
+public class JournalJobQueueDao extends RuntimeJobQueueDao implements AutoCloseable {
+
+	private static final Logger LOGGER = JobQueueLogger.getLogger();
+	public static final String DEFAULT_FILE = "./job-queue";
+	public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+	public static final long DEFAULT_COMPACTION_THRESHOLD_BYTES = 64L * 1024 * 1024;
+	private static final int REGION_SIZE = 8 * 1024 * 1024;
+	private static final int SNAPSHOT_BUFFER_SIZE = 256 * 1024;
+	private static final int SNAPSHOT_MAGIC = 0x4A514A53; // "JQJS"
+	private static final int SNAPSHOT_HEADER_SIZE = 12;
+	private static final String JOURNAL_SUFFIX = ".journal";
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+	private volatile String file;
+	private final long syncIntervalNanos;
+	private final long compactionThresholdBytes;
+	private final Map<Long, JobRecord> recoveredJobs = new ConcurrentHashMap<>();
+	private final Object writeLock = new Object();
+	private final Object compactionLock = new Object();
+	private final ByteBuffer payloadBuffer = ByteBuffer.allocate(JournalCodec.MAX_FRAME_SIZE);
+	private volatile JournalWriter writer;
+	private long generation;
+	private boolean dirty;
+	private volatile boolean compactionRequested;
+	private volatile Thread backgroundThread;
+	private volatile boolean closed;
+
+	public JournalJobQueueDao() {
+		this(null);
+	}
+
+	/**
+	 * @param file Persistence file, which the journal and snapshot files are named after.
+	 *             Null to resolve it from the configuration.
+	 */
+	public JournalJobQueueDao(String file) {
+		this(file, getSyncIntervalFromProperties(), TimeUnit.MILLISECONDS, getCompactionThresholdFromProperties());
+	}
+
+	/**
+	 * @param file Persistence file, which the journal and snapshot files are named after.
+	 *             Null to resolve it from the configuration.
+	 * @param syncInterval How often the journal is forced to the disk. Zero to force after every write,
+	 *                     negative to leave it to the OS.
+	 * @param unit Unit of the sync interval.
+	 * @param compactionThresholdBytes Size of the journal that triggers a compaction.
+	 */
+	public JournalJobQueueDao(String file, long syncInterval, @NotNull TimeUnit unit, long compactionThresholdBytes) {
+		this.file = file;
+		this.syncIntervalNanos = syncInterval >= 0 ? unit.toNanos(syncInterval) : -1;
+		this.compactionThresholdBytes = compactionThresholdBytes > 0 ? compactionThresholdBytes : DEFAULT_COMPACTION_THRESHOLD_BYTES;
+	}
+
+	private static long getSyncIntervalFromProperties() {
+		String syncInterval = Config.getString(JobQueueConfigParameters.ARG_JOURNAL_SYNC_INTERVAL);
+		return syncInterval != null ? Long.parseLong(syncInterval.trim()) : DEFAULT_SYNC_INTERVAL_MILLIS;
+	}
+
+	private static long getCompactionThresholdFromProperties() {
+		String threshold = Config.getString(JobQueueConfigParameters.ARG_JOURNAL_COMPACTION_THRESHOLD);
+		return threshold != null ? Long.parseLong(threshold.trim()) : DEFAULT_COMPACTION_THRESHOLD_BYTES;
+	}
+
+	@Override
+	public void initialize(@NotNull QueueOptions options) {
+		super.initialize(options);
+		if (file == null && options.getPersistenceFile() != null) {
+			file = options.getPersistenceFile();
+		}
+		ensureOpen();
+	}
+
+	/**
+	 * @return The persistence file, which the journal and snapshot files are named after. Null until resolved.
+	 */
+	public String getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The jobs of previous runs, by ID. A job is no longer included once a job with the same ID is upserted.
+	 */
+	public Map<Long, JobRecord> getRecoveredJobs() {
+		ensureOpen();
+		return Collections.unmodifiableMap(recoveredJobs);
+	}
+
+	@Override
+	public Stream<JobRecord> streamUnfinishedJobs() {
+		return getRecoveredJobs().values().stream()
+				.filter(record -> !record.getStatus().isFinished());
+	}
+
+	@Override
+	public Job upsertJob(@NotNull Job job) {
+		ensureOpen();
+		Job upsertedJob = super.upsertJob(job);
+		if (upsertedJob != null) {
+			append(JobRecord.of(upsertedJob), upsertedJob.getJobId());
+		}
+		return upsertedJob;
+	}
+
+	@Override
+	public List<Job> upsertJobs(@NotNull Collection<Job> jobs) {
+		ensureOpen(); // Before the IDs are allocated, as the recovery sets the last job ID
+		return super.upsertJobs(jobs);
+	}
+
+	@Override
+	protected Job removeJob(@NotNull Job job) {
+		Job removedJob = super.removeJob(job);
+		if (removedJob != null) {
+			append(null, removedJob.getJobId());
+		}
+		return removedJob;
+	}
+
+	/**
+	 * @param record Record to append, or null to append a delete.
+	 */
+	private void append(JobRecord record, long jobId) {
+		boolean wakeUp;
+		synchronized (writeLock) {
+			if (closed) {
+				throw new JobPersistenceException("The journal DAO is closed");
+			}
+
+			payloadBuffer.clear();
+			if (record != null) {
+				JournalCodec.putUpsert(payloadBuffer, record);
+			}
+			else {
+				JournalCodec.putDelete(payloadBuffer, jobId);
+			}
+			payloadBuffer.flip();
+
+			try {
+				writer.append(payloadBuffer);
+			} catch (IOException e) {
+				throw new JobPersistenceException("Failed to append job " + jobId + " to " + writer.getPath(), e);
+			}
+			recoveredJobs.remove(jobId);
+
+			if (syncIntervalNanos == 0) {
+				writer.force();
+			}
+			else {
+				dirty = true;
+			}
+
+			wakeUp = !compactionRequested && writer.size() > compactionThresholdBytes;
+			if (wakeUp) {
+				compactionRequested = true;
+			}
+		}
+
+		Thread thread = backgroundThread;
+		if (thread == null && (wakeUp || syncIntervalNanos > 0)) {
+			thread = startBackgroundThread();
+		}
+		if (wakeUp) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private synchronized Thread startBackgroundThread() {
+		if (backgroundThread == null) {
+			Thread thread = new Thread(this::runBackgroundThread, "job-queue-journal-writer");
+			thread.setDaemon(true);
+			thread.start();
+			backgroundThread = thread;
+		}
+		return backgroundThread;
+	}
+
+	private void runBackgroundThread() {
+		while (!closed) {
+			if (compactionRequested) {
+				try {
+					compact();
+				} catch (JobPersistenceException e) {
+					LOGGER.log(Level.SEVERE, "Failed to compact the job journal", e);
+				} finally {
+					compactionRequested = false;
+				}
+			}
+
+			if (syncIntervalNanos > 0) {
+				try {
+					sync();
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.SEVERE, "Failed to sync the job journal", e);
+				}
+				LockSupport.parkNanos(this, syncIntervalNanos);
+			}
+			else {
+				LockSupport.park(this);
+			}
+		}
+	}
+
+	/**
+	 * Forces the appended records to the disk, outside the write lock.
+	 */
+	private void sync() {
+		MappedByteBuffer region;
+		synchronized (writeLock) {
+			if (!dirty || closed) {
+				return;
+			}
+			dirty = false;
+			region = writer.getRegion();
+		}
+		region.force();
+	}
+
+	/**
+	 * Forces the appended records to the disk. Blocks until written.
+	 */
+	@Override
+	public void flush() {
+		sync();
+	}
+
+	/**
+	 * Rolls over to a new journal, writes a snapshot of all jobs and deletes the older journals.
+	 * The appends are only blocked during the rollover. Normally executed by the background thread.
+	 */
+	public void compact() {
+		ensureOpen();
+		synchronized (compactionLock) {
+			long snapshotGeneration;
+			synchronized (writeLock) {
+				if (closed) {
+					return;
+				}
+				snapshotGeneration = generation + 1;
+				try {
+					JournalWriter newWriter = new JournalWriter(getJournalPath(snapshotGeneration), 0, REGION_SIZE);
+					writer.close(); // Forces the records of the old journal
+					writer = newWriter;
+					generation = snapshotGeneration;
+					dirty = false;
+				} catch (IOException e) {
+					throw new JobPersistenceException("Failed to roll over the journal " + writer.getPath(), e);
+				}
+			}
+
+			// Changes made meanwhile are both in the snapshot and the new journal, which is fine as the replay is idempotent
+			List<JobRecord> records = new ArrayList<>(evictRecoveredJobs());
+			for (Job job : getAllJobs()) {
+				records.add(JobRecord.of(job));
+			}
+			writeSnapshot(snapshotGeneration, records);
+			deleteJournalsBefore(snapshotGeneration);
+		}
+	}
+
+	/**
+	 * Evicts the finished jobs of previous runs that exceed the retention policy. They count as older than the jobs
+	 * of this run, and are ordered by ID among themselves. The eviction listener isn't notified, as they're records.
+	 * @return The recovered jobs that are kept.
+	 */
+	private Collection<JobRecord> evictRecoveredJobs() {
+		RetentionPolicy policy = getRetentionPolicy();
+		if (!policy.isEnabled()) {
+			return recoveredJobs.values();
+		}
+
+		long minTimestamp = policy.getMaxAge() > 0 ? System.currentTimeMillis() - policy.getMaxAge() : Long.MIN_VALUE;
+		int maxFinishedJobs = policy.getMaxFinishedJobs() > 0 ? policy.getMaxFinishedJobs() : Integer.MAX_VALUE;
+		int maxFinishedJobsPerResourceKey = policy.getMaxFinishedJobsPerResourceKey() > 0
+				? policy.getMaxFinishedJobsPerResourceKey() : Integer.MAX_VALUE;
+		int finishedJobs = 0;
+		Map<String, Integer> finishedJobsByResourceKey = new HashMap<>();
+		for (Job job : getFinishedJobs().values()) {
+			finishedJobs++;
+			if (job.getResourceKey() != null) {
+				finishedJobsByResourceKey.merge(job.getResourceKey(), 1, Integer::sum);
+			}
+		}
+
+		List<JobRecord> finishedRecords = new ArrayList<>();
+		for (JobRecord record : recoveredJobs.values()) {
+			if (record.getStatus().isFinished()) {
+				finishedRecords.add(record);
+			}
+		}
+		finishedRecords.sort(Comparator.comparingLong(JobRecord::getJobId).reversed()); // Newest first
+
+		for (JobRecord record : finishedRecords) {
+			String resourceKey = record.getResourceKey();
+			long finishedTimestamp = record.getStopTimestamp() != 0 ? record.getStopTimestamp() : record.getAddedTimestamp();
+			boolean isRetained = finishedTimestamp >= minTimestamp && finishedJobs < maxFinishedJobs
+					&& (resourceKey == null || finishedJobsByResourceKey.getOrDefault(resourceKey, 0) < maxFinishedJobsPerResourceKey);
+			if (!isRetained) {
+				recoveredJobs.remove(record.getJobId(), record);
+				continue;
+			}
+
+			finishedJobs++;
+			if (resourceKey != null) {
+				finishedJobsByResourceKey.merge(resourceKey, 1, Integer::sum);
+			}
+		}
+		return recoveredJobs.values();
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file which then replaces the old snapshot, so that a crash leaves either.
+	 */
+	private void writeSnapshot(long snapshotGeneration, List<JobRecord> records) {
+		Path snapshotPath = getSnapshotPath();
+		Path temporaryPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporaryPath,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_BUFFER_SIZE);
+			ByteBuffer payload = ByteBuffer.allocate(JournalCodec.MAX_FRAME_SIZE);
+			buffer.putInt(SNAPSHOT_MAGIC).putLong(snapshotGeneration);
+			for (JobRecord record : records) {
+				payload.clear();
+				JournalCodec.putUpsert(payload, record);
+				payload.flip();
+				if (buffer.remaining() < JournalCodec.FRAME_HEADER_SIZE + payload.remaining()) {
+					writeFully(channel, buffer);
+				}
+				JournalCodec.putFrame(buffer, payload);
+			}
+			writeFully(channel, buffer);
+			channel.force(true);
+		} catch (IOException e) {
+			throw new JobPersistenceException("Failed to write the snapshot " + temporaryPath, e);
+		}
+
+		try {
+			Files.move(temporaryPath, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new JobPersistenceException("Failed to replace the snapshot " + snapshotPath, e);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void deleteJournalsBefore(long snapshotGeneration) {
+		for (long journalGeneration : listJournalGenerations()) {
+			if (journalGeneration < snapshotGeneration) {
+				try {
+					Files.deleteIfExists(getJournalPath(journalGeneration));
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Failed to delete the compacted journal " + getJournalPath(journalGeneration), e);
+				}
+			}
+		}
+	}
+
+	private void ensureOpen() {
+		if (writer == null) {
+			synchronized (writeLock) {
+				if (writer == null && !closed) {
+					open();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replays the snapshot and the journals, and continues appending to the last journal.
+	 * Must be called while holding the write lock.
+	 */
+	private void open() {
+		if (file == null) {
+			String fileFromProperties = Config.getString(JobQueueConfigParameters.ARG_PERSISTENCE_FILE);
+			file = fileFromProperties != null ? fileFromProperties : DEFAULT_FILE;
+		}
+
+		try {
+			Path directory = getBasePath().toAbsolutePath().getParent();
+			if (directory != null) {
+				Files.createDirectories(directory);
+			}
+
+			long[] maxJobId = {-1};
+			JournalCodec.RecordVisitor visitor = new JournalCodec.RecordVisitor() {
+				@Override
+				public void onUpsert(JobRecord record) {
+					recoveredJobs.put(record.getJobId(), record);
+					maxJobId[0] = Math.max(maxJobId[0], record.getJobId());
+				}
+
+				@Override
+				public void onDelete(long jobId) {
+					recoveredJobs.remove(jobId);
+					maxJobId[0] = Math.max(maxJobId[0], jobId);
+				}
+			};
+
+			long snapshotGeneration = readSnapshot(visitor);
+			long activeGeneration = Math.max(snapshotGeneration, 1);
+			long position = 0;
+			for (long journalGeneration : listJournalGenerations()) {
+				if (journalGeneration < snapshotGeneration) {
+					Files.deleteIfExists(getJournalPath(journalGeneration)); // Left by a crash during compaction
+					continue;
+				}
+				activeGeneration = journalGeneration;
+				position = replayJournal(getJournalPath(journalGeneration), visitor);
+			}
+
+			if (maxJobId[0] >= 0) {
+				jobIdAllocator.reserveUpTo(maxJobId[0]);
+			}
+			generation = activeGeneration;
+			writer = new JournalWriter(getJournalPath(activeGeneration), position, REGION_SIZE);
+			if (!recoveredJobs.isEmpty()) {
+				LOGGER.info("Recovered " + recoveredJobs.size() + " job(s) from the journal " + writer.getPath());
+			}
+		} catch (IOException e) {
+			throw new JobPersistenceException("Failed to open the journal " + getJournalPath(generation), e);
+		}
+	}
+
+	/**
+	 * @return The generation of the snapshot, or zero if there's none.
+	 */
+	private long readSnapshot(JournalCodec.RecordVisitor visitor) throws IOException {
+		Path snapshotPath = getSnapshotPath();
+		if (!Files.exists(snapshotPath)) {
+			return 0;
+		}
+
+		try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.limit() < SNAPSHOT_HEADER_SIZE || buffer.getInt() != SNAPSHOT_MAGIC) {
+				throw new JobPersistenceException("The file " + snapshotPath + " isn't a job journal snapshot");
+			}
+			long snapshotGeneration = buffer.getLong();
+			JournalCodec.readFrames(buffer, visitor);
+			return snapshotGeneration;
+		}
+	}
+
+	/**
+	 * @return The position after the last valid record.
+	 */
+	private static long replayJournal(Path path, JournalCodec.RecordVisitor visitor) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long position = 0;
+			while (position < size) { // Mapped in regions, as a mapping is limited to 2 GB
+				long regionSize = Math.min(Integer.MAX_VALUE, size - position);
+				MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+				int end = JournalCodec.readFrames(region, visitor);
+				position += end;
+				if (end == 0 || regionSize - end >= JournalCodec.FRAME_HEADER_SIZE + JournalCodec.MAX_FRAME_SIZE) {
+					break;
+				}
+			}
+			return position;
+		}
+	}
+
+	private List<Long> listJournalGenerations() {
+		Path basePath = getBasePath().toAbsolutePath();
+		String prefix = basePath.getFileName() + ".";
+		List<Long> generations = new ArrayList<>();
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(basePath.getParent(), prefix + "*" + JOURNAL_SUFFIX)) {
+			for (Path path : paths) {
+				String name = path.getFileName().toString();
+				try {
+					generations.add(Long.parseLong(name.substring(prefix.length(), name.length() - JOURNAL_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					LOGGER.fine("Ignoring the file " + path + ", as it's not a job journal");
+				}
+			}
+		} catch (IOException e) {
+			throw new JobPersistenceException("Failed to list the journals of " + basePath, e);
+		}
+		Collections.sort(generations);
+		return generations;
+	}
+
+	private Path getBasePath() {
+		return Paths.get(file);
+	}
+
+	private Path getJournalPath(long journalGeneration) {
+		return Paths.get(file + "." + journalGeneration + JOURNAL_SUFFIX);
+	}
+
+	private Path getSnapshotPath() {
+		return Paths.get(file + SNAPSHOT_SUFFIX);
+	}
+
+	/**
+	 * Forces the appended records to the disk and releases the journal.
+	 */
+	@Override
+	public void close() {
+		synchronized (compactionLock) {
+			synchronized (writeLock) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				try {
+					if (writer != null) {
+						writer.close();
+					}
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Failed to close the journal " + writer.getPath(), e);
+				}
+			}
+		}
+
+		Thread thread = backgroundThread;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+}
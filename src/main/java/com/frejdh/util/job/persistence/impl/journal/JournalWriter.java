@@ -0,0 +1,126 @@
+package com.frejdh.util.job.persistence.impl.journal;
+
+import com.frejdh.util.job.exceptions.JobPersistenceException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends records to one journal file through a memory-mapped region, which is remapped further into the file
+ * when full. An appended record is in the page cache as soon as it's written, so it survives a crash of the JVM,
+ * and {@link #force()} writes it to the disk. Not thread-safe, the calls are serialized by the DAO.
+ */
+class JournalWriter implements Closeable {
+
+	private final Path path;
+	private final int regionSize;
+	private final FileChannel channel;
+	private final FileLock lock;
+	private MappedByteBuffer region;
+	private long regionStart;
+
+	/**
+	 * @param path Journal file. Created if missing.
+	 * @param position Position to append from, i.e. the end of the valid records.
+	 * @param regionSize Amount of bytes mapped at a time.
+	 */
+	JournalWriter(Path path, long position, int regionSize) throws IOException {
+		this.path = path;
+		this.regionSize = regionSize;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			this.lock = channel.tryLock();
+			if (lock == null) {
+				throw new JobPersistenceException("The journal " + path + " is used by another process");
+			}
+		} catch (OverlappingFileLockException e) {
+			channel.close();
+			throw new JobPersistenceException("The journal " + path + " is already used by another DAO", e);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		map(position, regionSize);
+		clearTornRecord();
+	}
+
+	/**
+	 * Zeroes what a torn write may have left after the valid records, as it would otherwise be read as part of the
+	 * records appended from now on.
+	 */
+	private void clearTornRecord() {
+		int end = Math.min(region.capacity(), JournalCodec.FRAME_HEADER_SIZE + JournalCodec.MAX_FRAME_SIZE);
+		for (int i = 0; i < end; i++) {
+			if (region.get(i) != 0) {
+				region.put(i, (byte) 0);
+			}
+		}
+	}
+
+	/**
+	 * @param payload Record to append, from its position to its limit.
+	 */
+	void append(ByteBuffer payload) throws IOException {
+		int frameSize = JournalCodec.FRAME_HEADER_SIZE + payload.remaining();
+		if (region.remaining() < frameSize) {
+			region.force();
+			map(regionStart + region.position(), Math.max(regionSize, frameSize));
+		}
+		JournalCodec.putFrame(region, payload);
+	}
+
+	private void map(long position, int size) throws IOException {
+		region = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+		regionStart = position;
+	}
+
+	/**
+	 * @return Amount of bytes appended to the file, including the records of previous runs.
+	 */
+	long size() {
+		return regionStart + region.position();
+	}
+
+	/**
+	 * Write the appended records to the disk. May be called outside the lock of the DAO, also after the writer
+	 * has been closed.
+	 */
+	void force() {
+		region.force();
+	}
+
+	/**
+	 * @return A writer of the current region, for forcing it outside the lock of the DAO.
+	 */
+	MappedByteBuffer getRegion() {
+		return region;
+	}
+
+	Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Forces the appended records and releases the file. The mapping itself is released by the garbage collector.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			region.force();
+		} finally {
+			try {
+				lock.release();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+}
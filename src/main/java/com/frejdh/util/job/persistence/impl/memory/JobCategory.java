@@ -1,7 +1,22 @@
 package com.frejdh.util.job.persistence.impl.memory;
 
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.model.JobStatus;
+import org.jetbrains.annotations.NotNull;
+
 public enum JobCategory {
 	PENDING,
 	RUNNING,
-	FINISHED
+	FINISHED;
+
+	public static JobCategory of(@NotNull Job job) {
+		JobStatus status = job.getStatus();
+		if (status.isPending()) {
+			return PENDING;
+		}
+		else if (status.isRunning()) {
+			return RUNNING;
+		}
+		return FINISHED;
+	}
 }
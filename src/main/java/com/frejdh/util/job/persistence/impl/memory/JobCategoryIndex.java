@@ -0,0 +1,142 @@
+package com.frejdh.util.job.persistence.impl.memory;
+
+import com.frejdh.util.job.Job;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live view of the jobs in one {@link JobCategory}, ordered by their insertion sequence, i.e. the order they were
+ * added to the DAO in. The sequence is assigned once per stored job, unlike e.g. the added timestamp which may change
+ * while the job is indexed. Lookups by job ID are delegated to the DAO's ID map.
+ * Iteration is weakly consistent, i.e. it never throws {@link java.util.ConcurrentModificationException}.
+ */
+class JobCategoryIndex extends AbstractMap<Long, Job> {
+
+	private final JobCategory category;
+	private final Map<Long, Job> jobsById;
+	private final Map<Job, Long> insertionSequences;
+	private final ConcurrentSkipListMap<Long, Job> orderedJobs = new ConcurrentSkipListMap<>();
+	private final AtomicInteger size = new AtomicInteger(0);
+	private final Set<Entry<Long, Job>> entrySet = new EntrySet();
+
+	/**
+	 * @param jobsById The stored jobs.
+	 * @param insertionSequences The insertion sequence of each stored job. Jobs without one are never indexed.
+	 */
+	JobCategoryIndex(@NotNull JobCategory category, @NotNull Map<Long, Job> jobsById, @NotNull Map<Job, Long> insertionSequences) {
+		this.category = category;
+		this.jobsById = jobsById;
+		this.insertionSequences = insertionSequences;
+	}
+
+	JobCategory getCategory() {
+		return category;
+	}
+
+	/**
+	 * Must be called while holding the lock of the given job.
+	 * @return True if added, false if already present.
+	 */
+	boolean add(@NotNull Job job) {
+		Long insertionSequence = insertionSequences.get(job);
+		if (insertionSequence != null && orderedJobs.putIfAbsent(insertionSequence, job) == null) {
+			size.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Must be called while holding the lock of the given job.
+	 * @return True if removed, false if not present.
+	 */
+	boolean remove(@NotNull Job job) {
+		Long insertionSequence = insertionSequences.get(job);
+		if (insertionSequence != null && orderedJobs.remove(insertionSequence, job)) {
+			size.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	boolean contains(@NotNull Job job) {
+		Long insertionSequence = insertionSequences.get(job);
+		return insertionSequence != null && orderedJobs.get(insertionSequence) == job;
+	}
+
+	/**
+	 * @return The oldest added jobs of this category first. Weakly consistent.
+	 */
+	Iterator<Job> jobIterator() {
+		return orderedJobs.values().iterator();
+	}
+
+	/**
+	 * @return The most recently added job of this category, or null if empty.
+	 */
+	Job getLastJob() {
+		Map.Entry<Long, Job> lastEntry = orderedJobs.lastEntry();
+		return lastEntry != null ? lastEntry.getValue() : null;
+	}
+
+	@Override
+	public Job get(Object jobId) {
+		Job job = jobsById.get(jobId);
+		return job != null && contains(job) ? job : null;
+	}
+
+	@Override
+	public boolean containsKey(Object jobId) {
+		return get(jobId) != null;
+	}
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return orderedJobs.isEmpty();
+	}
+
+	@NotNull
+	@Override
+	public Set<Entry<Long, Job>> entrySet() {
+		return entrySet;
+	}
+
+	private class EntrySet extends AbstractSet<Entry<Long, Job>> {
+
+		@NotNull
+		@Override
+		public Iterator<Entry<Long, Job>> iterator() {
+			Iterator<Job> iterator = orderedJobs.values().iterator();
+			return new Iterator<Entry<Long, Job>>() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public Entry<Long, Job> next() {
+					Job job = iterator.next();
+					return new SimpleImmutableEntry<>(job.getJobId(), job);
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return JobCategoryIndex.this.size();
+		}
+	}
+
+}
@@ -1,23 +1,87 @@
 package com.frejdh.util.job.persistence.impl.memory;
 
 import com.frejdh.util.job.Job;
+import com.frejdh.util.job.model.QueueOptions;
+import com.frejdh.util.job.model.callables.JobOnEviction;
 import com.frejdh.util.job.persistence.AbstractJobQueueDao;
+import com.frejdh.util.job.persistence.config.RetentionPolicy;
+import com.frejdh.util.job.util.JobQueueLogger;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import static com.frejdh.util.job.persistence.impl.memory.JobWithCategory.toJobCategory;
+/**
+ * In-memory DAO. Keeps one insertion ordered index per {@link JobCategory}, and moves the jobs between these
+ * when they're updated. The maps returned by the getters are live (unmodifiable) views of these indexes.
+ * The jobs are stored as is, i.e. the category of a job is given by the index that holds it. The indexes are ordered
+ * by an insertion sequence, assigned when the job is stored, as the added timestamp of a stored job may change.
+ * <p>
+ * Finished jobs are evicted according to the {@link RetentionPolicy}. The eviction is amortized over the
+ * jobs that finish, i.e. there's no background thread, and the max age is only evaluated when a job finishes.
+ */
+public class RuntimeJobQueueDao extends AbstractJobQueueDao {
 
+	private static final Logger LOGGER = JobQueueLogger.getLogger();
 
-public class RuntimeJobQueueDao extends AbstractJobQueueDao {
+	/**
+	 * Max amount of finished jobs, not old enough to be evicted, that are passed when looking for jobs exceeding
+	 * the max age. Bounds the eviction cost, as the jobs are ordered by when they were added rather than finished.
+	 */
+	private static final int MAX_AGE_EVICTION_SCAN = 32;
+
+	protected final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+	private final Map<Job, Long> insertionSequences = new ConcurrentHashMap<>();
+	private final AtomicLong nextInsertionSequence = new AtomicLong(0);
+	private final ConcurrentSkipListMap<Long, Job> jobsByInsertionOrder = new ConcurrentSkipListMap<>();
+	private final Map<JobCategory, JobCategoryIndex> jobsByCategory = new EnumMap<>(JobCategory.class);
+	private final AtomicReference<Job> lastAddedJob = new AtomicReference<>();
+	private final AtomicReference<Job> lastFinishedJob = new AtomicReference<>();
+	private final Map<String, Deque<Job>> finishedJobsByResourceKey = new ConcurrentHashMap<>();
+	private final AtomicBoolean isEvicting = new AtomicBoolean(false);
+	private volatile RetentionPolicy retentionPolicy = RetentionPolicy.UNLIMITED;
+
+	public RuntimeJobQueueDao() {
+		for (JobCategory category : JobCategory.values()) {
+			jobsByCategory.put(category, new JobCategoryIndex(category, jobs, insertionSequences));
+		}
+	}
+
+	public RuntimeJobQueueDao(RetentionPolicy retentionPolicy) {
+		this();
+		setRetentionPolicy(retentionPolicy);
+	}
 
-	protected final Map<Long, JobWithCategory> jobs = new LinkedHashMap<>();
+	@Override
+	public void initialize(@NotNull QueueOptions options) {
+		if (options.getRetentionPolicy() != null) {
+			setRetentionPolicy(options.getRetentionPolicy());
+		}
+	}
+
+	public RetentionPolicy getRetentionPolicy() {
+		return retentionPolicy;
+	}
+
+	/**
+	 * @param retentionPolicy Policy for evicting finished jobs. Null to keep them forever.
+	 */
+	public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+		this.retentionPolicy = retentionPolicy != null ? retentionPolicy : RetentionPolicy.UNLIMITED;
+	}
 
 	@Override
 	public Job upsertJob(@NotNull Job job) {
@@ -25,81 +89,262 @@ public class RuntimeJobQueueDao extends AbstractJobQueueDao {
 			return null;
 		}
 		else if (!job.hasJobId()) {
-			job.setJobId(lastJobId.getAndIncrement());
+			job.setJobId(jobIdAllocator.nextJobId());
 		}
 
-		if (!jobs.containsKey(job.getJobId())) {
-			jobs.put(job.getJobId(), new JobWithCategory(job));
+		Job storedJob = jobs.get(job.getJobId());
+		if (storedJob == null) {
+			boolean isAdded = false;
+			synchronized (job) {
+				storedJob = jobs.putIfAbsent(job.getJobId(), job);
+				if (storedJob == null) {
+					long insertionSequence = nextInsertionSequence.getAndIncrement();
+					insertionSequences.put(job, insertionSequence);
+					jobsByInsertionOrder.put(insertionSequence, job);
+					jobsByCategory.get(JobCategory.of(job)).add(job);
+					lastAddedJob.accumulateAndGet(job, this::getLastAdded);
+					isAdded = true;
+				}
+			}
+
+			if (isAdded) {
+				updateLastFinishedJob(job);
+				return job;
+			}
+		}
+
+		boolean isMoved = false;
+		synchronized (storedJob) {
+			JobCategoryIndex newIndex = jobsByCategory.get(JobCategory.of(storedJob));
+			boolean isRemoved = jobs.get(job.getJobId()) != storedJob;
+			if (!isRemoved && !newIndex.contains(storedJob)) {
+				for (JobCategoryIndex index : jobsByCategory.values()) {
+					if (index != newIndex) {
+						index.remove(storedJob);
+					}
+				}
+				newIndex.add(storedJob);
+				isMoved = true;
+			}
 		}
-		else {
-			jobs.get(job.getJobId()).setCategory(toJobCategory(job));
+
+		if (isMoved) {
+			updateLastFinishedJob(storedJob);
 		}
 		return job;
 	}
 
-	@Override
-	public Job getJobById(Long id) {
-		return Optional.ofNullable(jobs.get(id)).map(JobWithCategory::getJob).orElse(null);
+	/**
+	 * Must not be called while holding the lock of a job, as the eviction locks other jobs.
+	 */
+	private void updateLastFinishedJob(Job job) {
+		if (jobsByCategory.get(JobCategory.FINISHED).contains(job)) {
+			lastFinishedJob.set(job);
+			evictFinishedJobs(job);
+		}
 	}
 
-	@SafeVarargs
-	private final Map<Long, Job> filterJobs(Predicate<Job>... filters) {
-		Predicate<Job> composedFilter = (job -> true);
-		for (Predicate<Job> filter : filters) {
-			composedFilter = composedFilter.and(filter);
+	/**
+	 * Evicts the finished jobs exceeding the retention policy.
+	 * @param finishedJob The job that just finished.
+	 */
+	private void evictFinishedJobs(Job finishedJob) {
+		RetentionPolicy policy = retentionPolicy;
+		if (!policy.isEnabled()) {
+			return;
 		}
 
-		Predicate<Job> finalComposedFilter = composedFilter;
-		return jobs.entrySet().stream()
-				.filter(entry -> finalComposedFilter.test(entry.getValue().getJob()))
-				.collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getJob()));
+		if (policy.getMaxFinishedJobsPerResourceKey() > 0 && finishedJob.getResourceKey() != null) {
+			evictFinishedJobsOfResourceKey(finishedJob, policy);
+		}
+		if (policy.getMaxFinishedJobs() > 0 || policy.getMaxAge() > 0) {
+			evictOldestFinishedJobs(policy);
+		}
+	}
+
+	private void evictFinishedJobsOfResourceKey(Job finishedJob, RetentionPolicy policy) {
+		String resourceKey = finishedJob.getResourceKey();
+		List<Job> jobsToEvict = null;
+		boolean isAdded = false;
+		while (!isAdded) {
+			Deque<Job> finishedJobs = finishedJobsByResourceKey.computeIfAbsent(resourceKey, key -> new ArrayDeque<>());
+			synchronized (finishedJobs) {
+				if (finishedJobsByResourceKey.get(resourceKey) != finishedJobs) {
+					continue; // Removed meanwhile, as it was empty
+				}
+
+				finishedJobs.addLast(finishedJob);
+				while (finishedJobs.size() > policy.getMaxFinishedJobsPerResourceKey()) {
+					if (jobsToEvict == null) {
+						jobsToEvict = new ArrayList<>(1);
+					}
+					jobsToEvict.add(finishedJobs.pollFirst());
+				}
+				isAdded = true;
+			}
+		}
+
+		if (jobsToEvict != null) {
+			jobsToEvict.forEach(jobToEvict -> evictJob(jobToEvict, policy));
+		}
+	}
+
+	/**
+	 * Only one thread evicts at a time, the others carry on. The jobs exceeding the max count are therefore
+	 * re-checked afterwards, in case another job finished meanwhile.
+	 */
+	private void evictOldestFinishedJobs(RetentionPolicy policy) {
+		JobCategoryIndex finishedJobs = jobsByCategory.get(JobCategory.FINISHED);
+		int maxFinishedJobs = policy.getMaxFinishedJobs();
+		do {
+			if (!isEvicting.compareAndSet(false, true)) {
+				return;
+			}
+
+			try {
+				long minTimestamp = policy.getMaxAge() > 0 ? System.currentTimeMillis() - policy.getMaxAge() : Long.MIN_VALUE;
+				int passedJobs = 0;
+				Iterator<Job> iterator = finishedJobs.jobIterator();
+				while (iterator.hasNext()) {
+					Job job = iterator.next();
+					boolean exceedsMaxCount = maxFinishedJobs > 0 && finishedJobs.size() > maxFinishedJobs;
+					if (exceedsMaxCount || getFinishedTimestamp(job) < minTimestamp) {
+						evictJob(job, policy);
+					}
+					else if (policy.getMaxAge() <= 0 || ++passedJobs > MAX_AGE_EVICTION_SCAN) {
+						break;
+					}
+				}
+			} finally {
+				isEvicting.set(false);
+			}
+		} while (maxFinishedJobs > 0 && finishedJobs.size() > maxFinishedJobs);
+	}
+
+	/**
+	 * @return The stop time of the job, or the time it was added if it never started (e.g. canceled).
+	 */
+	private static long getFinishedTimestamp(Job job) {
+		long stopTimestamp = job.getStopTimestamp();
+		return stopTimestamp != 0 ? stopTimestamp : job.getAddedTimestamp();
+	}
+
+	/**
+	 * Removes the finished job from memory, and notifies the eviction listener of the policy.
+	 * Unlike {@link #removeJob(Job)}, this isn't propagated to subclasses, i.e. persistent DAOs keep the job.
+	 */
+	private void evictJob(Job job, RetentionPolicy policy) {
+		synchronized (job) {
+			if (!jobsByCategory.get(JobCategory.FINISHED).contains(job) || !jobs.remove(job.getJobId(), job)) {
+				return;
+			}
+		}
+		removeFromIndexes(job);
+
+		JobOnEviction onEviction = policy.getOnEviction();
+		if (onEviction != null) {
+			try {
+				onEviction.onEviction(job);
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Job eviction listener threw an exception", e);
+			}
+		}
+	}
+
+	/**
+	 * @return The job with the highest insertion sequence. A removed job has none, and is never the last added.
+	 */
+	private Job getLastAdded(Job current, Job candidate) {
+		return current == null || insertionSequences.getOrDefault(candidate, -1L) > insertionSequences.getOrDefault(current, -1L)
+				? candidate : current;
+	}
+
+	@Override
+	public Job getJobById(Long id) {
+		return jobs.get(id);
 	}
 
 	@Override
 	public Map<Long, Job> getPendingJobs() {
-		return filterJobs(job -> job.getStatus().isPending());
+		return Collections.unmodifiableMap(jobsByCategory.get(JobCategory.PENDING));
 	}
 
 	@Override
 	public Map<Long, Job> getFinishedJobs() {
-		return filterJobs(job -> job.getStatus().isFinished());
+		return Collections.unmodifiableMap(jobsByCategory.get(JobCategory.FINISHED));
 	}
 
 	@Override
 	public List<Job> getAllJobs() {
-		return jobs.values().stream().map(JobWithCategory::getJob).collect(Collectors.toList());
+		return new ArrayList<>(jobsByInsertionOrder.values());
 	}
 
 	@Override
 	public Map<Long, Job> getRunningJobs() {
-		return filterJobs(job -> job.getStatus().isRunning());
+		return Collections.unmodifiableMap(jobsByCategory.get(JobCategory.RUNNING));
 	}
 
 	@Override
 	public Job getLastAddedJob() {
-		return getLastJobOfOrderedMap(filterJobs());
+		return lastAddedJob.get();
 	}
 
 	@Override
 	protected Job removeJob(@NotNull Job job) {
-		JobWithCategory jobWithCategory = jobs.remove(job.getJobId());
-		return jobWithCategory != null ? jobWithCategory.getJob() : null;
+		Job storedJob = jobs.remove(job.getJobId());
+		if (storedJob == null) {
+			return null;
+		}
+		removeFromIndexes(storedJob);
+		return storedJob;
 	}
 
-	@Override
-	public Job getLastFinishedJob() {
-		synchronized (this) {
-			return getLastJobOfOrderedMap(getFinishedJobs());
+	/**
+	 * Removes the job, already removed from the ID map, from the other indexes.
+	 */
+	private void removeFromIndexes(Job job) {
+		synchronized (job) {
+			Long insertionSequence = insertionSequences.get(job);
+			if (insertionSequence != null) {
+				jobsByInsertionOrder.remove(insertionSequence, job);
+				jobsByCategory.values().forEach(index -> index.remove(job));
+				insertionSequences.remove(job);
+			}
+		}
+
+		if (lastAddedJob.compareAndSet(job, null)) {
+			Map.Entry<Long, Job> lastEntry = jobsByInsertionOrder.lastEntry();
+			if (lastEntry != null) {
+				lastAddedJob.accumulateAndGet(lastEntry.getValue(), this::getLastAdded);
+			}
 		}
+		if (lastFinishedJob.compareAndSet(job, null)) {
+			Job lastJob = jobsByCategory.get(JobCategory.FINISHED).getLastJob();
+			if (lastJob != null) {
+				lastFinishedJob.compareAndSet(null, lastJob);
+			}
+		}
+		removeFromResourceKeyIndex(job);
 	}
 
-	private Job getLastJobOfOrderedMap(Map<Long, Job> jobMap) {
-		if (jobMap.isEmpty()) {
-			return null;
+	private void removeFromResourceKeyIndex(Job job) {
+		String resourceKey = job.getResourceKey();
+		Deque<Job> finishedJobs = resourceKey != null ? finishedJobsByResourceKey.get(resourceKey) : null;
+		if (finishedJobs == null) {
+			return;
 		}
 
-		List<Map.Entry<Long, Job>> entryList = new ArrayList<>(jobMap.entrySet());
-		return entryList.get(entryList.size() - 1).getValue();
+		synchronized (finishedJobs) {
+			finishedJobs.remove(job); // Bounded by the max amount of finished jobs per resource key
+			if (finishedJobs.isEmpty()) {
+				finishedJobsByResourceKey.remove(resourceKey, finishedJobs);
+			}
+		}
+	}
+
+	@Override
+	public Job getLastFinishedJob() {
+		return lastFinishedJob.get();
 	}
 
 }
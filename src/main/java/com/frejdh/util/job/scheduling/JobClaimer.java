@@ -0,0 +1,100 @@
+package com.frejdh.util.job.scheduling;
+
+import com.frejdh.util.job.persistence.JobRecord;
+import com.frejdh.util.job.persistence.cluster.JobLeaseStore;
+import com.frejdh.util.job.util.JobQueueLogger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Heartbeat of a clustered queue. Renews the leases of the jobs of this node, and claims jobs for the capacity
+ * left, in one batch per heartbeat. Runs on a separate thread, {@link #HEARTBEATS_PER_LEASE} times per lease duration.
+ */
+public class JobClaimer {
+
+	private static final Logger LOGGER = JobQueueLogger.getLogger();
+	public static final int HEARTBEATS_PER_LEASE = 3;
+
+	private final JobLeaseStore leaseStore;
+	private final IntSupplier capacity;
+	private final Consumer<List<JobRecord>> onClaimed;
+	private final BooleanSupplier isTerminated;
+	private final ScheduledExecutorService executor;
+	private volatile boolean isClaiming = true;
+
+	/**
+	 * @param leaseStore Store to claim the jobs from.
+	 * @param capacity Max amount of jobs to claim at the moment, e.g. the free room in the ready queue.
+	 * @param onClaimed Adds the claimed jobs to the queue.
+	 * @param isTerminated Whether the jobs of the queue have stopped executing, after which no lease is renewed.
+	 */
+	public JobClaimer(@NotNull JobLeaseStore leaseStore, @NotNull IntSupplier capacity,
+					  @NotNull Consumer<List<JobRecord>> onClaimed, @NotNull BooleanSupplier isTerminated) {
+		this.leaseStore = leaseStore;
+		this.capacity = capacity;
+		this.onClaimed = onClaimed;
+		this.isTerminated = isTerminated;
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "job-queue-claimer-" + leaseStore.getNodeId());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public void start() {
+		long interval = Math.max(1, leaseStore.getLeaseDuration() / HEARTBEATS_PER_LEASE);
+		executor.scheduleWithFixedDelay(this::heartbeat, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops claiming jobs. The leases are renewed until the queue has terminated, so that the running jobs aren't
+	 * claimed by other nodes meanwhile.
+	 */
+	public void stopClaiming() {
+		isClaiming = false;
+	}
+
+	/**
+	 * Stops the heartbeat. The leases of the unfinished jobs then expire, and the jobs are claimed by other nodes.
+	 */
+	public void stop() {
+		isClaiming = false;
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Renews the leases and claims jobs. Also executed by the heartbeat thread, but may be called to claim
+	 * jobs right away.
+	 */
+	public synchronized void heartbeat() {
+		try {
+			leaseStore.renewLeases();
+			if (!isClaiming) {
+				if (isTerminated.getAsBoolean()) {
+					executor.shutdown();
+				}
+				return;
+			}
+
+			int jobsToClaim = capacity.getAsInt();
+			if (jobsToClaim > 0) {
+				List<JobRecord> claimedJobs = leaseStore.claimJobs(jobsToClaim);
+				if (!claimedJobs.isEmpty()) {
+					onClaimed.accept(claimedJobs);
+				}
+			}
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Job claimer heartbeat of node [" + leaseStore.getNodeId() + "] failed", e);
+		}
+	}
+
+}
@@ -0,0 +1,322 @@
+package com.frejdh.util.job.scheduling;
+
+import com.frejdh.util.job.util.JobQueueLogger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timing wheel. Scheduling and canceling a timer are O(1), and a pending timer is a single small object,
+ * so holding hundreds of thousands of them is cheap. The price is precision: timers expire on the first tick
+ * after their deadline, see {@link #DEFAULT_TICK_DURATION_MILLIS}.
+ * <p>
+ * The tasks are executed by the single timer thread, so they must be short, e.g. hand the actual work over to
+ * another executor. The thread is started on demand, and exits once no timers are pending.
+ */
+public class JobTimer {
+
+	private static final Logger LOGGER = JobQueueLogger.getLogger();
+	public static final long DEFAULT_TICK_DURATION_MILLIS = 10;
+	public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+	/**
+	 * Max amount of new timers moved into the wheel per tick, so that the expiration of due timers isn't delayed.
+	 */
+	private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+	private final long tickDurationNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long startTime = System.nanoTime();
+	private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+	private final Queue<Timeout> canceledTimeouts = new ConcurrentLinkedQueue<>();
+	private final AtomicLong pendingTimeouts = new AtomicLong(0);
+	private volatile Thread timerThread;
+	private volatile boolean stopped;
+	private long tick;
+
+	public JobTimer() {
+		this(DEFAULT_TICK_DURATION_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * @param tickDuration Precision of the timer.
+	 * @param unit Unit of the tick duration.
+	 * @param ticksPerWheel Amount of buckets in the wheel. Rounded up to a power of two.
+	 */
+	public JobTimer(long tickDuration, @NotNull TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0 || ticksPerWheel <= 0) {
+			throw new IllegalArgumentException("The tick duration and ticks per wheel must be positive");
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.tickDurationNanos = unit.toNanos(tickDuration);
+	}
+
+	/**
+	 * Schedule a task.
+	 * @param task Task to execute on the timer thread.
+	 * @param delay Delay until the task should be executed. Zero or less means on the next tick.
+	 * @param unit Unit of the delay.
+	 * @return The timeout, which can be used to cancel the task.
+	 * @throws IllegalStateException If the timer has been stopped.
+	 */
+	public Timeout schedule(@NotNull Runnable task, long delay, @NotNull TimeUnit unit) {
+		if (stopped) {
+			throw new IllegalStateException("The job timer has been stopped");
+		}
+
+		long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+		if (deadline < 0) { // Overflow
+			deadline = Long.MAX_VALUE;
+		}
+		Timeout timeout = new Timeout(this, task, deadline);
+		pendingTimeouts.incrementAndGet();
+		newTimeouts.add(timeout);
+		if (timerThread == null) {
+			startTimerThread();
+		}
+		return timeout;
+	}
+
+	/**
+	 * @return Amount of scheduled timers that haven't expired or been canceled yet.
+	 */
+	public long getPendingTimeouts() {
+		return pendingTimeouts.get();
+	}
+
+	/**
+	 * Stop the timer. Pending timers are never executed.
+	 */
+	public void stop() {
+		stopped = true;
+		Thread thread = timerThread;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	private synchronized void startTimerThread() {
+		if (timerThread == null && !stopped) {
+			Thread thread = new Thread(this::runTimer, "job-queue-timer");
+			thread.setDaemon(true);
+			timerThread = thread;
+			thread.start();
+		}
+	}
+
+	private void runTimer() {
+		tick = (System.nanoTime() - startTime) / tickDurationNanos;
+		while (!stopped) {
+			long currentTime = waitForNextTick();
+			if (stopped) {
+				break;
+			}
+
+			removeCanceledTimeouts();
+			transferNewTimeouts();
+			wheel[(int) (tick & mask)].expireTimeouts(currentTime);
+			tick++;
+
+			if (pendingTimeouts.get() == 0 && exitIfIdle()) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The thread reference is cleared before the pending timers are re-checked, and {@link #schedule} increments
+	 * the pending timers before checking the thread reference, so a new timer is never left without a thread.
+	 * @return True if the thread should exit.
+	 */
+	private synchronized boolean exitIfIdle() {
+		Thread currentThread = timerThread;
+		timerThread = null;
+		if (pendingTimeouts.get() > 0) {
+			timerThread = currentThread;
+			return false;
+		}
+		removeCanceledTimeouts();
+		return true;
+	}
+
+	/**
+	 * @return Current time relative to the start time, once the current tick has passed.
+	 */
+	private long waitForNextTick() {
+		long tickDeadline = tickDurationNanos * (tick + 1);
+		while (!stopped) {
+			long currentTime = System.nanoTime() - startTime;
+			long sleepNanos = tickDeadline - currentTime;
+			if (sleepNanos <= 0) {
+				return currentTime;
+			}
+			LockSupport.parkNanos(this, sleepNanos);
+		}
+		return tickDeadline;
+	}
+
+	private void transferNewTimeouts() {
+		for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+			Timeout timeout = newTimeouts.poll();
+			if (timeout == null) {
+				break;
+			}
+			if (timeout.isCanceled()) {
+				continue;
+			}
+
+			long expirationTick = Math.max(timeout.deadline / tickDurationNanos, tick); // Never schedule in the past
+			timeout.remainingRounds = (expirationTick - tick) / wheel.length;
+			wheel[(int) (expirationTick & mask)].add(timeout);
+		}
+	}
+
+	private void removeCanceledTimeouts() {
+		Timeout timeout;
+		while ((timeout = canceledTimeouts.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	/**
+	 * A scheduled task.
+	 */
+	public static class Timeout {
+		private static final int STATE_PENDING = 0;
+		private static final int STATE_CANCELED = 1;
+		private static final int STATE_EXPIRED = 2;
+
+		private final JobTimer timer;
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+		// Only accessed by the timer thread
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout previous;
+		private Timeout next;
+
+		private Timeout(JobTimer timer, Runnable task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel the task, unless it has been executed already.
+		 * @return True if canceled by this call, false if executed or canceled already.
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(STATE_PENDING, STATE_CANCELED)) {
+				return false;
+			}
+			timer.pendingTimeouts.decrementAndGet();
+			timer.canceledTimeouts.add(this);
+			return true;
+		}
+
+		public boolean isCanceled() {
+			return state.get() == STATE_CANCELED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == STATE_EXPIRED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+				return;
+			}
+			timer.pendingTimeouts.decrementAndGet();
+			try {
+				task.run();
+			} catch (Throwable e) {
+				LOGGER.log(Level.WARNING, "Job timer task threw an exception", e);
+			}
+		}
+	}
+
+	/**
+	 * Doubly linked list of the timeouts of one tick. Only accessed by the timer thread.
+	 */
+	private static class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		private void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			}
+			else {
+				tail.next = timeout;
+				timeout.previous = tail;
+				tail = timeout;
+			}
+		}
+
+		private Timeout remove(Timeout timeout) {
+			Timeout next = timeout.next;
+			if (timeout.previous != null) {
+				timeout.previous.next = next;
+			}
+			if (next != null) {
+				next.previous = timeout.previous;
+			}
+			if (timeout == head) {
+				head = next;
+			}
+			if (timeout == tail) {
+				tail = timeout.previous;
+			}
+			timeout.previous = null;
+			timeout.next = null;
+			timeout.bucket = null;
+			return next;
+		}
+
+		private void expireTimeouts(long currentTime) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				if (timeout.isCanceled()) {
+					timeout = remove(timeout);
+				}
+				else if (timeout.remainingRounds <= 0 && timeout.deadline <= currentTime) {
+					Timeout next = remove(timeout);
+					timeout.expire();
+					timeout = next;
+				}
+				else {
+					if (timeout.remainingRounds > 0) {
+						timeout.remainingRounds--;
+					}
+					timeout = timeout.next;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.frejdh.util.job.scheduling;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.model.RateLimit;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rate limits of a queue. A job takes a permit from the bucket of the queue, and from the bucket of each of its
+ * resource keys that is rate limited. The buckets are created up front, so the lookups never lock.
+ */
+public class RateLimiter {
+
+	private final TokenBucket queueBucket;
+	private final Map<String, TokenBucket> bucketsByResourceKey;
+
+	/**
+	 * @param queueRateLimit Rate limit of all jobs of the queue. Null if unlimited.
+	 * @param rateLimitsByResourceKey Rate limits of the jobs per resource key.
+	 */
+	public RateLimiter(RateLimit queueRateLimit, @NotNull Map<String, RateLimit> rateLimitsByResourceKey) {
+		this.queueBucket = queueRateLimit != null ? new TokenBucket(queueRateLimit) : null;
+		Map<String, TokenBucket> buckets = new HashMap<>();
+		rateLimitsByResourceKey.forEach((resourceKey, rateLimit) -> buckets.put(resourceKey, new TokenBucket(rateLimit)));
+		this.bucketsByResourceKey = Collections.unmodifiableMap(buckets);
+	}
+
+	/**
+	 * @return A rate limiter, or null if there are no rate limits.
+	 */
+	public static RateLimiter of(RateLimit queueRateLimit, Map<String, RateLimit> rateLimitsByResourceKey) {
+		if (queueRateLimit == null && (rateLimitsByResourceKey == null || rateLimitsByResourceKey.isEmpty())) {
+			return null;
+		}
+		return new RateLimiter(queueRateLimit, rateLimitsByResourceKey != null ? rateLimitsByResourceKey : Collections.emptyMap());
+	}
+
+	/**
+	 * Reserve the permits of the job. All permits are reserved even if one of them isn't available yet, so the job
+	 * may wait for the latest one while the others are unused. That never exceeds any of the rates.
+	 * @return Nanoseconds until the permits of the job are available, or zero if they're available now.
+	 */
+	public long reserve(@NotNull Job job) {
+		long delay = queueBucket != null ? queueBucket.reserve() : 0;
+		for (String resourceKey : job.getResourceKeys()) {
+			TokenBucket resourceBucket = bucketsByResourceKey.get(resourceKey);
+			if (resourceBucket != null) {
+				delay = Math.max(delay, resourceBucket.reserve());
+			}
+		}
+		return delay;
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.frejdh.util.job.scheduling;
+
+import com.frejdh.util.job.Job;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Jobs that are ready to be dispatched, ordered by priority (see {@link com.frejdh.util.job.model.JobOptions#getPriority()}),
+ * and in FIFO order for equal priorities. Backed by a binary heap, so offering and polling are O(log n)
+ * regardless of how many jobs the DAO holds.
+ * <p>
+ * With aging enabled, a job is ordered by its enqueue time minus its priority times the aging interval.
+ * A job thereby never waits behind a job with one priority step lower that was added more than
+ * one aging interval after it, which prevents starvation of low priority jobs.
+ */
+public class ReadyJobQueue {
+
+	private static final Comparator<ReadyJob> ENTRY_ORDER = Comparator
+			.comparingLong((ReadyJob readyJob) -> readyJob.sortKey)
+			.thenComparingLong(readyJob -> readyJob.sequence);
+
+	private final PriorityBlockingQueue<ReadyJob> jobs = new PriorityBlockingQueue<>(64, ENTRY_ORDER);
+	private final AtomicLong lastSequence = new AtomicLong(0);
+	private final long agingIntervalNanos;
+
+	/**
+	 * Ready queue without aging.
+	 */
+	public ReadyJobQueue() {
+		this(0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param agingInterval Time it takes for a waiting job to be ordered as if it had one priority step higher.
+	 *                      Zero or less to disable aging, i.e. strict priority order.
+	 * @param unit Unit of the aging interval.
+	 */
+	public ReadyJobQueue(long agingInterval, @NotNull TimeUnit unit) {
+		this.agingIntervalNanos = Math.max(0, unit.toNanos(agingInterval));
+	}
+
+	public void offer(@NotNull Job job) {
+		jobs.offer(new ReadyJob(job, getSortKey(job), lastSequence.incrementAndGet()));
+	}
+
+	/**
+	 * Put a polled job back at its original position, e.g. when it couldn't be dispatched.
+	 * @param readyJob Job to put back, as returned by {@link #poll()}.
+	 */
+	public void putBack(@NotNull ReadyJob readyJob) {
+		jobs.offer(readyJob);
+	}
+
+	/**
+	 * Retrieve and remove the next job to dispatch.
+	 * @return The job or null if empty.
+	 */
+	public ReadyJob poll() {
+		return jobs.poll();
+	}
+
+	public boolean isEmpty() {
+		return jobs.isEmpty();
+	}
+
+	public int size() {
+		return jobs.size();
+	}
+
+	private long getSortKey(Job job) {
+		long priority = job.getJobOptions().getPriority();
+		if (agingIntervalNanos == 0) {
+			return -priority;
+		}
+
+		long priorityOffset;
+		try {
+			priorityOffset = Math.multiplyExact(priority, agingIntervalNanos);
+		} catch (ArithmeticException e) {
+			priorityOffset = priority > 0 ? Long.MAX_VALUE / 2 : Long.MIN_VALUE / 2;
+		}
+		return System.nanoTime() - priorityOffset;
+	}
+
+	public static class ReadyJob {
+		private final Job job;
+		private final long sortKey;
+		private final long sequence;
+
+		private ReadyJob(Job job, long sortKey, long sequence) {
+			this.job = job;
+			this.sortKey = sortKey;
+			this.sequence = sequence;
+		}
+
+		public Job getJob() {
+			return job;
+		}
+	}
+
+}
@@ -0,0 +1,384 @@
+package com.frejdh.util.job.scheduling;
+
+import com.frejdh.util.job.Job;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of which jobs own which resource key, and the jobs waiting for it (in FIFO order).
+ * A resource key has a fixed amount of permits (one per default, i.e. exclusive), and each job takes the amount of
+ * permits of its weight, see {@link com.frejdh.util.job.model.JobOptions#getResourceWeight()}. The taken permits are
+ * counted, so acquiring and releasing never depends on the amount of running jobs.
+ * <p>
+ * Each resource key is guarded by one of a fixed amount of lock stripes, so jobs with different resource keys
+ * rarely contend with each other. Released permits are handed directly to the next waiting jobs. A waiting job is
+ * never overtaken by a later job with a smaller weight, so heavy jobs aren't starved.
+ * <p>
+ * A job with several resource keys takes the permits of all of them at once, with the stripes of the keys locked in
+ * ascending order, so that it never holds some of them while waiting for the rest, and no two jobs can deadlock.
+ * Meanwhile it waits in the queue of one key that's not available. Once handed that key, the job either takes all of
+ * its keys, or moves on to wait for the next key that's not available, so the jobs behind it in the queue aren't
+ * blocked by keys that they don't use. As a result, a job with several resource keys may be overtaken under contention.
+ * <p>
+ * The permits are local to the JVM. Across JVMs, the resources are also acquired from a
+ * {@link ResourceLockProvider}, which is notified through the {@code onResourceReleased} callback.
+ */
+public class ResourceLockManager {
+
+	public static final int DEFAULT_AMOUNT_OF_STRIPES = 64;
+	public static final int DEFAULT_RESOURCE_PERMITS = 1;
+
+	private final ReentrantLock[] stripes;
+	private final Map<String, ResourceLock> locksByResourceKey = new ConcurrentHashMap<>();
+	private final Map<String, Integer> permitsByResourceKey;
+	private final Consumer<Job> onJobWaiting;
+	private final Consumer<String> onResourceReleased;
+
+	/**
+	 * @param onJobWaiting Executed (without holding any lock) when a job has to wait for its resource. The job may
+	 *                     have been handed the resource already by then.
+	 */
+	public ResourceLockManager(@NotNull Consumer<Job> onJobWaiting) {
+		this(DEFAULT_AMOUNT_OF_STRIPES, onJobWaiting);
+	}
+
+	/**
+	 * @param amountOfStripes Amount of locks shared by the resource keys. Rounded up to a power of two.
+	 * @param onJobWaiting Executed (without holding any lock) when a job has to wait for its resource. The job may
+	 *                     have been handed the resource already by then.
+	 */
+	public ResourceLockManager(int amountOfStripes, @NotNull Consumer<Job> onJobWaiting) {
+		this(amountOfStripes, Collections.emptyMap(), onJobWaiting, null);
+	}
+
+	/**
+	 * @param amountOfStripes Amount of locks shared by the resource keys. Rounded up to a power of two.
+	 * @param permitsByResourceKey Amount of permits of the resource keys. Resource keys without any have
+	 *                             {@link #DEFAULT_RESOURCE_PERMITS}.
+	 * @param onJobWaiting Executed (without holding any lock) when a job has to wait for its resource. The job may
+	 *                     have been handed the resource already by then.
+	 * @param onResourceReleased Executed (while holding the lock of the resource) when all permits of a resource are
+	 *                           released without any job waiting for it, so it must not block. Null if not needed.
+	 */
+	public ResourceLockManager(int amountOfStripes, @NotNull Map<String, Integer> permitsByResourceKey,
+							   @NotNull Consumer<Job> onJobWaiting, Consumer<String> onResourceReleased) {
+		int size = 1;
+		while (size < amountOfStripes) {
+			size <<= 1;
+		}
+		this.stripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+		permitsByResourceKey.forEach((resourceKey, permits) -> {
+			if (permits == null || permits <= 0) {
+				throw new IllegalArgumentException("The permits of resource [" + resourceKey + "] must be positive, was: " + permits);
+			}
+		});
+		this.permitsByResourceKey = Collections.unmodifiableMap(new HashMap<>(permitsByResourceKey));
+		this.onJobWaiting = onJobWaiting;
+		this.onResourceReleased = onResourceReleased;
+	}
+
+	/**
+	 * Try to acquire the permits of the job's resources. If not enough permits are available, or other jobs are
+	 * waiting for a resource, the job is added last to the waiting jobs of that resource, and will be returned by
+	 * {@link #release(Job)} once it's the job's turn.
+	 * Reentrant, i.e. acquiring the resources that are already owned by the job succeeds.
+	 *
+	 * @param job Job to acquire the resources for.
+	 * @return True if the job now owns its permits of the resources (or doesn't have any resource), false if it has to wait.
+	 */
+	public boolean tryAcquire(@NotNull Job job) {
+		List<String> resourceKeys = job.getResourceKeys();
+		if (resourceKeys.isEmpty()) {
+			return true;
+		}
+		else if (resourceKeys.size() > 1) {
+			return tryAcquireAll(job, resourceKeys);
+		}
+
+		String resourceKey = resourceKeys.get(0);
+		ReentrantLock stripe = getStripe(resourceKey);
+		stripe.lock();
+		try {
+			ResourceLock lock = locksByResourceKey.computeIfAbsent(resourceKey, key -> new ResourceLock(getPermits(key)));
+			if (lock.isOwner(job)) {
+				return true;
+			}
+			else if (lock.waitingJobs.isEmpty() && lock.tryTake(job)) {
+				return true;
+			}
+			lock.waitingJobs.add(job);
+		} finally {
+			stripe.unlock();
+		}
+
+		onJobWaiting.accept(job);
+		return false;
+	}
+
+	private boolean tryAcquireAll(Job job, List<String> resourceKeys) {
+		ReentrantLock[] jobStripes = getStripes(resourceKeys);
+		for (ReentrantLock stripe : jobStripes) {
+			stripe.lock();
+		}
+		try {
+			ResourceLock firstLock = locksByResourceKey.get(resourceKeys.get(0));
+			if (firstLock != null && firstLock.isOwner(job)) { // Owns either all or none of them
+				return true;
+			}
+			else if (tryTakeAll(job, resourceKeys, null)) {
+				return true;
+			}
+		} finally {
+			unlock(jobStripes);
+		}
+
+		onJobWaiting.accept(job);
+		return false;
+	}
+
+	/**
+	 * Takes the permits of all resources of the job, or none. Otherwise the job is added last to the waiting jobs of
+	 * the first resource that's not available, and the caller must execute {@link #onJobWaiting} once it has
+	 * released the stripes. Must be called while holding the stripes of all resources.
+	 * @param handedLock Lock of a resource that was handed to the job as the first of its waiting jobs, whose
+	 *                   waiting jobs are therefore ignored. Null if none.
+	 */
+	private boolean tryTakeAll(Job job, List<String> resourceKeys, ResourceLock handedLock) {
+		for (String resourceKey : resourceKeys) {
+			ResourceLock lock = locksByResourceKey.get(resourceKey);
+			if (lock != null && lock != handedLock && (!lock.waitingJobs.isEmpty() || !lock.canTake(job))) {
+				lock.waitingJobs.add(job);
+				return false;
+			}
+		}
+		for (String resourceKey : resourceKeys) {
+			locksByResourceKey.computeIfAbsent(resourceKey, key -> new ResourceLock(getPermits(key))).tryTake(job);
+		}
+		return true;
+	}
+
+	/**
+	 * Release the permits owned by the job.
+	 *
+	 * @param job Job that owns permits of the resources.
+	 * @return The next waiting jobs that were handed enough permits, which now own them. Empty if none.
+	 */
+	public List<Job> release(@NotNull Job job) {
+		List<String> resourceKeys = job.getResourceKeys();
+		if (resourceKeys.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<Job> jobsToRetry = new ArrayList<>(0);
+		List<Job> waitingJobs = new ArrayList<>(0);
+		List<Job> nextJobs = new ArrayList<>(0);
+		ReentrantLock[] jobStripes = getStripes(resourceKeys);
+		for (ReentrantLock stripe : jobStripes) {
+			stripe.lock();
+		}
+		try {
+			for (String resourceKey : resourceKeys) {
+				ResourceLock lock = locksByResourceKey.get(resourceKey);
+				if (lock == null || !lock.give(job)) {
+					return nextJobs;
+				}
+			}
+			for (String resourceKey : resourceKeys) {
+				handOver(resourceKey, locksByResourceKey.get(resourceKey), nextJobs, waitingJobs, jobsToRetry);
+			}
+		} finally {
+			unlock(jobStripes);
+		}
+
+		waitingJobs.forEach(onJobWaiting); // Without holding any stripe, as it may e.g. persist the job
+
+		for (Job jobToRetry : jobsToRetry) { // Without holding any stripe, as their stripes are locked in order
+			if (tryAcquire(jobToRetry)) {
+				nextJobs.add(jobToRetry);
+			}
+		}
+		return nextJobs;
+	}
+
+	/**
+	 * Hands the available permits of the resource to the waiting jobs, in FIFO order. A waiting job with several
+	 * resources that can't take the rest of them is moved on to wait for the next one, so it doesn't block the jobs
+	 * behind it. Must be called while holding the stripe of the resource.
+	 * @param waitingJobs Jobs that were moved on to wait for another resource, for {@link #onJobWaiting}.
+	 * @param jobsToRetry Jobs with several resources whose stripes couldn't be locked without blocking, which would
+	 *                    risk a deadlock. They're removed from the waiting jobs, and must be acquired again.
+	 */
+	private void handOver(String resourceKey, ResourceLock lock, List<Job> nextJobs, List<Job> waitingJobs, List<Job> jobsToRetry) {
+		Job nextJob;
+		while ((nextJob = lock.waitingJobs.peek()) != null && lock.canTake(nextJob)) {
+			lock.waitingJobs.poll();
+			List<String> resourceKeys = nextJob.getResourceKeys();
+			if (resourceKeys.size() <= 1) {
+				lock.tryTake(nextJob);
+				nextJobs.add(nextJob);
+				continue;
+			}
+
+			ReentrantLock[] jobStripes = getStripes(resourceKeys);
+			int lockedStripes = 0;
+			while (lockedStripes < jobStripes.length && jobStripes[lockedStripes].tryLock()) { // Reentrant for held stripes
+				lockedStripes++;
+			}
+			try {
+				if (lockedStripes < jobStripes.length) {
+					jobsToRetry.add(nextJob);
+				}
+				else if (tryTakeAll(nextJob, resourceKeys, lock)) {
+					nextJobs.add(nextJob);
+				}
+				else {
+					waitingJobs.add(nextJob);
+				}
+			} finally {
+				for (int i = 0; i < lockedStripes; i++) {
+					jobStripes[i].unlock();
+				}
+			}
+		}
+
+		if (lock.owners.isEmpty() && lock.waitingJobs.isEmpty()) {
+			locksByResourceKey.remove(resourceKey);
+			if (onResourceReleased != null) {
+				onResourceReleased.accept(resourceKey);
+			}
+		}
+	}
+
+	/**
+	 * @return True if no permits of the resource are taken.
+	 */
+	public boolean isResourceFree(String resourceKey) {
+		return getAvailablePermits(resourceKey) == getPermits(resourceKey);
+	}
+
+	/**
+	 * @return Amount of permits of the resource that aren't taken. Jobs may be waiting for them anyway, if not enough.
+	 */
+	public int getAvailablePermits(String resourceKey) {
+		if (resourceKey == null) {
+			return DEFAULT_RESOURCE_PERMITS;
+		}
+
+		ReentrantLock stripe = getStripe(resourceKey);
+		stripe.lock();
+		try {
+			ResourceLock lock = locksByResourceKey.get(resourceKey);
+			return lock != null ? lock.availablePermits : getPermits(resourceKey);
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * @return Amount of permits of the resource, i.e. the max total weight of the jobs running with it.
+	 */
+	public int getPermits(String resourceKey) {
+		Integer permits = resourceKey != null ? permitsByResourceKey.get(resourceKey) : null;
+		return permits != null ? permits : DEFAULT_RESOURCE_PERMITS;
+	}
+
+	private ReentrantLock getStripe(String resourceKey) {
+		return stripes[getStripeIndex(resourceKey)];
+	}
+
+	private int getStripeIndex(String resourceKey) {
+		int hash = resourceKey.hashCode();
+		return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+	}
+
+	/**
+	 * @return The distinct stripes of the resources, in the global order they must be locked in (ascending index).
+	 */
+	private ReentrantLock[] getStripes(List<String> resourceKeys) {
+		if (resourceKeys.size() == 1) {
+			return new ReentrantLock[] {getStripe(resourceKeys.get(0))};
+		}
+		return resourceKeys.stream()
+				.mapToInt(this::getStripeIndex)
+				.distinct()
+				.sorted()
+				.mapToObj(index -> stripes[index])
+				.toArray(ReentrantLock[]::new);
+	}
+
+	private static void unlock(ReentrantLock[] lockedStripes) {
+		for (int i = lockedStripes.length - 1; i >= 0; i--) {
+			lockedStripes[i].unlock();
+		}
+	}
+
+	/**
+	 * Guarded by the stripe of its resource key. The owners are at most as many as the permits, so they're kept
+	 * in a list.
+	 */
+	private static class ResourceLock {
+		private final int permits;
+		private int availablePermits;
+		private final List<Job> owners = new ArrayList<>(1);
+		private final Deque<Job> waitingJobs = new ArrayDeque<>();
+
+		private ResourceLock(int permits) {
+			this.permits = permits;
+			this.availablePermits = permits;
+		}
+
+		private boolean isOwner(Job job) {
+			for (Job owner : owners) {
+				if (owner == job) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean canTake(Job job) {
+			return availablePermits >= getWeight(job);
+		}
+
+		private boolean tryTake(Job job) {
+			if (!canTake(job)) {
+				return false;
+			}
+			availablePermits -= getWeight(job);
+			owners.add(job);
+			return true;
+		}
+
+		private boolean give(Job job) {
+			for (int i = 0; i < owners.size(); i++) {
+				if (owners.get(i) == job) {
+					owners.remove(i);
+					availablePermits += getWeight(job);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Capped at the permits, as a heavier job would never be started.
+		 */
+		private int getWeight(Job job) {
+			return Math.min(permits, Math.max(1, job.getJobOptions().getResourceWeight()));
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+package com.frejdh.util.job.scheduling;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Makes the resource keys exclusive across JVMs (nodes), in addition to the local exclusivity of the
+ * {@link ResourceLockManager}. A job acquires its resource from the provider once it owns the resource locally,
+ * and the resource is released once no local job needs it anymore. The permits of a resource key are local, so
+ * the jobs of a resource key run on one node at a time.
+ * See {@link com.frejdh.util.job.JobQueueBuilder#withResourceLockProvider}.
+ */
+public interface ResourceLockProvider {
+
+	/**
+	 * Fencing token of a resource that isn't held.
+	 */
+	long NO_FENCING_TOKEN = -1;
+
+	/**
+	 * Acquire the resource for this node. Called by the local owners of the resource, i.e. concurrently if the resource
+	 * has more than one permit. Reentrant, i.e. acquiring a resource that's already held by this node succeeds.
+	 *
+	 * @param resourceKey Resource to acquire.
+	 * @return True if this node now holds the resource, false if it's held by another node (or couldn't be acquired).
+	 */
+	boolean tryAcquire(@NotNull String resourceKey);
+
+	/**
+	 * Release the resource, as no local job needs it anymore. Called while holding the local lock of the resource,
+	 * so it must not block.
+	 *
+	 * @param resourceKey Resource to release.
+	 */
+	void release(@NotNull String resourceKey);
+
+	/**
+	 * The fencing token increases every time the resource changes hands, so a storage guarded by the resource can
+	 * reject the writes of a node that has lost the resource (e.g. after a long GC pause).
+	 *
+	 * @param resourceKey Resource held by this node.
+	 * @return The fencing token of the resource, or {@link #NO_FENCING_TOKEN} if it isn't held by this node.
+	 */
+	long getFencingToken(@NotNull String resourceKey);
+
+	/**
+	 * @return How long to wait before retrying a resource held by another node, in milliseconds.
+	 */
+	long getRetryDelay();
+
+}
@@ -0,0 +1,56 @@
+package com.frejdh.util.job.scheduling;
+
+import com.frejdh.util.job.model.RateLimit;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented as a generic cell rate algorithm (GCRA). The state is a single timestamp,
+ * the theoretical arrival time of the next permit, so the bucket is refilled implicitly by the passing of time
+ * rather than by a thread.
+ * <p>
+ * A permit is always reserved, also when it's not available yet. The caller is then told how long to wait for it,
+ * so a throttled job can be rescheduled for exactly when its permit is due, instead of polling the bucket.
+ */
+public class TokenBucket {
+
+	private final long emissionInterval;
+	private final long burstTolerance;
+	private final AtomicLong theoreticalArrivalTime;
+
+	/**
+	 * @param rateLimit Rate of the permits, and the size of the bucket (i.e. the burst).
+	 * @throws IllegalArgumentException If the amount of permits or the period isn't positive.
+	 */
+	public TokenBucket(@NotNull RateLimit rateLimit) {
+		if (rateLimit.getPermits() <= 0 || rateLimit.getPeriod() <= 0) {
+			throw new IllegalArgumentException("The permits and period of a rate limit must be positive, was: " + rateLimit);
+		}
+		this.emissionInterval = Math.max(1, TimeUnit.MILLISECONDS.toNanos(rateLimit.getPeriod()) / rateLimit.getPermits());
+		this.burstTolerance = emissionInterval * (rateLimit.getBurst() - 1);
+		this.theoreticalArrivalTime = new AtomicLong(System.nanoTime()); // Starts full
+	}
+
+	/**
+	 * Reserve a permit.
+	 * @return Nanoseconds until the reserved permit is available, or zero if it's available now.
+	 */
+	public long reserve() {
+		return reserve(System.nanoTime());
+	}
+
+	private long reserve(long now) {
+		while (true) {
+			long arrivalTime = theoreticalArrivalTime.get();
+			long allowedAt = arrivalTime - burstTolerance;
+			long reservedAt = allowedAt - now > 0 ? allowedAt : now;
+			long nextArrivalTime = (arrivalTime - reservedAt > 0 ? arrivalTime : reservedAt) + emissionInterval;
+			if (theoreticalArrivalTime.compareAndSet(arrivalTime, nextArrivalTime)) {
+				return reservedAt - now;
+			}
+		}
+	}
+
+}
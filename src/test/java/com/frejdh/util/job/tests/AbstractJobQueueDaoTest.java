@@ -3,20 +3,40 @@ package com.frejdh.util.job.tests;
 import com.frejdh.util.job.Job;
 import com.frejdh.util.job.JobQueue;
 import com.frejdh.util.job.JobQueueBuilder;
+import com.frejdh.util.job.exceptions.JobRejectedException;
+import com.frejdh.util.job.exceptions.JobTimeoutException;
+import com.frejdh.util.job.metrics.JobQueueMetrics;
+import com.frejdh.util.job.metrics.JobQueueMetricsRegistry;
+import com.frejdh.util.job.metrics.JobQueueMetricsSnapshot;
+import com.frejdh.util.job.model.AdmissionPolicy;
+import com.frejdh.util.job.model.AdmissionStatus;
+import com.frejdh.util.job.model.JobOptions;
 import com.frejdh.util.job.model.JobStatus;
+import com.frejdh.util.job.model.RateLimit;
 import com.frejdh.util.job.persistence.JobQueueService;
+import com.frejdh.util.job.persistence.config.RetentionPolicy;
+import com.frejdh.util.job.persistence.id.NodePartitionedJobIdAllocator;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Logger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public abstract class AbstractJobQueueDaoTest {
@@ -67,6 +87,22 @@ public abstract class AbstractJobQueueDaoTest {
 		return queueBuilder;
 	}
 
+	/**
+	 * Wait until the condition is met, or fail after 10 seconds.
+	 */
+	protected void await(BooleanSupplier condition) {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the condition");
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
 	@Test
 	public void doSimpleAction() {
 		AtomicInteger fieldToChange = new AtomicInteger(0);
@@ -124,6 +160,172 @@ public abstract class AbstractJobQueueDaoTest {
 		assertEquals(2, jobQueueService.getFinishedJobs().size());
 	}
 
+	@Test
+	public void resourcePermitsBoundConcurrentJobs() {
+		final int permits = 3;
+		AtomicInteger runningJobs = new AtomicInteger();
+		AtomicInteger maxRunningJobs = new AtomicInteger();
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < permits * 2; i++) {
+			jobs.add(Job.builder()
+					.withAction((jobRef) -> {
+						maxRunningJobs.accumulateAndGet(runningJobs.incrementAndGet(), Math::max);
+						Thread.sleep(200);
+						runningJobs.decrementAndGet();
+					})
+					.withResourceKey("resourcePermitsBoundConcurrentJobs")
+					.build());
+		}
+
+		queue = defaultJobQueue()
+				.withMaxAmountOfThreads(permits * 2)
+				.withResourcePermits("resourcePermitsBoundConcurrentJobs", permits)
+				.runOnceOnly()
+				.withPredefinedJobs(jobs)
+				.buildAndStart();
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+
+		jobs.forEach(job -> assertEquals(JobStatus.FINISHED, job.getStatus()));
+		assertEquals(permits, maxRunningJobs.get(), "Expected the jobs to run as many at a time as the permits");
+	}
+
+	@Test
+	public void weightedJobsAreNotOvertaken() throws Throwable {
+		final String resourceKey = "weightedJobsAreNotOvertaken";
+		AtomicInteger runningJobs = new AtomicInteger();
+		AtomicInteger runningJobsWithHeavyJob = new AtomicInteger(-1);
+		Job lightJob = Job.builder()
+				.withAction((jobRef) -> {
+					runningJobs.incrementAndGet();
+					Thread.sleep(300);
+					runningJobs.decrementAndGet();
+				})
+				.withResourceKey(resourceKey)
+				.build();
+		Job heavyJob = Job.builder()
+				.withAction((jobRef) -> {
+					runningJobsWithHeavyJob.set(runningJobs.incrementAndGet());
+					runningJobs.decrementAndGet();
+				})
+				.withResourceKey(resourceKey)
+				.withJobOptions(JobOptions.builder().withResourceWeight(3).build())
+				.build();
+		Job laterLightJob = Job.builder()
+				.withAction((jobRef) -> { })
+				.withResourceKey(resourceKey)
+				.build();
+
+		queue = defaultJobQueue()
+				.withResourcePermits(resourceKey, 3)
+				.buildAndStart();
+		queue.add(lightJob);
+		queue.add(heavyJob);
+		queue.add(laterLightJob);
+
+		Thread.sleep(100);
+		assertEquals(JobStatus.WAITING_FOR_RESOURCE, heavyJob.getStatus());
+		assertEquals(JobStatus.WAITING_FOR_RESOURCE, laterLightJob.getStatus(), "Expected the heavy job not to be overtaken");
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+
+		assertEquals(1, runningJobsWithHeavyJob.get(), "Expected the heavy job to take all permits");
+		assertTrue(laterLightJob.getStartTime() >= heavyJob.getStartTime());
+	}
+
+	@Test
+	public void multiResourceTransfersDoNotDeadlock() {
+		final String[] accounts = {"multiResourceTransfersA", "multiResourceTransfersB", "multiResourceTransfersC"};
+		int[] balances = new int[accounts.length];
+		AtomicInteger runningJobs = new AtomicInteger();
+		AtomicInteger maxRunningJobs = new AtomicInteger();
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			int from = i % accounts.length;
+			int to = (i + 1) % accounts.length;
+			jobs.add(Job.builder()
+					.withAction((jobRef) -> {
+						maxRunningJobs.accumulateAndGet(runningJobs.incrementAndGet(), Math::max);
+						int balance = balances[from];
+						Thread.sleep(5);
+						balances[from] = balance - 1;
+						balances[to]++;
+						runningJobs.decrementAndGet();
+					})
+					.withResourceKeys(accounts[to], accounts[from]) // Opposite orders, e.g. both A -> B and B -> A
+					.build());
+		}
+
+		queue = defaultJobQueue()
+				.withMaxAmountOfThreads(4)
+				.runOnceOnly()
+				.withPredefinedJobs(jobs)
+				.buildAndStart();
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+
+		jobs.forEach(job -> assertEquals(JobStatus.FINISHED, job.getStatus()));
+		assertEquals(1, maxRunningJobs.get(), "Expected every two transfers to share an account");
+		assertEquals(0, Arrays.stream(balances).sum(), "Expected no lost updates");
+	}
+
+	@Test
+	public void waitingMultiResourceJobDoesNotBlockOtherResources() throws Throwable {
+		final String resourceKeyA = "waitingMultiResourceJobA";
+		final String resourceKeyB = "waitingMultiResourceJobB";
+		CountDownLatch releaseResourceA = new CountDownLatch(1);
+		Job jobWithResourceA = Job.builder()
+				.withAction((jobRef) -> releaseResourceA.await(10, TimeUnit.SECONDS))
+				.withResourceKey(resourceKeyA)
+				.build();
+		Job jobWithBothResources = Job.builder()
+				.withAction((jobRef) -> { })
+				.withResourceKeys(resourceKeyA, resourceKeyB)
+				.build();
+		Job jobWithResourceB = Job.builder()
+				.withAction((jobRef) -> { })
+				.withResourceKey(resourceKeyB)
+				.build();
+
+		queue = defaultJobQueue().buildAndStart();
+		queue.add(jobWithResourceA);
+		await(() -> jobWithResourceA.getStatus() == JobStatus.RUNNING_ACTION);
+		queue.add(jobWithBothResources);
+		queue.add(jobWithResourceB);
+
+		await(() -> jobWithResourceB.getStatus() == JobStatus.FINISHED);
+		assertEquals(JobStatus.WAITING_FOR_RESOURCE, jobWithBothResources.getStatus(), "Expected no partial hold of resource B");
+		releaseResourceA.countDown();
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+		assertEquals(JobStatus.FINISHED, jobWithBothResources.getStatus());
+	}
+
+	@Test
+	public void parkedJobsAreWokenUpInOrderWhenTheResourceIsReleased() throws Throwable {
+		final String resourceKey = "parkedJobsAreWokenUp";
+		CountDownLatch releaseResource = new CountDownLatch(1);
+		List<String> startedJobs = Collections.synchronizedList(new ArrayList<>());
+		Job blockingJob = Job.builder()
+				.withAction((jobRef) -> releaseResource.await(10, TimeUnit.SECONDS))
+				.withResourceKey(resourceKey)
+				.build();
+		List<Job> parkedJobs = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			parkedJobs.add(Job.builder()
+					.withDescription("parked-" + i)
+					.withAction((jobRef) -> startedJobs.add(jobRef.getDescription()))
+					.withResourceKey(resourceKey)
+					.build());
+		}
+
+		queue = defaultJobQueue().buildAndStart();
+		queue.add(blockingJob);
+		await(() -> blockingJob.getStatus() == JobStatus.RUNNING_ACTION);
+		parkedJobs.forEach(queue::add);
+		parkedJobs.forEach(job -> assertEquals(JobStatus.WAITING_FOR_RESOURCE, job.getStatus()));
+
+		releaseResource.countDown();
+		await(() -> startedJobs.size() == parkedJobs.size());
+		assertEquals(Arrays.asList("parked-0", "parked-1", "parked-2", "parked-3", "parked-4"), startedJobs);
+	}
+
 	@Test
 	public void canCatchExceptions() {
 		final Job job = Job.builder()
@@ -233,6 +435,501 @@ public abstract class AbstractJobQueueDaoTest {
 		assertEquals(JobStatus.FINISHED, fetchedJobs.get(0).getStatus());
 	}
 
+	@Test
+	public void canExecuteJobsOnVirtualThreads() {
+		final int maxConcurrentJobs = 2;
+		AtomicInteger concurrentJobs = new AtomicInteger(0);
+		AtomicInteger maxObservedConcurrentJobs = new AtomicInteger(0);
+
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			jobs.add(Job.builder()
+					.withAction((jobRef) -> {
+						maxObservedConcurrentJobs.accumulateAndGet(concurrentJobs.incrementAndGet(), Math::max);
+						Thread.sleep(20);
+						concurrentJobs.decrementAndGet();
+					})
+					.build());
+		}
+
+		queue = defaultJobQueue()
+				.withVirtualThreads(maxConcurrentJobs)
+				.withPredefinedJobs(jobs)
+				.buildAndStart();
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+
+		jobs.forEach(job -> assertEquals(JobStatus.FINISHED, job.getStatus()));
+		assertTrue(maxObservedConcurrentJobs.get() <= maxConcurrentJobs, "Expected at most " + maxConcurrentJobs + " concurrent jobs");
+	}
+
+	@Test
+	public void jobsAddedWhileTheWorkerFinishesAreDispatched() throws Throwable {
+		queue = defaultJobQueue()
+				.withMaxAmountOfThreads(1)
+				.buildAndStart();
+		for (int i = 0; i < 300; i++) {
+			CountDownLatch executed = new CountDownLatch(2);
+			queue.add(Job.builder().withAction((jobRef) -> executed.countDown()).build());
+			for (int spins = ThreadLocalRandom.current().nextInt(2000); spins > 0; spins--) {
+				Thread.yield(); // Adds the next job at a random point of the first job's execution
+			}
+			queue.add(Job.builder().withAction((jobRef) -> executed.countDown()).build());
+			assertTrue(executed.await(10, TimeUnit.SECONDS), "Expected the jobs to be dispatched");
+		}
+	}
+
+	@Test
+	public void backlogIsSpreadOverTheWorkers() {
+		final int amountOfJobs = 100;
+		Map<String, AtomicInteger> executedJobsByThread = new ConcurrentHashMap<>();
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < amountOfJobs; i++) {
+			jobs.add(Job.builder()
+					.withAction((jobRef) -> {
+						executedJobsByThread.computeIfAbsent(Thread.currentThread().getName(), name -> new AtomicInteger()).incrementAndGet();
+						Thread.sleep(10);
+					})
+					.build());
+		}
+
+		queue = defaultJobQueue()
+				.withMaxAmountOfThreads(4)
+				.buildAndStart();
+		queue.addAll(jobs);
+		assertTrue(queue.stopAndAwait(10, TimeUnit.SECONDS));
+
+		assertEquals(amountOfJobs, executedJobsByThread.values().stream().mapToInt(AtomicInteger::get).sum());
+		assertEquals(4, executedJobsByThread.size(), "Expected every worker to execute jobs");
+		executedJobsByThread.forEach((thread, executedJobs) -> assertTrue(executedJobs.get() <= amountOfJobs / 2,
+				"Expected the jobs to be spread over the workers, but " + thread + " executed " + executedJobs + " jobs"));
+	}
+
+	@Test
+	public void canFanOutJobsWithWorkStealing() {
+		final int amountOfFollowUpJobs = 50;
+		final String resourceKey = "canFanOutJobsWithWorkStealing";
+		AtomicInteger concurrentJobsWithResourceKey = new AtomicInteger(0);
+		AtomicInteger maxObservedConcurrentJobsWithResourceKey = new AtomicInteger(0);
+		List<Job> followUpJobs = Collections.synchronizedList(new ArrayList<>());
+
+		queue = defaultJobQueue()
+				.withWorkStealing()
+				.withMaxAmountOfThreads(4)
+				.buildAndStart();
+		queue.add(Job.builder()
+				.withAction((jobRef) -> {
+					for (int i = 0; i < amountOfFollowUpJobs; i++) {
+						Job followUpJob = Job.builder()
+								.withResourceKey(i % 2 == 0 ? resourceKey : null)
+								.withAction((followUpJobRef) -> {
+									if (resourceKey.equals(followUpJobRef.getResourceKey())) {
+										maxObservedConcurrentJobsWithResourceKey.accumulateAndGet(concurrentJobsWithResourceKey.incrementAndGet(), Math::max);
+										Thread.sleep(1);
+										concurrentJobsWithResourceKey.decrementAndGet();
+									}
+								})
+								.build();
+						followUpJobs.add(followUpJob);
+						queue.add(followUpJob);
+					}
+				})
+				.build());
+
+		await(() -> followUpJobs.size() == amountOfFollowUpJobs
+				&& followUpJobs.stream().allMatch(job -> job.getStatus() == JobStatus.FINISHED));
+		assertEquals(1, maxObservedConcurrentJobsWithResourceKey.get(), "Expected the resource key to be locked");
+	}
+
+	@Test
+	public void jobsAreStartedInPriorityOrder() {
+		CountDownLatch blockingJobLatch = new CountDownLatch(1);
+		List<String> startedJobs = Collections.synchronizedList(new ArrayList<>());
+
+		queue = defaultJobQueue()
+				.withMaxAmountOfThreads(1)
+				.buildAndStart();
+		queue.add(Job.builder()
+				.withAction((jobRef) -> blockingJobLatch.await())
+				.build());
+
+		String[] descriptions = { "low-first", "medium", "low-second", "high" };
+		int[] priorities = { 0, 5, 0, 10 };
+		for (int i = 0; i < descriptions.length; i++) {
+			queue.add(Job.builder()
+					.withDescription(descriptions[i])
+					.withJobOptions(JobOptions.builder().withPriority(priorities[i]).build())
+					.withAction((jobRef) -> startedJobs.add(jobRef.getDescription()))
+					.build());
+		}
+
+		blockingJobLatch.countDown();
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("high", "medium", "low-first", "low-second"), startedJobs);
+	}
+
+	@Test
+	public void delayedJobsAreStartedWhenDue() throws Throwable {
+		final long delayMillis = 300;
+		final Job delayedJob = Job.builder()
+				.withJobOptions(JobOptions.builder().setDelay(delayMillis, TimeUnit.MILLISECONDS).build())
+				.withAction((jobRef) -> { })
+				.build();
+		final Job canceledJob = Job.builder()
+				.withJobOptions(JobOptions.builder().setDelay(delayMillis, TimeUnit.MILLISECONDS).build())
+				.withAction((jobRef) -> { })
+				.build();
+
+		queue = defaultJobQueue().withMaxAmountOfThreads(1).buildAndStart();
+		queue.add(delayedJob);
+		queue.add(canceledJob);
+		assertEquals(JobStatus.SCHEDULED, delayedJob.getStatus());
+		assertTrue(queue.stop(canceledJob));
+
+		Thread.sleep(delayMillis * 3);
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+		assertEquals(JobStatus.FINISHED, delayedJob.getStatus());
+		assertTrue(delayedJob.getStartTime() - delayedJob.getAddedTimestamp() >= delayMillis, "Expected the job to be started after its delay");
+		assertEquals(JobStatus.CANCELED, canceledJob.getStatus());
+		assertFalse(canceledJob.isStarted());
+	}
+
+	@Test
+	public void jobsAreStartedAtTheRateLimit() throws Throwable {
+		final int amountOfJobs = 5;
+		final CountDownLatch executed = new CountDownLatch(amountOfJobs);
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < amountOfJobs; i++) {
+			jobs.add(Job.builder()
+					.withAction((jobRef) -> executed.countDown())
+					.build());
+		}
+
+		queue = defaultJobQueue()
+				.withRateLimit(RateLimit.builder().withPermits(20).withPeriod(1000).withBurst(1).build())
+				.buildAndStart();
+		long addedTime = System.currentTimeMillis();
+		queue.addAll(jobs);
+		assertTrue(executed.await(10, TimeUnit.SECONDS), "Expected the throttled jobs to be started");
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+
+		// Relative to when the jobs were added, as a job started late would shorten the interval to the next one
+		for (int i = 1; i < amountOfJobs; i++) {
+			long elapsed = jobs.get(i).getStartTime() - addedTime;
+			assertTrue(elapsed >= i * 50 - 20, "Expected the jobs to be started 50 ms apart, job " + i + " was started after " + elapsed + " ms");
+		}
+	}
+
+	@Test
+	public void throttledResourceDoesNotOccupyWorkers() throws Throwable {
+		final int amountOfLimitedJobs = 3;
+		final CountDownLatch executed = new CountDownLatch(amountOfLimitedJobs + 1);
+		List<Job> limitedJobs = new ArrayList<>();
+		for (int i = 0; i < amountOfLimitedJobs; i++) {
+			limitedJobs.add(Job.builder()
+					.withAction((jobRef) -> executed.countDown())
+					.withResourceKey("limited")
+					.build());
+		}
+		final Job unlimitedJob = Job.builder()
+				.withAction((jobRef) -> executed.countDown())
+				.withResourceKey("unlimited")
+				.build();
+
+		queue = defaultJobQueue()
+				.withMaxAmountOfThreads(1)
+				.withRateLimit("limited", RateLimit.builder().withPermits(5).withPeriod(1000).withBurst(1).build())
+				.buildAndStart();
+		queue.addAll(limitedJobs);
+		queue.add(unlimitedJob);
+		assertTrue(executed.await(10, TimeUnit.SECONDS), "Expected the throttled jobs to be started");
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+
+		Job lastLimitedJob = limitedJobs.get(amountOfLimitedJobs - 1);
+		assertTrue(lastLimitedJob.getStartTime() - limitedJobs.get(0).getStartTime() >= 350,
+				"Expected the jobs of the resource to be started 200 ms apart");
+		assertTrue(unlimitedJob.getStartTime() < limitedJobs.get(1).getStartTime(),
+				"Expected the unlimited job not to wait for the throttled jobs");
+	}
+
+	@Test
+	public void jobsAreInterruptedWhenTimedOut() {
+		final Job timedOutJob = Job.builder()
+				.withJobOptions(JobOptions.builder().setTimeout(100, TimeUnit.MILLISECONDS).build())
+				.withAction((jobRef) -> Thread.sleep(10_000))
+				.build();
+		final Job jobWithinTimeout = Job.builder()
+				.withJobOptions(JobOptions.builder().setTimeout(10, TimeUnit.SECONDS).build())
+				.withAction((jobRef) -> { })
+				.build();
+
+		queue = defaultJobQueue(false)
+				.runOnceOnly()
+				.withPredefinedJobs(Arrays.asList(timedOutJob, jobWithinTimeout))
+				.buildAndStart();
+		assertTrue(queue.stopAndAwait(5, TimeUnit.SECONDS), "Expected the timed out job to be interrupted");
+
+		assertEquals(JobStatus.TIMED_OUT, timedOutJob.getStatus());
+		assertEquals(JobTimeoutException.class, timedOutJob.getThrowable().getClass());
+		assertEquals(JobStatus.FINISHED, jobWithinTimeout.getStatus());
+	}
+
+	@Test
+	public void racingCancelAndTimeoutEndInOneFinalStatus() {
+		final int amountOfJobs = 200;
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < amountOfJobs; i++) {
+			jobs.add(Job.builder()
+					.withJobOptions(JobOptions.builder().setTimeout(5, TimeUnit.MILLISECONDS).build())
+					.withAction((jobRef) -> Thread.sleep(ThreadLocalRandom.current().nextInt(10)))
+					.build());
+		}
+
+		queue = defaultJobQueue(false).withMaxAmountOfThreads(8).buildAndStart();
+		queue.addAll(jobs);
+		List<Boolean> stoppedJobs = new ArrayList<>();
+		for (Job job : jobs) {
+			stoppedJobs.add(queue.stop(job));
+		}
+		// A job timed out by the timer thread gets its exception once its worker has noticed the timeout
+		await(() -> jobs.stream().allMatch(job -> job.getStatus().isFinished()
+				&& (job.getStatus() != JobStatus.TIMED_OUT || job.getThrowable() != null)));
+
+		for (int i = 0; i < amountOfJobs; i++) {
+			Job job = jobs.get(i);
+			assertEquals(stoppedJobs.get(i), job.getStatus() == JobStatus.CANCELED,
+					"Expected exactly the jobs stopped by the queue to be canceled, but was: " + job.getStatus());
+			if (job.getStatus() == JobStatus.TIMED_OUT) {
+				assertEquals(JobTimeoutException.class, job.getThrowable().getClass());
+			}
+		}
+		assertFalse(jobs.get(0).getStatus().canTransitionTo(JobStatus.RUNNING_ACTION));
+	}
+
+	@Test
+	public void pendingJobsAreBoundedByAdmissionPolicy() throws Throwable {
+		CountDownLatch isStarted = new CountDownLatch(1);
+		CountDownLatch isReleased = new CountDownLatch(1);
+		final Job blockingJob = Job.builder()
+				.withAction((jobRef) -> {
+					isStarted.countDown();
+					isReleased.await();
+				})
+				.build();
+		final List<Job> pendingJobs = Arrays.asList(
+				Job.builder().withAction((jobRef) -> { }).build(),
+				Job.builder().withAction((jobRef) -> { }).build()
+		);
+
+		queue = defaultJobQueue()
+				.withCachedThreadPool(false)
+				.withMaxAmountOfThreads(1)
+				.withMaxPendingJobs(2, AdmissionPolicy.REJECT)
+				.buildAndStart();
+		queue.add(blockingJob);
+		assertTrue(isStarted.await(5, TimeUnit.SECONDS), "Expected the blocking job to start");
+		queue.addAll(pendingJobs);
+
+		assertEquals(AdmissionStatus.REJECTED, queue.tryAdd(Job.builder().withAction((jobRef) -> { }).build()));
+		assertThrows(JobRejectedException.class, () -> queue.add(Job.builder().withAction((jobRef) -> { }).build()));
+
+		isReleased.countDown();
+		await(() -> pendingJobs.stream().allMatch(job -> job.getStatus().isFinished()));
+		final Job admittedJob = Job.builder().withAction((jobRef) -> { }).build();
+		assertEquals(AdmissionStatus.ACCEPTED, queue.tryAdd(admittedJob));
+		assertTrue(queue.stopAndAwait(5, TimeUnit.SECONDS));
+		assertEquals(JobStatus.FINISHED, admittedJob.getStatus());
+	}
+
+	@Test
+	public void oldestPendingJobIsDroppedByAdmissionPolicy() throws Throwable {
+		final Job firstJob = Job.builder()
+				.withJobOptions(JobOptions.builder().setDelay(10, TimeUnit.SECONDS).build())
+				.withAction((jobRef) -> { })
+				.build();
+		final Job secondJob = Job.builder()
+				.withJobOptions(JobOptions.builder().setDelay(10, TimeUnit.SECONDS).build())
+				.withAction((jobRef) -> { })
+				.build();
+
+		queue = defaultJobQueue()
+				.withMaxPendingJobs(1, AdmissionPolicy.DROP_OLDEST)
+				.buildAndStart();
+		assertEquals(AdmissionStatus.ACCEPTED, queue.tryAdd(firstJob));
+		assertEquals(AdmissionStatus.ACCEPTED_DROPPED_OLDEST, queue.tryAdd(secondJob));
+		assertEquals(JobStatus.CANCELED, firstJob.getStatus());
+		assertEquals(JobStatus.SCHEDULED, secondJob.getStatus());
+	}
+
+	@Test
+	public void droppedJobReleasesTheResourceItWasHolding() throws Throwable {
+		CountDownLatch isStarted = new CountDownLatch(1);
+		CountDownLatch isReleased = new CountDownLatch(1);
+		final Job blockingJob = Job.builder()
+				.withAction((jobRef) -> {
+					isStarted.countDown();
+					isReleased.await();
+				})
+				.build();
+		final Job droppedJob = Job.builder()
+				.withResourceKey("K")
+				.withAction((jobRef) -> { })
+				.build();
+		final Job admittedJob = Job.builder()
+				.withResourceKey("K")
+				.withAction((jobRef) -> { })
+				.build();
+
+		queue = defaultJobQueue()
+				.withCachedThreadPool(false)
+				.withMaxAmountOfThreads(1)
+				.withMaxPendingJobs(1, AdmissionPolicy.DROP_OLDEST)
+				.buildAndStart();
+		queue.add(blockingJob);
+		assertTrue(isStarted.await(5, TimeUnit.SECONDS), "Expected the blocking job to start");
+
+		assertEquals(AdmissionStatus.ACCEPTED, queue.tryAdd(droppedJob)); // Takes the resource, but no worker is free
+		assertEquals(AdmissionStatus.ACCEPTED_DROPPED_OLDEST, queue.tryAdd(admittedJob));
+		assertEquals(JobStatus.CANCELED, droppedJob.getStatus());
+
+		isReleased.countDown();
+		await(() -> admittedJob.getStatus().isFinished());
+		assertEquals(JobStatus.FINISHED, admittedJob.getStatus());
+	}
+
+	@Test
+	public void canAddJobsInBulk() {
+		final int amountOfJobs = 1000;
+		AtomicInteger executedJobs = new AtomicInteger(0);
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < amountOfJobs; i++) {
+			jobs.add(Job.builder()
+					.withAction((jobRef) -> executedJobs.incrementAndGet())
+					.build());
+		}
+
+		queue = defaultJobQueue(false).buildAndStart();
+		queue.addAll(jobs.stream());
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+
+		assertEquals(amountOfJobs, executedJobs.get());
+		assertEquals(amountOfJobs, jobs.stream().mapToLong(Job::getJobId).distinct().count(), "Expected unique job IDs");
+		jobs.forEach(job -> assertEquals(job, queue.getJobById(job.getJobId())));
+		assertEquals(amountOfJobs, jobQueueService.getFinishedJobs().size());
+	}
+
+	@Test
+	public void jobIdsAreAllocatedPerNode() {
+		final int amountOfJobs = 100;
+		final int nodeId = 5;
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < amountOfJobs; i++) {
+			jobs.add(Job.builder()
+					.withAction((jobRef) -> { })
+					.build());
+		}
+		final Job jobWithOwnId = Job.builder()
+				.withAction((jobRef) -> { })
+				.setJobIdAfterBuild()
+				.build();
+
+		queue = defaultJobQueue(false)
+				.withJobIdAllocator(new NodePartitionedJobIdAllocator(nodeId))
+				.buildAndStart();
+		queue.addAll(jobs);
+		queue.add(jobWithOwnId);
+		jobWithOwnId.setJobId(Long.MAX_VALUE / 2);
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+
+		assertEquals(amountOfJobs, jobs.stream().mapToLong(Job::getJobId).distinct().count(), "Expected unique job IDs");
+		jobs.forEach(job -> assertEquals(nodeId, NodePartitionedJobIdAllocator.getNodeId(job.getJobId())));
+		assertEquals(JobStatus.FINISHED, jobWithOwnId.getStatus());
+		assertEquals(jobWithOwnId, queue.getJobById(Long.MAX_VALUE / 2));
+	}
+
+	@Test
+	public void canRecordMetrics() {
+		JobQueueMetricsRegistry registry = new JobQueueMetricsRegistry();
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			jobs.add(Job.builder()
+					.withResourceKey(i % 2 == 0 ? "even" : null)
+					.withAction((jobRef) -> Thread.sleep(5))
+					.build());
+		}
+		jobs.add(Job.builder()
+				.withAction((jobRef) -> {
+					throw new IllegalStateException("test");
+				})
+				.build());
+
+		queue = defaultJobQueue(false)
+				.withMetrics(registry, "canRecordMetrics")
+				.withPredefinedJobs(jobs)
+				.buildAndStart();
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+
+		JobQueueMetricsSnapshot snapshot = registry.getSnapshot("canRecordMetrics");
+		assertEquals(10, snapshot.getStatusCount(JobStatus.FINISHED));
+		assertEquals(1, snapshot.getStatusCount(JobStatus.FAILED));
+		assertEquals(11, snapshot.getAllJobs().getWaitTime().getCount());
+		assertEquals(11, snapshot.getAllJobs().getRunTime().getCount());
+		assertTrue(snapshot.getAllJobs().getRunTime().getPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(5));
+		assertEquals(5, snapshot.getTimingsByResourceKey().get("even").getRunTime().getCount());
+		assertEquals(0, snapshot.getGauge(JobQueueMetrics.GAUGE_READY_JOBS));
+	}
+
+	@Test
+	public void finishedJobsAreEvictedByRetentionPolicy() {
+		final String resourceKey = "finishedJobsAreEvictedByRetentionPolicy";
+		List<Job> evictedJobs = Collections.synchronizedList(new ArrayList<>());
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			jobs.add(Job.builder()
+					.withResourceKey(i < 6 ? resourceKey : null)
+					.withAction((jobRef) -> { })
+					.build());
+		}
+
+		queue = defaultJobQueue()
+				.withRetentionPolicy(RetentionPolicy.builder()
+						.withMaxFinishedJobs(10)
+						.withMaxFinishedJobsPerResourceKey(2)
+						.withOnEviction(evictedJobs::add)
+						.build())
+				.withPredefinedJobs(jobs)
+				.buildAndStart();
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+
+		assertEquals(10, jobQueueService.getFinishedJobs().size());
+		assertEquals(6, evictedJobs.size());
+		assertTrue(jobQueueService.getFinishedJobs().values().stream()
+				.filter(job -> resourceKey.equals(job.getResourceKey()))
+				.count() <= 2, "Expected at most 2 finished jobs with the resource key");
+		evictedJobs.forEach(job -> assertNull(queue.getJobById(job.getJobId())));
+	}
+
+	@Test
+	public void canPersistStatusChangesAsynchronously() {
+		final int amountOfJobs = 100;
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < amountOfJobs; i++) {
+			jobs.add(Job.builder()
+					.withAction((jobRef) -> { })
+					.build());
+		}
+
+		queue = defaultJobQueue()
+				.withAsyncStatusPersistence(1, TimeUnit.SECONDS)
+				.withPredefinedJobs(jobs)
+				.buildAndStart();
+		queue.stopAndAwait(10, TimeUnit.SECONDS);
+
+		jobs.forEach(job -> assertEquals(JobStatus.FINISHED, job.getStatus()));
+		assertEquals(amountOfJobs, jobQueueService.getFinishedJobs().size(), "Expected the changes to be flushed when stopped");
+		assertEquals(0, jobQueueService.getPendingJobs().size());
+		assertEquals(0, jobQueueService.getRunningJobs().size());
+	}
+
 	@Test
 	public void jobActionCanReferToItself() {
 		final long jobId = 50;
@@ -0,0 +1,119 @@
+package com.frejdh.util.job.tests;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.JobFunction;
+import com.frejdh.util.job.exceptions.InvalidJobStateException;
+import com.frejdh.util.job.model.JobStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JobFunctionTest {
+
+	private static JobFunction.JobFunctionBuilder jobFunction() {
+		return JobFunction.builder().action((jobRef) -> { });
+	}
+
+	private static Job job(JobFunction jobFunction) {
+		return new Job(jobFunction, 1, null, null, null);
+	}
+
+	@Test
+	public void callbacksAreExecutedInTheOrderTheyWereAdded() {
+		List<String> executedCallbacks = new ArrayList<>();
+		JobFunction jobFunction = jobFunction()
+				.onJobCallback((jobRef) -> executedCallbacks.add("built"))
+				.build();
+		Job job = job(jobFunction);
+		jobFunction.addOnCallback((jobRef) -> executedCallbacks.add("added"));
+		job.appendOnJobCallback((jobRef) -> executedCallbacks.add("appended"));
+
+		assertEquals(3, jobFunction.getOnJobCallbacks().size());
+		job.start();
+		assertEquals(Arrays.asList("built", "added", "appended"), executedCallbacks);
+		assertEquals(JobStatus.FINISHED, job.getStatus());
+	}
+
+	@Test
+	public void errorCallbacksCanBePrependedOrAppended() {
+		List<String> executedCallbacks = new ArrayList<>();
+		JobFunction jobFunction = JobFunction.builder()
+				.action((jobRef) -> { throw new IllegalStateException("Failed"); })
+				.onJobError((jobRef, throwable) -> executedCallbacks.add("built"))
+				.build();
+		Job job = job(jobFunction);
+		jobFunction.addOnJobError((jobRef, throwable) -> executedCallbacks.add("appended"), false);
+		jobFunction.addOnJobError((jobRef, throwable) -> executedCallbacks.add("prepended"), true);
+		job.appendOnJobError((jobRef, throwable) -> executedCallbacks.add("appended last"));
+		jobFunction.addOnJobError((jobRef, throwable) -> executedCallbacks.add("prepended last"), true);
+
+		job.start();
+		assertEquals(JobStatus.FAILED, job.getStatus());
+		assertEquals(Arrays.asList("prepended last", "prepended", "built", "appended", "appended last"), executedCallbacks);
+	}
+
+	@Test
+	public void addedCallbacksDontLeakToJobsWithoutCallbacks() {
+		List<String> executedCallbacks = new ArrayList<>();
+		JobFunction jobFunctionWithCallbacks = jobFunction().build();
+		JobFunction jobFunctionWithoutCallbacks = jobFunction().build();
+		Job jobWithCallbacks = job(jobFunctionWithCallbacks);
+		Job jobWithoutCallbacks = job(jobFunctionWithoutCallbacks);
+
+		jobWithCallbacks.appendOnJobCallback((jobRef) -> executedCallbacks.add("callback"));
+		jobWithCallbacks.appendOnJobError((jobRef, throwable) -> executedCallbacks.add("error"));
+		jobWithCallbacks.appendOnJobFinalize((jobRef) -> executedCallbacks.add("finalize"));
+		jobWithCallbacks.appendOnJobStatusChange((jobRef) -> executedCallbacks.add("status change"));
+
+		assertTrue(jobFunctionWithoutCallbacks.getOnJobCallbacks().isEmpty());
+		assertTrue(jobFunctionWithoutCallbacks.getOnJobErrors().isEmpty());
+		assertTrue(jobFunction().build().getOnJobCallbacks().isEmpty());
+		assertTrue(jobFunction().build().getOnJobErrors().isEmpty());
+
+		jobWithoutCallbacks.start();
+		assertEquals(Collections.emptyList(), executedCallbacks);
+		assertEquals(JobStatus.FINISHED, jobWithoutCallbacks.getStatus());
+
+		jobWithCallbacks.start();
+		assertEquals(Arrays.asList("status change", "status change", "callback", "status change", "finalize"), executedCallbacks);
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void setStatusNeverChangesAFinishedStatus() {
+		List<JobStatus> statusChanges = new ArrayList<>();
+		JobFunction jobFunction = jobFunction()
+				.onStatusChange((jobRef) -> statusChanges.add(jobRef.getStatus()))
+				.build();
+		job(jobFunction);
+
+		jobFunction.setStatus(JobStatus.FINISHED);
+		assertFalse(jobFunction.transitionTo(JobStatus.RUNNING_ACTION));
+		assertFalse(jobFunction.compareAndSetStatus(JobStatus.FINISHED, JobStatus.RUNNING_ACTION));
+		assertEquals(JobStatus.FINISHED, jobFunction.getStatus());
+
+		assertThrows(InvalidJobStateException.class, () -> jobFunction.setStatus(JobStatus.INITIALIZED));
+		assertThrows(InvalidJobStateException.class, () -> jobFunction.setStatus(JobStatus.CANCELED));
+		assertEquals(JobStatus.FINISHED, jobFunction.getStatus());
+		assertEquals(Collections.singletonList(JobStatus.FINISHED), statusChanges);
+	}
+
+	@Test
+	public void callbackListsAreUnmodifiable() {
+		JobFunction jobFunction = jobFunction().build();
+		jobFunction.addOnCallback((jobRef) -> { });
+
+		assertThrows(UnsupportedOperationException.class, () -> jobFunction.getOnJobCallbacks().clear());
+		assertThrows(UnsupportedOperationException.class, () -> jobFunction.getOnJobErrors().add((jobRef, throwable) -> { }));
+		assertEquals(1, jobFunction.getOnJobCallbacks().size());
+	}
+
+}
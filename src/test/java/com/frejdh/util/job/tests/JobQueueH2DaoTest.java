@@ -0,0 +1,276 @@
+package com.frejdh.util.job.tests;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.JobQueue;
+import com.frejdh.util.job.model.JobStatus;
+import com.frejdh.util.job.model.RecoveryPolicy;
+import com.frejdh.util.job.persistence.JobQueueService;
+import com.frejdh.util.job.persistence.JobRecord;
+import com.frejdh.util.job.persistence.cluster.LeasedResourceLockProvider;
+import com.frejdh.util.job.persistence.id.BlockLeasingJobIdAllocator;
+import com.frejdh.util.job.persistence.impl.h2.H2ClusteredJobQueueDao;
+import com.frejdh.util.job.persistence.impl.h2.H2JobQueueDao;
+import com.frejdh.util.job.scheduling.ResourceLockProvider;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class JobQueueH2DaoTest extends AbstractJobQueueDaoTest {
+
+	private static final String JDBC_URL = "jdbc:h2:mem:job-queue-test;DB_CLOSE_DELAY=-1";
+
+	protected JobQueueH2DaoTest() {
+		super(new JobQueueService(new H2JobQueueDao(JDBC_URL)));
+	}
+
+	@Test
+	public void jobsArePersisted() throws Exception {
+		final Job job = Job.builder()
+				.withAction((jobRef) -> { })
+				.withResourceKey("jobsArePersisted")
+				.build();
+
+		queue = defaultJobQueue()
+				.runOnceOnly()
+				.withPredefinedJobs(Collections.singletonList(job))
+				.buildAndStart();
+		assertTrue(queue.stopAndAwait(1000, TimeUnit.SECONDS));
+
+		try (Connection connection = DriverManager.getConnection(JDBC_URL);
+			 Statement statement = connection.createStatement();
+			 ResultSet resultSet = statement.executeQuery("SELECT STATUS, RESOURCE_KEY FROM JOB_QUEUE_JOBS WHERE ID = " + job.getJobId())) {
+			assertTrue(resultSet.next(), "Expected the job to be persisted");
+			assertEquals("FINISHED", resultSet.getString("STATUS"));
+			assertEquals("jobsArePersisted", resultSet.getString("RESOURCE_KEY"));
+		}
+	}
+
+	@Test
+	public void unfinishedJobsAreRecoveredOnStartup() {
+		String jdbcUrl = "jdbc:h2:mem:job-queue-recovery-test;DB_CLOSE_DELAY=-1";
+		Job interruptedJob = Job.builder()
+				.withAction((jobRef) -> { })
+				.withResourceKey("unfinishedJobsAreRecoveredOnStartup")
+				.withStatus(JobStatus.RUNNING_ACTION)
+				.build();
+		try (H2JobQueueDao previousDao = new H2JobQueueDao(jdbcUrl)) {
+			previousDao.upsertJob(interruptedJob);
+		}
+
+		AtomicInteger executions = new AtomicInteger();
+		try (H2JobQueueDao dao = new H2JobQueueDao(jdbcUrl)) {
+			JobQueueService daoService = new JobQueueService(dao);
+			queue = defaultJobQueue()
+					.withCustomDaoService(daoService)
+					.withRecovery(record -> Job.builder()
+							.withAction((jobRef) -> executions.incrementAndGet())
+							.withResourceKey(record.getResourceKey())
+							.build(), RecoveryPolicy.REQUEUE)
+					.runOnceOnly()
+					.buildAndStart();
+			assertTrue(queue.stopAndAwait(1000, TimeUnit.SECONDS));
+
+			assertEquals(1, executions.get());
+			assertEquals(JobStatus.FINISHED, daoService.getJobById(interruptedJob.getJobId()).getStatus());
+			Job newJob = daoService.upsertJob(Job.builder().withAction((jobRef) -> { }).build());
+			assertTrue(newJob.getJobId() > interruptedJob.getJobId(), "Expected new job IDs to continue after the persisted ones");
+		}
+	}
+
+	@Test
+	public void multiResourceJobsAreRecoveredWithAllResourceKeys() {
+		String jdbcUrl = "jdbc:h2:mem:job-queue-multi-resource-recovery-test;DB_CLOSE_DELAY=-1";
+		Job interruptedJob = Job.builder()
+				.withAction((jobRef) -> { })
+				.withResourceKeys("b", "a")
+				.withStatus(JobStatus.RUNNING_ACTION)
+				.build();
+		try (H2JobQueueDao previousDao = new H2JobQueueDao(jdbcUrl)) {
+			previousDao.upsertJob(interruptedJob);
+		}
+
+		AtomicReference<List<String>> executedResourceKeys = new AtomicReference<>();
+		try (H2JobQueueDao dao = new H2JobQueueDao(jdbcUrl)) {
+			queue = defaultJobQueue()
+					.withCustomDaoService(new JobQueueService(dao))
+					.withRecovery(record -> Job.builder()
+							.withAction((jobRef) -> executedResourceKeys.set(jobRef.getResourceKeys()))
+							.withResourceKeys(record.getResourceKeys())
+							.build(), RecoveryPolicy.REQUEUE)
+					.runOnceOnly()
+					.buildAndStart();
+			assertTrue(queue.stopAndAwait(1000, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList("a", "b"), executedResourceKeys.get());
+		}
+	}
+
+	@Test
+	public void jobIdBlocksAreLeasedOnce() {
+		String jdbcUrl = "jdbc:h2:mem:job-queue-id-blocks-test;DB_CLOSE_DELAY=-1";
+		try (H2JobQueueDao firstDao = new H2JobQueueDao(jdbcUrl); H2JobQueueDao secondDao = new H2JobQueueDao(jdbcUrl)) {
+			BlockLeasingJobIdAllocator firstAllocator = new BlockLeasingJobIdAllocator(firstDao, 10);
+			BlockLeasingJobIdAllocator secondAllocator = new BlockLeasingJobIdAllocator(secondDao, 10);
+			Set<Long> jobIds = new HashSet<>();
+			for (int i = 0; i < 25; i++) {
+				assertTrue(jobIds.add(firstAllocator.nextJobId()), "Expected unique job IDs");
+				assertTrue(jobIds.add(secondAllocator.nextJobId()), "Expected unique job IDs");
+			}
+		}
+	}
+
+	@Test
+	public void jobsOfExpiredLeasesAreClaimed() throws InterruptedException {
+		String jdbcUrl = "jdbc:h2:mem:job-queue-claim-test;DB_CLOSE_DELAY=-1";
+		Job interruptedJob = Job.builder()
+				.withAction((jobRef) -> { })
+				.withResourceKey("jobsOfExpiredLeasesAreClaimed")
+				.withStatus(JobStatus.RUNNING_ACTION)
+				.build();
+		try (H2ClusteredJobQueueDao deadNode = new H2ClusteredJobQueueDao(jdbcUrl, "dead-node", 1000, TimeUnit.MILLISECONDS)) {
+			deadNode.upsertJob(interruptedJob);
+		}
+
+		CountDownLatch executed = new CountDownLatch(1);
+		AtomicInteger executions = new AtomicInteger();
+		try (H2ClusteredJobQueueDao dao = new H2ClusteredJobQueueDao(jdbcUrl, "live-node", 1000, TimeUnit.MILLISECONDS)) {
+			JobQueueService daoService = new JobQueueService(dao);
+			queue = clusteredJobQueue(daoService, dao, executions, executed, null);
+			assertTrue(executed.await(10, TimeUnit.SECONDS), "Expected the job of the dead node to be claimed");
+			assertTrue(queue.stopAndAwait(10, TimeUnit.SECONDS));
+
+			assertEquals(1, executions.get());
+			assertEquals(JobStatus.FINISHED, daoService.getJobById(interruptedJob.getJobId()).getStatus());
+		}
+	}
+
+	@Test
+	public void submittedJobsAreClaimedOnce() throws InterruptedException {
+		String jdbcUrl = "jdbc:h2:mem:job-queue-submit-test;DB_CLOSE_DELAY=-1";
+		int amountOfJobs = 20;
+		CountDownLatch executed = new CountDownLatch(amountOfJobs);
+		AtomicInteger executions = new AtomicInteger();
+		Set<Long> executedJobIds = ConcurrentHashMap.newKeySet();
+		try (H2ClusteredJobQueueDao firstDao = new H2ClusteredJobQueueDao(jdbcUrl, "first-node", 1000, TimeUnit.MILLISECONDS);
+			 H2ClusteredJobQueueDao secondDao = new H2ClusteredJobQueueDao(jdbcUrl, "second-node", 1000, TimeUnit.MILLISECONDS)) {
+			queue = clusteredJobQueue(new JobQueueService(firstDao), firstDao, executions, executed, executedJobIds);
+			JobQueue secondQueue = clusteredJobQueue(new JobQueueService(secondDao), secondDao, executions, executed, executedJobIds);
+			try {
+				for (int i = 0; i < amountOfJobs; i++) {
+					firstDao.submit(JobRecord.builder().withResourceKey("submittedJobsAreClaimedOnce").build());
+				}
+				assertTrue(executed.await(10, TimeUnit.SECONDS), "Expected all submitted jobs to be claimed");
+				Thread.sleep(1500); // Long enough for another lease to expire, should a job be claimed twice
+			} finally {
+				secondQueue.stopNow();
+			}
+
+			assertEquals(amountOfJobs, executions.get());
+			assertEquals(amountOfJobs, executedJobIds.size());
+		}
+	}
+
+	@Test
+	public void resourceLeasesAreFencedAcrossNodes() throws InterruptedException {
+		String jdbcUrl = "jdbc:h2:mem:job-queue-resource-lease-test;DB_CLOSE_DELAY=-1";
+		try (H2ClusteredJobQueueDao firstDao = new H2ClusteredJobQueueDao(jdbcUrl, "first-node", 1000, TimeUnit.MILLISECONDS);
+			 H2ClusteredJobQueueDao secondDao = new H2ClusteredJobQueueDao(jdbcUrl, "second-node", 1000, TimeUnit.MILLISECONDS);
+			 LeasedResourceLockProvider firstProvider = new LeasedResourceLockProvider(firstDao, 0, TimeUnit.MILLISECONDS);
+			 LeasedResourceLockProvider secondProvider = new LeasedResourceLockProvider(secondDao, 0, TimeUnit.MILLISECONDS)) {
+			assertTrue(firstProvider.tryAcquire("resource"));
+			assertTrue(firstProvider.tryAcquire("resource"), "Expected the lease to be reentrant");
+			assertFalse(secondProvider.tryAcquire("resource"), "Expected the resource to be held by the first node");
+			Thread.sleep(1500); // Longer than the lease, which the heartbeat renews meanwhile
+			assertFalse(secondProvider.tryAcquire("resource"), "Expected the lease to be renewed");
+
+			long firstFencingToken = firstProvider.getFencingToken("resource");
+			firstProvider.release("resource");
+			long timeout = System.currentTimeMillis() + 5000;
+			while (!secondProvider.tryAcquire("resource") && System.currentTimeMillis() < timeout) {
+				Thread.sleep(20);
+			}
+			assertTrue(secondProvider.getFencingToken("resource") > firstFencingToken, "Expected a greater fencing token");
+			assertEquals(ResourceLockProvider.NO_FENCING_TOKEN, firstProvider.getFencingToken("resource"));
+		}
+	}
+
+	@Test
+	public void resourceKeysAreExclusiveAcrossQueues() throws InterruptedException {
+		String jdbcUrl = "jdbc:h2:mem:job-queue-resource-lock-test;DB_CLOSE_DELAY=-1";
+		int amountOfJobsPerQueue = 5;
+		CountDownLatch executed = new CountDownLatch(amountOfJobsPerQueue * 2);
+		AtomicInteger runningJobs = new AtomicInteger();
+		AtomicInteger maxRunningJobs = new AtomicInteger();
+		try (H2ClusteredJobQueueDao firstDao = new H2ClusteredJobQueueDao(jdbcUrl, "first-node", 1000, TimeUnit.MILLISECONDS);
+			 H2ClusteredJobQueueDao secondDao = new H2ClusteredJobQueueDao(jdbcUrl, "second-node", 1000, TimeUnit.MILLISECONDS);
+			 LeasedResourceLockProvider firstProvider = new LeasedResourceLockProvider(firstDao, 0, TimeUnit.MILLISECONDS);
+			 LeasedResourceLockProvider secondProvider = new LeasedResourceLockProvider(secondDao, 0, TimeUnit.MILLISECONDS)) {
+			queue = defaultJobQueue()
+					.withCustomDaoService(new JobQueueService(firstDao))
+					.withResourceLockProvider(firstProvider)
+					.buildAndStart();
+			JobQueue secondQueue = defaultJobQueue()
+					.withCustomDaoService(new JobQueueService(secondDao))
+					.withResourceLockProvider(secondProvider)
+					.buildAndStart();
+			try {
+				for (int i = 0; i < amountOfJobsPerQueue; i++) {
+					for (JobQueue jobQueue : new JobQueue[] {queue, secondQueue}) {
+						jobQueue.add(Job.builder()
+								.withAction((jobRef) -> {
+									maxRunningJobs.accumulateAndGet(runningJobs.incrementAndGet(), Math::max);
+									try {
+										Thread.sleep(20);
+									} finally {
+										runningJobs.decrementAndGet();
+										executed.countDown();
+									}
+								})
+								.withResourceKey("shared-resource")
+								.build());
+					}
+				}
+				assertTrue(executed.await(20, TimeUnit.SECONDS), "Expected all jobs to be executed");
+			} finally {
+				secondQueue.stopNow();
+			}
+			assertEquals(1, maxRunningJobs.get(), "Expected the jobs of the resource to never run at the same time");
+		}
+	}
+
+	private JobQueue clusteredJobQueue(JobQueueService daoService, H2ClusteredJobQueueDao dao, AtomicInteger executions,
+									   CountDownLatch executed, Set<Long> executedJobIds) {
+		return defaultJobQueue()
+				.withCustomDaoService(daoService)
+				.withRecovery(record -> Job.builder()
+						.withAction((jobRef) -> {
+							executions.incrementAndGet();
+							if (executedJobIds != null) {
+								executedJobIds.add(jobRef.getJobId());
+							}
+							executed.countDown();
+						})
+						.withResourceKey(record.getResourceKey())
+						.build(), RecoveryPolicy.REQUEUE)
+				.withClustering(dao, 5)
+				.buildAndStart();
+	}
+
+}
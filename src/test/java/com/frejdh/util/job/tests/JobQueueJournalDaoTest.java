@@ -0,0 +1,268 @@
+package com.frejdh.util.job.tests;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.model.JobStatus;
+import com.frejdh.util.job.model.RecoveryPolicy;
+import com.frejdh.util.job.persistence.JobQueueService;
+import com.frejdh.util.job.persistence.JobRecord;
+import com.frejdh.util.job.persistence.config.RetentionPolicy;
+import com.frejdh.util.job.persistence.impl.journal.JournalJobQueueDao;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class JobQueueJournalDaoTest extends AbstractJobQueueDaoTest {
+
+	private final JournalJobQueueDao journalDao;
+	private final Path directory;
+
+	protected JobQueueJournalDaoTest() {
+		super(new JobQueueService(new JournalJobQueueDao(createTemporaryDirectory().resolve("job-queue").toString())));
+		this.journalDao = (JournalJobQueueDao) jobQueueService.getImplementation();
+		this.directory = Paths.get(journalDao.getFile()).getParent();
+	}
+
+	private static Path createTemporaryDirectory() {
+		try {
+			return Files.createTempDirectory("job-queue-journal-test");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@AfterEach
+	@Override
+	public void afterTests() {
+		super.afterTests();
+		journalDao.close();
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.deleteIfExists(path);
+			}
+		} catch (IOException e) {
+			LOGGER.warning("Failed to delete " + directory + ": " + e);
+		}
+	}
+
+	@Test
+	public void jobsAreRecoveredFromTheJournal() {
+		final Job job = Job.builder()
+				.withAction((jobRef) -> { })
+				.withResourceKey("jobsAreRecoveredFromTheJournal")
+				.build();
+
+		queue = defaultJobQueue()
+				.runOnceOnly()
+				.withPredefinedJobs(Collections.singletonList(job))
+				.buildAndStart();
+		assertTrue(queue.stopAndAwait(1000, TimeUnit.SECONDS));
+		journalDao.close();
+
+		try (JournalJobQueueDao reopenedDao = new JournalJobQueueDao(journalDao.getFile())) {
+			JobRecord record = reopenedDao.getRecoveredJobs().get(job.getJobId());
+			assertNotNull(record, "Expected the job to be recovered");
+			assertEquals(JobStatus.FINISHED, record.getStatus());
+			assertEquals("jobsAreRecoveredFromTheJournal", record.getResourceKey());
+
+			Job newJob = reopenedDao.upsertJob(Job.builder().withAction((jobRef) -> { }).build());
+			assertTrue(newJob.getJobId() > job.getJobId(), "Expected new job IDs to continue after the recovered ones");
+		}
+	}
+
+	@Test
+	public void compactedJournalIsRecovered() throws IOException {
+		String file = directory.resolve("compacted").toString();
+		int amountOfJobs = 200;
+		try (JournalJobQueueDao dao = new JournalJobQueueDao(file, -1, TimeUnit.MILLISECONDS, 4096)) {
+			for (int i = 0; i < amountOfJobs; i++) {
+				dao.upsertJob(Job.builder()
+						.withAction((jobRef) -> { })
+						.withStatus(JobStatus.FINISHED)
+						.build());
+			}
+			dao.compact();
+			dao.upsertJob(Job.builder().withAction((jobRef) -> { }).build());
+		}
+
+		try (Stream<Path> paths = Files.list(directory)) {
+			assertTrue(paths.noneMatch(path -> path.getFileName().toString().equals("compacted.1.journal")),
+					"Expected the compacted journal to be deleted");
+		}
+		try (JournalJobQueueDao reopenedDao = new JournalJobQueueDao(file)) {
+			assertEquals(amountOfJobs + 1, reopenedDao.getRecoveredJobs().size());
+		}
+	}
+
+	@Test
+	public void compactionEvictsFinishedJobsOfPreviousRuns() throws IOException {
+		String file = directory.resolve("retained").toString();
+		Path snapshotPath = Paths.get(file + ".snapshot");
+		int amountOfJobs = 200;
+		long unfinishedJobId;
+		try (JournalJobQueueDao dao = new JournalJobQueueDao(file, -1, TimeUnit.MILLISECONDS, 4096)) {
+			for (int i = 0; i < amountOfJobs; i++) {
+				dao.upsertJob(Job.builder()
+						.withAction((jobRef) -> { })
+						.withStatus(JobStatus.FINISHED)
+						.build());
+			}
+			unfinishedJobId = dao.upsertJob(Job.builder()
+					.withAction((jobRef) -> { })
+					.withStatus(JobStatus.INITIALIZED)
+					.build()).getJobId();
+			dao.compact();
+		}
+		long unlimitedSnapshotSize = Files.size(snapshotPath);
+
+		try (JournalJobQueueDao dao = new JournalJobQueueDao(file, -1, TimeUnit.MILLISECONDS, 4096)) {
+			dao.setRetentionPolicy(RetentionPolicy.builder().withMaxFinishedJobs(10).build());
+			assertEquals(amountOfJobs + 1, dao.getRecoveredJobs().size());
+			dao.compact();
+		}
+		long retainedSnapshotSize = Files.size(snapshotPath);
+		assertTrue(retainedSnapshotSize < unlimitedSnapshotSize / 10,
+				"Expected the snapshot to shrink, was " + unlimitedSnapshotSize + " and is " + retainedSnapshotSize + " bytes");
+
+		try (JournalJobQueueDao reopenedDao = new JournalJobQueueDao(file)) {
+			Map<Long, JobRecord> recoveredJobs = reopenedDao.getRecoveredJobs();
+			assertEquals(11, recoveredJobs.size());
+			assertTrue(recoveredJobs.containsKey(unfinishedJobId), "Expected unfinished jobs to be kept");
+			long oldestRetainedJobId = recoveredJobs.keySet().stream().mapToLong(Long::longValue).min().orElse(0);
+			assertEquals(unfinishedJobId - 10, oldestRetainedJobId, "Expected the newest finished jobs to be kept");
+		}
+	}
+
+	@Test
+	public void interruptedJobsAreRequeuedOnStartup() {
+		long[] jobIds = persistJobsOfPreviousRun();
+		AtomicInteger executions = new AtomicInteger();
+		try (JournalJobQueueDao reopenedDao = new JournalJobQueueDao(journalDao.getFile())) {
+			JobQueueService reopenedService = new JobQueueService(reopenedDao);
+			queue = defaultJobQueue()
+					.withCustomDaoService(reopenedService)
+					.withRecovery(record -> Job.builder()
+							.withAction((jobRef) -> executions.incrementAndGet())
+							.withResourceKey(record.getResourceKey())
+							.build(), RecoveryPolicy.REQUEUE)
+					.runOnceOnly()
+					.buildAndStart();
+			assertTrue(queue.stopAndAwait(1000, TimeUnit.SECONDS));
+
+			assertEquals(2, executions.get());
+			assertEquals(JobStatus.FINISHED, reopenedService.getJobById(jobIds[0]).getStatus());
+			assertEquals(JobStatus.FINISHED, reopenedService.getJobById(jobIds[1]).getStatus());
+			assertNull(reopenedService.getJobById(jobIds[2]), "Expected finished jobs not to be recovered");
+		}
+	}
+
+	@Test
+	public void interruptedJobsAreFailedOnStartup() {
+		long[] jobIds = persistJobsOfPreviousRun();
+		AtomicInteger executions = new AtomicInteger();
+		try (JournalJobQueueDao reopenedDao = new JournalJobQueueDao(journalDao.getFile())) {
+			JobQueueService reopenedService = new JobQueueService(reopenedDao);
+			queue = defaultJobQueue()
+					.withCustomDaoService(reopenedService)
+					.withRecovery(record -> Job.builder()
+							.withAction((jobRef) -> executions.incrementAndGet())
+							.build(), RecoveryPolicy.FAIL)
+					.runOnceOnly()
+					.buildAndStart();
+			assertTrue(queue.stopAndAwait(1000, TimeUnit.SECONDS));
+
+			assertEquals(1, executions.get());
+			assertEquals(JobStatus.FAILED, reopenedService.getJobById(jobIds[0]).getStatus());
+			assertEquals(JobStatus.FINISHED, reopenedService.getJobById(jobIds[1]).getStatus());
+		}
+		try (JournalJobQueueDao reopenedDao = new JournalJobQueueDao(journalDao.getFile())) {
+			assertEquals(0, reopenedDao.streamUnfinishedJobs().count(), "Expected the recovered jobs to be persisted as finished");
+		}
+	}
+
+	@Test
+	public void multiResourceJobsAreRecoveredWithAllResourceKeys() {
+		long jobId = journalDao.upsertJob(Job.builder()
+				.withAction((jobRef) -> { })
+				.withResourceKeys("b", "a")
+				.withStatus(JobStatus.RUNNING_ACTION)
+				.build()).getJobId();
+		journalDao.close();
+
+		AtomicReference<List<String>> executedResourceKeys = new AtomicReference<>();
+		try (JournalJobQueueDao reopenedDao = new JournalJobQueueDao(journalDao.getFile())) {
+			assertEquals(Arrays.asList("a", "b"), reopenedDao.getRecoveredJobs().get(jobId).getResourceKeys());
+			queue = defaultJobQueue()
+					.withCustomDaoService(new JobQueueService(reopenedDao))
+					.withRecovery(record -> Job.builder()
+							.withAction((jobRef) -> executedResourceKeys.set(jobRef.getResourceKeys()))
+							.withResourceKeys(record.getResourceKeys())
+							.build(), RecoveryPolicy.REQUEUE)
+					.runOnceOnly()
+					.buildAndStart();
+			assertTrue(queue.stopAndAwait(1000, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList("a", "b"), executedResourceKeys.get());
+		}
+	}
+
+	@Test
+	public void failedRunningJobIsNotRedispatchedOnStartup() {
+		long[] jobIds = persistJobsOfPreviousRun();
+		try (JournalJobQueueDao reopenedDao = new JournalJobQueueDao(journalDao.getFile())) {
+			JobQueueService reopenedService = new JobQueueService(reopenedDao);
+			long addedTimestamp = reopenedDao.getRecoveredJobs().get(jobIds[0]).getAddedTimestamp();
+			queue = defaultJobQueue()
+					.withCustomDaoService(reopenedService)
+					.withRecovery(record -> Job.builder()
+							.withAction((jobRef) -> { })
+							.build(), RecoveryPolicy.FAIL)
+					.runOnceOnly()
+					.buildAndStart();
+			assertTrue(queue.stopAndAwait(1000, TimeUnit.SECONDS));
+
+			Job failedJob = reopenedService.getJobById(jobIds[0]);
+			assertEquals(JobStatus.FAILED, failedJob.getStatus());
+			assertEquals(addedTimestamp, failedJob.getAddedTimestamp(), "Expected the failed job not to be added as a new job");
+			assertEquals(0, failedJob.getStartTimestamp(), "Expected the failed job not to be started");
+		}
+	}
+
+	/**
+	 * Persists a job that was running, a pending job and a finished job, as if the process died, and closes the DAO.
+	 * @return The IDs of the jobs, in that order.
+	 */
+	private long[] persistJobsOfPreviousRun() {
+		JobStatus[] statuses = {JobStatus.RUNNING_ACTION, JobStatus.INITIALIZED, JobStatus.FINISHED};
+		long[] jobIds = new long[statuses.length];
+		for (int i = 0; i < statuses.length; i++) {
+			jobIds[i] = journalDao.upsertJob(Job.builder()
+					.withAction((jobRef) -> { })
+					.withResourceKey("recovery")
+					.withStatus(statuses[i])
+					.build()).getJobId();
+		}
+		journalDao.close();
+		return jobIds;
+	}
+
+}
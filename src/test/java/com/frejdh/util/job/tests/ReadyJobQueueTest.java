@@ -0,0 +1,90 @@
+package com.frejdh.util.job.tests;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.model.JobOptions;
+import com.frejdh.util.job.scheduling.ReadyJobQueue;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReadyJobQueueTest {
+
+	private static Job job(String description, int priority) {
+		return Job.builder()
+				.withAction((jobRef) -> { })
+				.withDescription(description)
+				.withJobOptions(JobOptions.builder().withPriority(priority).build())
+				.build();
+	}
+
+	private static List<String> pollAll(ReadyJobQueue readyJobs) {
+		List<String> descriptions = new ArrayList<>();
+		ReadyJobQueue.ReadyJob readyJob;
+		while ((readyJob = readyJobs.poll()) != null) {
+			descriptions.add(readyJob.getJob().getDescription());
+		}
+		return descriptions;
+	}
+
+	@Test
+	public void equalPrioritiesArePolledInFifoOrder() {
+		ReadyJobQueue readyJobs = new ReadyJobQueue();
+		for (int i = 0; i < 100; i++) {
+			readyJobs.offer(job(Integer.toString(i), 0));
+		}
+
+		List<String> polledJobs = pollAll(readyJobs);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(Integer.toString(i), polledJobs.get(i));
+		}
+		assertTrue(readyJobs.isEmpty());
+	}
+
+	@Test
+	public void higherPrioritiesArePolledFirst() {
+		ReadyJobQueue readyJobs = new ReadyJobQueue();
+		readyJobs.offer(job("low-first", 0));
+		readyJobs.offer(job("medium", 5));
+		readyJobs.offer(job("low-second", 0));
+		readyJobs.offer(job("high", 10));
+		readyJobs.offer(job("negative", -1));
+
+		assertEquals(Arrays.asList("high", "medium", "low-first", "low-second", "negative"), pollAll(readyJobs));
+	}
+
+	@Test
+	public void putBackKeepsTheOriginalPosition() {
+		ReadyJobQueue readyJobs = new ReadyJobQueue();
+		readyJobs.offer(job("first", 0));
+		readyJobs.offer(job("second", 0));
+		ReadyJobQueue.ReadyJob first = readyJobs.poll();
+		readyJobs.offer(job("third", 0));
+
+		readyJobs.putBack(first);
+		assertEquals(3, readyJobs.size());
+		assertEquals(Arrays.asList("first", "second", "third"), pollAll(readyJobs));
+		assertNull(readyJobs.poll());
+	}
+
+	@Test
+	public void agedJobsOvertakeHigherPriorities() throws Throwable {
+		ReadyJobQueue readyJobs = new ReadyJobQueue(10, TimeUnit.MILLISECONDS);
+		Job oldJob = job("old", 0);
+		readyJobs.offer(oldJob);
+		Thread.sleep(50); // Five aging intervals
+
+		readyJobs.offer(job("one-step-higher", 1));
+		readyJobs.offer(job("much-higher", 100));
+		assertEquals("much-higher", readyJobs.poll().getJob().getDescription());
+		assertSame(oldJob, readyJobs.poll().getJob(), "Expected the old job to have aged past one priority step");
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.frejdh.util.job.tests;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.scheduling.ResourceLockManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResourceLockManagerTest {
+
+	private final AtomicLong jobIds = new AtomicLong();
+	private final List<Job> waitingJobs = new ArrayList<>();
+
+	private Job job(String resourceKey) {
+		return Job.builder()
+				.withAction((jobRef) -> { })
+				.withJobId(jobIds.incrementAndGet())
+				.withResourceKey(resourceKey)
+				.build();
+	}
+
+	@Test
+	public void waitingJobsAreHandedTheResourceInFifoOrder() {
+		ResourceLockManager resourceLocks = new ResourceLockManager(waitingJobs::add);
+		Job owner = job("K");
+		List<Job> jobs = Arrays.asList(job("K"), job("K"), job("K"), job("K"));
+
+		assertTrue(resourceLocks.tryAcquire(owner));
+		for (Job job : jobs) {
+			assertFalse(resourceLocks.tryAcquire(job));
+		}
+		assertEquals(jobs, waitingJobs);
+
+		Job currentOwner = owner;
+		for (Job job : jobs) {
+			assertEquals(Collections.singletonList(job), resourceLocks.release(currentOwner));
+			assertFalse(resourceLocks.isResourceFree("K"));
+			assertTrue(resourceLocks.tryAcquire(job)); // Reentrant, as it was handed the resource
+			currentOwner = job;
+		}
+
+		assertEquals(Collections.emptyList(), resourceLocks.release(currentOwner));
+		assertTrue(resourceLocks.isResourceFree("K"));
+	}
+
+	@Test
+	public void distinctResourceKeysOfTheSameStripeDontBlockEachOther() {
+		ResourceLockManager resourceLocks = new ResourceLockManager(1, waitingJobs::add); // All keys share one stripe
+		Job ownerOfA = job("A");
+		Job ownerOfB = job("B");
+		Job waitingForA = job("A");
+
+		assertTrue(resourceLocks.tryAcquire(ownerOfA));
+		assertFalse(resourceLocks.tryAcquire(waitingForA));
+		assertTrue(resourceLocks.tryAcquire(ownerOfB));
+		assertEquals(Collections.singletonList(waitingForA), waitingJobs);
+
+		assertEquals(Collections.emptyList(), resourceLocks.release(ownerOfB));
+		assertTrue(resourceLocks.isResourceFree("B"));
+		assertFalse(resourceLocks.isResourceFree("A"));
+
+		assertEquals(Collections.singletonList(waitingForA), resourceLocks.release(ownerOfA));
+		assertEquals(Collections.emptyList(), resourceLocks.release(waitingForA));
+		assertTrue(resourceLocks.isResourceFree("A"));
+	}
+
+	@Test
+	public void waitingJobsAreNotifiedWithoutHoldingAnyStripe() throws Exception {
+		ExecutorService otherThread = Executors.newSingleThreadExecutor();
+		ResourceLockManager[] resourceLocks = new ResourceLockManager[1];
+		resourceLocks[0] = new ResourceLockManager(1, job -> { // All keys share one stripe
+			try { // Locks the stripe from another thread
+				otherThread.submit(() -> resourceLocks[0].getAvailablePermits("other")).get(5, TimeUnit.SECONDS);
+			} catch (Exception e) {
+				throw new IllegalStateException("Expected the stripe to be free", e);
+			}
+			waitingJobs.add(job);
+		});
+
+		try {
+			Job ownerOfA = job("A");
+			Job ownerOfB = job("B");
+			Job waitingForA = job("A");
+			Job waitingForBoth = Job.builder()
+					.withAction((jobRef) -> { })
+					.withJobId(jobIds.incrementAndGet())
+					.withResourceKeys("A", "B")
+					.build();
+
+			assertTrue(resourceLocks[0].tryAcquire(ownerOfA));
+			assertTrue(resourceLocks[0].tryAcquire(ownerOfB));
+			assertFalse(resourceLocks[0].tryAcquire(waitingForBoth)); // Waits for A
+			assertFalse(resourceLocks[0].tryAcquire(waitingForA));
+			assertEquals(Arrays.asList(waitingForBoth, waitingForA), waitingJobs);
+
+			// The job with both keys moves on to wait for B, so the job behind it is handed A
+			assertEquals(Collections.singletonList(waitingForA), resourceLocks[0].release(ownerOfA));
+			assertEquals(Arrays.asList(waitingForBoth, waitingForA, waitingForBoth), waitingJobs);
+		} finally {
+			otherThread.shutdownNow();
+		}
+	}
+
+	@Test
+	public void releasingWithoutWaitingJobsFreesTheResource() {
+		ResourceLockManager resourceLocks = new ResourceLockManager(waitingJobs::add);
+		Job owner = job("K");
+
+		assertTrue(resourceLocks.tryAcquire(owner));
+		assertEquals(0, resourceLocks.getAvailablePermits("K"));
+		assertEquals(Collections.emptyList(), resourceLocks.release(owner));
+		assertTrue(resourceLocks.isResourceFree("K"));
+		assertEquals(1, resourceLocks.getAvailablePermits("K"));
+
+		// Released twice, or by a job that isn't the owner
+		assertEquals(Collections.emptyList(), resourceLocks.release(owner));
+		assertEquals(Collections.emptyList(), resourceLocks.release(job("K")));
+		assertEquals(1, resourceLocks.getAvailablePermits("K"));
+
+		Job nextJob = job("K");
+		assertTrue(resourceLocks.tryAcquire(nextJob));
+		assertTrue(waitingJobs.isEmpty());
+	}
+
+}
@@ -0,0 +1,231 @@
+package com.frejdh.util.job.tests;
+
+import com.frejdh.util.job.Job;
+import com.frejdh.util.job.JobFunction;
+import com.frejdh.util.job.JobQueue;
+import com.frejdh.util.job.JobQueueBuilder;
+import com.frejdh.util.job.model.JobStatus;
+import com.frejdh.util.job.persistence.JobQueueService;
+import com.frejdh.util.job.persistence.impl.memory.RuntimeJobQueueDao;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RuntimeJobQueueDaoTest {
+
+	private final AtomicLong jobIds = new AtomicLong();
+	private final RuntimeJobQueueDao dao = new RuntimeJobQueueDao();
+	private final JobQueueService service = new JobQueueService(dao);
+	private final Map<Long, JobFunction> jobFunctions = new ConcurrentHashMap<>();
+
+	/**
+	 * @return A pending job, not yet stored.
+	 */
+	private Job pendingJob() {
+		JobFunction jobFunction = JobFunction.builder().action((jobRef) -> { }).build();
+		Job job = new Job(jobFunction, jobIds.incrementAndGet(), null, null, null);
+		jobFunction.transitionTo(JobStatus.INITIALIZED);
+		jobFunctions.put(job.getJobId(), jobFunction);
+		return job;
+	}
+
+	private void changeStatus(Job job, JobStatus newStatus) {
+		assertTrue(jobFunctions.get(job.getJobId()).transitionTo(newStatus));
+		dao.upsertJob(job);
+	}
+
+	/**
+	 * @param expectedCategory Pending, running or finished.
+	 */
+	private void assertOnlyInCategory(Job job, String expectedCategory) {
+		Map<String, Map<Long, Job>> categories = new LinkedHashMap<>();
+		categories.put("pending", dao.getPendingJobs());
+		categories.put("running", dao.getRunningJobs());
+		categories.put("finished", dao.getFinishedJobs());
+
+		List<String> foundCategories = new ArrayList<>();
+		categories.forEach((category, jobs) -> {
+			if (jobs.containsKey(job.getJobId())) {
+				assertSame(job, jobs.get(job.getJobId()));
+				foundCategories.add(category);
+			}
+		});
+		assertEquals(Collections.singletonList(expectedCategory), foundCategories, "Categories of job " + job.getJobId());
+	}
+
+	@Test
+	public void jobsMoveBetweenCategoriesOnStatusChange() {
+		Job job = pendingJob();
+		dao.upsertJob(job);
+		assertOnlyInCategory(job, "pending");
+
+		changeStatus(job, JobStatus.RUNNING_ACTION);
+		assertOnlyInCategory(job, "running");
+
+		changeStatus(job, JobStatus.RUNNING_CALLBACK);
+		assertOnlyInCategory(job, "running");
+
+		changeStatus(job, JobStatus.FINISHED);
+		assertOnlyInCategory(job, "finished");
+
+		dao.upsertJob(job); // Unchanged status
+		assertOnlyInCategory(job, "finished");
+		assertEquals(1, dao.getAllJobs().size());
+	}
+
+	@Test
+	public void removedJobsAreRemovedFromAllIndexes() {
+		Job pendingJob = pendingJob();
+		Job finishedJob = pendingJob();
+		dao.upsertJob(pendingJob);
+		dao.upsertJob(finishedJob);
+		changeStatus(finishedJob, JobStatus.RUNNING_ACTION);
+		changeStatus(finishedJob, JobStatus.FINISHED);
+
+		assertTrue(service.removeJobByJobId(finishedJob.getJobId()));
+		assertFalse(service.removeJobByJobId(finishedJob.getJobId()));
+		assertNull(dao.getJobById(finishedJob.getJobId()));
+		assertTrue(dao.getFinishedJobs().isEmpty());
+		assertNull(dao.getLastFinishedJob());
+		assertSame(pendingJob, dao.getLastAddedJob());
+
+		assertTrue(service.removeJobByJobId(pendingJob.getJobId()));
+		assertTrue(dao.getPendingJobs().isEmpty());
+		assertTrue(dao.getAllJobs().isEmpty());
+		assertNull(dao.getLastAddedJob());
+	}
+
+	@Test
+	public void categoryMapsAreLiveUnmodifiableViews() {
+		Map<Long, Job> pendingJobs = dao.getPendingJobs();
+		Map<Long, Job> finishedJobs = dao.getFinishedJobs();
+		Job job = pendingJob();
+
+		dao.upsertJob(job);
+		assertEquals(1, pendingJobs.size());
+		assertSame(job, pendingJobs.values().iterator().next());
+
+		changeStatus(job, JobStatus.CANCELED);
+		assertTrue(pendingJobs.isEmpty());
+		assertEquals(1, finishedJobs.size());
+		assertTrue(finishedJobs.containsKey(job.getJobId()));
+
+		assertThrows(UnsupportedOperationException.class, () -> finishedJobs.remove(job.getJobId()));
+		assertThrows(UnsupportedOperationException.class, () -> pendingJobs.put(job.getJobId(), job));
+	}
+
+	@Test
+	public void lastFinishedJobIsTheMostRecentlyFinished() {
+		Job firstAddedJob = pendingJob();
+		Job lastAddedJob = pendingJob();
+		dao.upsertJob(firstAddedJob);
+		dao.upsertJob(lastAddedJob);
+		assertNull(dao.getLastFinishedJob());
+		assertSame(lastAddedJob, dao.getLastAddedJob());
+
+		changeStatus(lastAddedJob, JobStatus.RUNNING_ACTION);
+		changeStatus(lastAddedJob, JobStatus.FINISHED);
+		assertSame(lastAddedJob, dao.getLastFinishedJob());
+
+		// Finishes after the job added later, so it's now the last finished one
+		changeStatus(firstAddedJob, JobStatus.CANCELED);
+		assertSame(firstAddedJob, dao.getLastFinishedJob());
+		assertSame(lastAddedJob, dao.getLastAddedJob());
+	}
+
+	@Test
+	public void jobsAreRemovedAfterTheirAddedTimestampChanged() throws InterruptedException {
+		JobQueue queue = new JobQueueBuilder().withCustomDaoService(service).build();
+		Job job = Job.builder().withAction((jobRef) -> { }).build();
+		Job lastJob = Job.builder().withAction((jobRef) -> { }).build();
+		try {
+			queue.addAll(Arrays.asList(job, lastJob));
+			long addedTimestamp = job.getAddedTimestamp();
+			while (job.getAddedTimestamp() == addedTimestamp) {
+				Thread.sleep(2);
+				queue.add(job); // Same instance again, which sets a later added timestamp than the last job's
+			}
+		} finally {
+			queue.stopNow();
+		}
+		assertEquals(Arrays.asList(job, lastJob), dao.getAllJobs());
+		assertSame(lastJob, dao.getLastAddedJob());
+
+		assertTrue(service.removeJobByJobId(lastJob.getJobId()));
+		assertNull(dao.getJobById(lastJob.getJobId()));
+		assertEquals(1, dao.getPendingJobs().size() + dao.getRunningJobs().size() + dao.getFinishedJobs().size());
+		assertEquals(Collections.singletonList(job), dao.getAllJobs());
+		assertSame(job, dao.getLastAddedJob());
+
+		assertTrue(service.removeJobByJobId(job.getJobId()));
+		assertTrue(dao.getAllJobs().isEmpty());
+		assertEquals(0, dao.getPendingJobs().size() + dao.getRunningJobs().size() + dao.getFinishedJobs().size());
+	}
+
+	@Test
+	public void concurrentUpsertsAndRemovalsKeepTheIndexesConsistent() throws Exception {
+		final int threads = 8;
+		final int jobsPerThread = 500;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch startSignal = new CountDownLatch(1);
+		List<Future<List<Job>>> futures = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(() -> {
+					startSignal.await();
+					List<Job> keptJobs = new ArrayList<>();
+					for (int j = 0; j < jobsPerThread; j++) {
+						Job job = pendingJob();
+						dao.upsertJob(job);
+						changeStatus(job, JobStatus.RUNNING_ACTION);
+						if (j % 3 == 0) {
+							assertTrue(service.removeJobByJobId(job.getJobId()));
+							continue;
+						}
+						if (j % 3 == 1) {
+							changeStatus(job, JobStatus.FINISHED);
+						}
+						keptJobs.add(job);
+					}
+					return keptJobs;
+				}));
+			}
+			startSignal.countDown();
+
+			List<Job> keptJobs = new ArrayList<>();
+			for (Future<List<Job>> future : futures) {
+				keptJobs.addAll(future.get());
+			}
+
+			assertEquals(keptJobs.size(), dao.getAllJobs().size());
+			assertEquals(keptJobs.size(), dao.getRunningJobs().size() + dao.getFinishedJobs().size());
+			assertTrue(dao.getPendingJobs().isEmpty());
+			for (Job job : keptJobs) {
+				assertOnlyInCategory(job, job.getStatus() == JobStatus.FINISHED ? "finished" : "running");
+			}
+			assertTrue(dao.getFinishedJobs().containsKey(dao.getLastFinishedJob().getJobId()));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}